@@ -0,0 +1,95 @@
+package pt.pmribeiro.webstore.benchmarks;
+
+import com.netflix.hystrix.Hystrix;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.pmribeiro.webstore.dao.HystrixPurchaseDAO;
+import pt.pmribeiro.webstore.dao.IPurchaseDAO;
+import pt.pmribeiro.webstore.dao.InMemoryPurchaseDAO;
+import pt.pmribeiro.webstore.dto.Purchase;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * {@code HystrixBoundaryBenchmark} measures the overhead of the hystrix isolation of a purchase lookup
+ * nestedBoundaries reproduces the commands nested in the controller and in the service,
+ * each one with its own thread pool as the javanica defaults, and daoBoundary is the single
+ * command of the {@link HystrixPurchaseDAO}
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HystrixBoundaryBenchmark {
+
+    private static final int SIZE = 1000;
+
+    private IPurchaseDAO purchaseRepository;
+
+    private IPurchaseDAO hystrixPurchaseRepository;
+
+    @Setup
+    public void setUp() {
+        purchaseRepository = new InMemoryPurchaseDAO();
+        PurchaseFixtures.purchases(SIZE, 0.5, 1).forEach(purchaseRepository::save);
+        hystrixPurchaseRepository = new HystrixPurchaseDAO(purchaseRepository);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Hystrix.reset();
+    }
+
+    private static long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, SIZE + 1);
+    }
+
+    @Benchmark
+    public Purchase direct() {
+        return purchaseRepository.findById(randomId());
+    }
+
+    @Benchmark
+    public Purchase nestedBoundaries() {
+        long id = randomId();
+        return command("PurchaseController", "updatePurchase", () ->
+                command("PurchaseService", "findPurchaseById", () -> purchaseRepository.findById(id)));
+    }
+
+    @Benchmark
+    public Purchase daoBoundary() {
+        return hystrixPurchaseRepository.findById(randomId());
+    }
+
+    /**
+     * Runs the call in a thread isolated command with the thread pool of the group, as javanica does by default
+     */
+    private static <T> T command(String groupKey, String commandKey, Supplier<T> call) {
+        return new HystrixCommand<T>(HystrixCommand.Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey(groupKey))
+                .andCommandKey(HystrixCommandKey.Factory.asKey(commandKey))) {
+            @Override
+            protected T run() {
+                return call.get();
+            }
+        }.execute();
+    }
+
+}
@@ -0,0 +1,126 @@
+package pt.pmribeiro.webstore.benchmarks;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+import pt.pmribeiro.webstore.dao.CachingPurchaseDAO;
+import pt.pmribeiro.webstore.dao.IPurchaseDAO;
+import pt.pmribeiro.webstore.dao.InMemoryPurchaseDAO;
+import pt.pmribeiro.webstore.dao.JdbcPurchaseDAO;
+import pt.pmribeiro.webstore.dto.Purchase;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PurchaseDAOBenchmark} measures the lookups of the IPurchaseDAO implementations
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurchaseDAOBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+    private static final int CACHE_SIZE = 10000;
+    private static final long CACHE_EXPIRATION = 600000;
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"memory", "cached", "jdbc"})
+    private String dao;
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    private EmbeddedDatabase database;
+
+    private IPurchaseDAO purchaseRepository;
+
+    @Setup
+    public void setUp() {
+        switch (dao) {
+            case "memory":
+                purchaseRepository = new InMemoryPurchaseDAO();
+                break;
+            case "cached":
+                purchaseRepository = new CachingPurchaseDAO(new InMemoryPurchaseDAO(), CACHE_SIZE, CACHE_EXPIRATION);
+                break;
+            case "jdbc":
+                database = new EmbeddedDatabaseBuilder()
+                        .setType(EmbeddedDatabaseType.H2)
+                        .generateUniqueName(true)
+                        .addScript("db/schema-jdbc.sql")
+                        .build();
+                purchaseRepository = new JdbcPurchaseDAO(new NamedParameterJdbcTemplate(database),
+                        new TransactionTemplate(new DataSourceTransactionManager(database)));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown dao " + dao);
+        }
+
+        purchaseRepository.saveAll(PurchaseFixtures.purchases(size, 0.5, 2));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (database != null) {
+            database.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Purchase findById() {
+        return purchaseRepository.findById(randomId());
+    }
+
+    @Benchmark
+    public boolean exists() {
+        return purchaseRepository.exists(randomId());
+    }
+
+    @Benchmark
+    public Set<Long> findExistingIds() {
+        List<Long> ids = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ids.add(randomId());
+        }
+        return purchaseRepository.findExistingIds(ids);
+    }
+
+    @Benchmark
+    public List<Purchase> getValidPurchasesDetailPage() {
+        return purchaseRepository.getValidPurchasesDetailPage(System.currentTimeMillis(), null, PAGE_SIZE);
+    }
+
+    /**
+     * Gets a random id, a tenth of them don't exist
+     *
+     * @return purchase id
+     */
+    private long randomId() {
+        return 1L + ThreadLocalRandom.current().nextInt(size + size / 10);
+    }
+
+}
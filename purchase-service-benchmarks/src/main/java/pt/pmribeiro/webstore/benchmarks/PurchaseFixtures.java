@@ -0,0 +1,67 @@
+package pt.pmribeiro.webstore.benchmarks;
+
+import com.google.common.collect.Lists;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PurchaseFixtures} builds the purchases used by the benchmarks
+ * The data is generated with a fixed seed so every run measures the same data
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public final class PurchaseFixtures {
+
+    private static final long SEED = 42L;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private PurchaseFixtures() {
+    }
+
+    /**
+     * Builds a list of purchases in random order where the given ratio of them is valid
+     *
+     * @param size number of purchases
+     * @param validRatio ratio of purchases with an expiration date in the future
+     * @param detailsSize number of details of each purchase
+     * @return list of purchases with ids from 1 to size
+     */
+    public static List<Purchase> purchases(int size, double validRatio, int detailsSize) {
+        Random random = new Random(SEED);
+        long now = System.currentTimeMillis();
+        int validCount = (int) Math.round(size * validRatio);
+
+        List<Purchase> purchases = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            long expires = i < validCount
+                    ? now + HOUR + random.nextInt((int) HOUR)
+                    : now - HOUR - random.nextInt((int) HOUR);
+            purchases.add(purchase(i + 1L, new Date(expires), detailsSize));
+        }
+        Collections.shuffle(purchases, random);
+        return purchases;
+    }
+
+    /**
+     * Builds a purchase with the given number of details
+     *
+     * @param id purchase id
+     * @param expires expiration date
+     * @param detailsSize number of details
+     * @return purchase
+     */
+    public static Purchase purchase(long id, Date expires, int detailsSize) {
+        List<PurchaseDetail> details = Lists.newArrayListWithCapacity(detailsSize);
+        for (int i = 0; i < detailsSize; i++) {
+            details.add(PurchaseDetail.builder().id(i + 1L).description("Item " + i).quantity(1 + i % 10).value(9.99 * (1 + i % 10)).build());
+        }
+        return Purchase.builder().id(id).productType(id % 2 == 0 ? "Bakery" : "Gadget").expires(expires).purchaseDetails(details).build();
+    }
+
+}
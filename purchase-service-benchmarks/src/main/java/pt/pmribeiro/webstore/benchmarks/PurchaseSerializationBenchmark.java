@@ -0,0 +1,77 @@
+package pt.pmribeiro.webstore.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import pt.pmribeiro.webstore.dto.Purchase;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PurchaseSerializationBenchmark} measures the json representation of the purchases
+ * with the same object mapper configuration used by the api
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurchaseSerializationBenchmark {
+
+    private static final int LIST_SIZE = 1000;
+
+    @Param({"1", "100"})
+    private int detailsSize;
+
+    private ObjectWriter purchaseWriter;
+    private ObjectReader purchaseReader;
+
+    private Purchase purchase;
+    private byte[] purchaseJson;
+    private List<Purchase> purchases;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        purchaseWriter = objectMapper.writer();
+        purchaseReader = objectMapper.readerFor(Purchase.class);
+
+        purchase = PurchaseFixtures.purchase(1L, new Date(), detailsSize);
+        purchaseJson = purchaseWriter.writeValueAsBytes(purchase);
+        purchases = PurchaseFixtures.purchases(LIST_SIZE, 1.0, detailsSize);
+    }
+
+    @Benchmark
+    public byte[] writePurchase() throws IOException {
+        return purchaseWriter.writeValueAsBytes(purchase);
+    }
+
+    @Benchmark
+    public byte[] writePurchaseList() throws IOException {
+        return purchaseWriter.writeValueAsBytes(purchases);
+    }
+
+    @Benchmark
+    public Purchase readPurchase() throws IOException {
+        return purchaseReader.readValue(purchaseJson);
+    }
+
+}
@@ -0,0 +1,66 @@
+package pt.pmribeiro.webstore.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.validators.PurchaseValidator;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PurchaseValidatorBenchmark} measures the validation of purchases
+ * with large detail lists, valid and with an error in every detail
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurchaseValidatorBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int detailsSize;
+
+    private PurchaseValidator purchaseValidator;
+
+    private Purchase validPurchase;
+    private Purchase invalidPurchase;
+
+    @Setup
+    public void setUp() {
+        purchaseValidator = new PurchaseValidator();
+        validPurchase = PurchaseFixtures.purchase(1L, new Date(), detailsSize);
+        invalidPurchase = PurchaseFixtures.purchase(2L, new Date(), detailsSize);
+        invalidPurchase.getPurchaseDetails().forEach(detail -> detail.setQuantity(0));
+    }
+
+    @Benchmark
+    public Errors validateValidPurchase() {
+        Errors errors = new BeanPropertyBindingResult(validPurchase, "purchase");
+        purchaseValidator.validate(validPurchase, errors);
+        return errors;
+    }
+
+    @Benchmark
+    public Errors validateInvalidPurchase() {
+        Errors errors = new BeanPropertyBindingResult(invalidPurchase, "purchase");
+        purchaseValidator.validate(invalidPurchase, errors);
+        return errors;
+    }
+
+}
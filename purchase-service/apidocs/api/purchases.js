@@ -1,215 +1,431 @@
-/**
- * @apiDefine NoContent
- *
- *  @apiSuccessExample {json} Success 204 response example:
- *  HTTP/1.1 204 No Content
- */
-
-/**
- * @apiDefine GetValidPurchasesSuccess200Return
- *
- * @apiSuccess {Long} 	        id 				                id of the purchase.
- * @apiSuccess {String} 	    productType  	                product type.
- * @apiSuccess {Date} 		    expires  	                    expiration date.
- * @apiSuccess {Object[]} 		purchaseDetails  	            list of purchaseDetails.
- * @apiSuccess {Long} 	        purchaseDetails.id 				id of the item.
- * @apiSuccess {String} 	    purchaseDetails.description  	description of the item.
- * @apiSuccess {Integer} 	    purchaseDetails.quantity  	    quantity.
- * @apiSuccess {Double} 	    purchaseDetails.value  	        total value.
- *
- * @apiSuccessExample {json} Success 200 response example:
- *  HTTP/1.1 200 OK
- *  Content-Type: application/json;charset=UTF-8
- *  Content-Length: 152
- *
- *  [{"id":1,"productType":"Cake","expires":1480496691580,"purchaseDetails":[]},{"id":2,"productType":"Tools","expires":1480496691580,"purchaseDetails":[]}]
- */
-
-/**
- * @apiDefine SavePurchaseSuccess200Return
- *
- * @apiSuccess {Long} 	        id 				                id of the purchase.
- * @apiSuccess {String} 	    productType  	                product type.
- * @apiSuccess {Date} 		    expires  	                    expiration date.
- * @apiSuccess {Object[]} 		purchaseDetails  	            list of purchaseDetails.
- * @apiSuccess {Long} 	        purchaseDetails.id 				id of the item.
- * @apiSuccess {String} 	    purchaseDetails.description  	description of the item.
- * @apiSuccess {Integer} 	    purchaseDetails.quantity  	    quantity.
- * @apiSuccess {Double} 	    purchaseDetails.value  	        total value.
- *
- * @apiSuccessExample {json} Success 201 response example:
- *  HTTP/1.1 201 Created
- *  Content-Type: application/json;charset=UTF-8
- *  Content-Length: 142
- *
- *  {"id":1,"productType":"Cake","expires":1480507595369,"purchaseDetails":[{"id":1,"description":"XXL wedding cake","quantity":1,"value":500.0}]}
- */
-
-/**
- * @apiDefine UpdatePurchaseSuccess200Return
- *
- * @apiSuccess {Long} 	        id 				                id of the purchase.
- * @apiSuccess {String} 	    productType  	                product type.
- * @apiSuccess {Date} 		    expires  	                    expiration date.
- * @apiSuccess {Object[]} 		purchaseDetails  	            list of purchaseDetails.
- * @apiSuccess {Long} 	        purchaseDetails.id 				id of the item.
- * @apiSuccess {String} 	    purchaseDetails.description  	description of the item.
- * @apiSuccess {Integer} 	    purchaseDetails.quantity  	    quantity.
- * @apiSuccess {Double} 	    purchaseDetails.value  	        total value.
- *
- * @apiSuccessExample {json} Success 200 response example:
- *  HTTP/1.1 200 OK
- *  Content-Type: application/json;charset=UTF-8
- *  Content-Length: 141
- *
- *  {"id":1,"productType":"Bakery","expires":1480507595369,"purchaseDetails":[{"id":1,"description":"XL wedding cake","quantity":2,"value":600.0}]}
- */
-
-/**
- * @apiDefine DataIntegrityViolation
- *
- * @apiError (Error 409) {String} code="DataIntegrityViolation"
- * @apiError (Error 409) {String} message detailed message
- *
- *  @apiErrorExample {json} Error 409 response example:
- *  HTTP/1.1 409 Conflict
- *  Content-Type: application/json;charset=UTF-8
- *  Content-Length: 72
- *
- *  {"code":"DataIntegrityViolation","message":"Purchase id already in use"}
- */
-
-/**
- * @apiDefine DataIntegrityViolation2
- *
- * @apiError (Error 409) {String} code="DataIntegrityViolation"
- * @apiError (Error 409) {String} message detailed message
- *
- *  @apiErrorExample {json} Error 409 response example:
- *  HTTP/1.1 409 Conflict
- *  Content-Type: application/json;charset=UTF-8
- *  Content-Length: 78
- *
- *  {"code":"DataIntegrityViolation","message":"Purchase detail id already in use"}
- */
-
-/**
- * @apiDefine InvalidPurchase
- *
- * @apiError (Error 400) {String} code="InvalidPurchase"
- * @apiError (Error 400) {String} message detailed message
- * @apiError (Error 400) {Object[]} fieldErrors list of errors
- * @apiError (Error 400) {String} fieldErrors.code code of field error
- * @apiError (Error 400) {String} fieldErrors.field field name
- * @apiError (Error 400) {String} fieldErrors.resource resource name
- * @apiError (Error 400) {String} fieldErrors.message detailed message
- *
- *  @apiErrorExample {json} Error 400 response example:
- *  HTTP/1.1 400 Bad Request
- *  Content-Type: application/json;charset=UTF-8
- *  Content-Length: 291
- *
- *  {"code":"InvalidPurchase","fieldErrors":[{"code":"","field":"productType","resource":"purchase","message":"ProductType is empty"},{"code":"","field":"purchaseDetails[0].quantity","resource":"purchase","message":"PurchaseDetail quantity is null or equals to 0"}],"message":"Invalid purchase"}
- */
-
-/**
- * @apiDefine NotFoundException
- *
- * @apiError (Error 404) {String} code="NotFound"
- * @apiError (Error 404) {String} message detailed message
- *
- *  @apiErrorExample {json} Error 404 response example:
- *  HTTP/1.1 404 Not Found
- *  Content-Type: application/json;charset=UTF-8
- *  Content-Length: 50
- *
- *  {"code":"NotFound","message":"Purchase 1 not found"}
- */
-
-/**
- * @apiVersion 1.0.0
- * @apiName GetValidPurchases
- * @apiGroup Purchases
- *
- * @apiDescription
- * This service allows you to get a list of all valid purchases.<br>
- *
- * @api {get} /api/purchases
- * 1. Get valid purchases
- *
- * @apiHeader {String} Accept=application/json;charset=UTF-8
- * @apiHeaderExample {json} Header-Example:
- * {
- *  "Accept": "application/json;charset=UTF-8"
- * }
- *
- * @apiExample Example usage:
- * curl 'http://localhost:8080/api/purchases' -i -H 'Accept: application/json;charset=UTF-8'
- *
- * @apiUse GetValidPurchasesSuccess200Return
- * @apiUse NoContent
- *
- *  @apiSampleRequest off
- */
-
-/**
- * @apiVersion 1.0.0
- * @apiName SavePurchase
- * @apiGroup Purchases
- *
- * @apiDescription
- * This service allows you to save a given purchase.<br>
- *
- * @api {post} /api/purchases
- * 2. Save purchase
- *
- * @apiHeader {String} Accept=application/json;charset=UTF-8
- * @apiHeader {String} content-type=application/json;charset=UTF-8
- * @apiHeaderExample {json} Header-Example:
- * {
- *  "Accept": "application/json;charset=UTF-8",
- *  "Content-Type": "application/json;charset=UTF-8"
- * }
- *
- * @apiExample Example usage:
- * curl 'http://localhost:8080/api/purchases' -i -X POST -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '{"id":1,"productType":"Cake","expires":1480507595369,"purchaseDetails":[{"id":1,"description":"XXL wedding cake","quantity":1,"value":500.0}]}'
- *
- * @apiUse SavePurchaseSuccess200Return
- * @apiUse DataIntegrityViolation
- * @apiUse InvalidPurchase
- *
- *  @apiSampleRequest off
- */
-
-/**
- * @apiVersion 1.0.0
- * @apiName UpdatePurchase
- * @apiGroup Purchases
- *
- * @apiDescription
- * This service allows you to update a given purchase.<br>
- *
- * @api {post} /api/purchases/:purchaseId
- * 2. Update purchase
- *
- * @@apiParam {Number} purchaseId purchase unique ID.
- *
- * @apiHeader {String} Accept=application/json;charset=UTF-8
- * @apiHeader {String} content-type=application/json;charset=UTF-8
- * @apiHeaderExample {json} Header-Example:
- * {
- *  "Accept": "application/json;charset=UTF-8",
- *  "Content-Type": "application/json;charset=UTF-8"
- * }
- *
- * @apiExample Example usage:
- * curl 'http://localhost:8080/api/purchases/1' -i -X PUT -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '{"id":1,"productType":"Bakery","purchaseDetails":[{"id":1,"description":"XL wedding cake","quantity":2,"value":600.0}]}'
- * curl 'http://localhost:8080/api/purchases/1' -i -X PATCH -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '{"id":1,"productType":"Bakery","purchaseDetails":[{"id":1,"description":"XL wedding cake","quantity":2,"value":600.0}]}'
- *
- * @apiUse UpdatePurchaseSuccess200Return
- * @apiUse DataIntegrityViolation2
- * @apiUse InvalidPurchase
- * @apiUse NotFoundException
- *
- *  @apiSampleRequest off
+/**
+ * @apiDefine NoContent
+ *
+ *  @apiSuccessExample {json} Success 204 response example:
+ *  HTTP/1.1 204 No Content
+ */
+
+/**
+ * @apiDefine GetValidPurchasesSuccess200Return
+ *
+ * @apiSuccess {Long} 	        id 				                id of the purchase.
+ * @apiSuccess {String} 	    productType  	                product type.
+ * @apiSuccess {Date} 		    expires  	                    expiration date.
+ * @apiSuccess {Object[]} 		purchaseDetails  	            list of purchaseDetails.
+ * @apiSuccess {Long} 	        purchaseDetails.id 				id of the item.
+ * @apiSuccess {String} 	    purchaseDetails.description  	description of the item.
+ * @apiSuccess {Integer} 	    purchaseDetails.quantity  	    quantity.
+ * @apiSuccess {Double} 	    purchaseDetails.value  	        total value.
+ * @apiSuccess {Long} 	        version  	                    version of the purchase.
+ *
+ * @apiSuccessExample {json} Success 200 response example:
+ *  HTTP/1.1 200 OK
+ *  Content-Type: application/json;charset=UTF-8
+ *  Content-Length: 152
+ *
+ *  [{"id":1,"productType":"Cake","expires":1480496691580,"purchaseDetails":[],"version":1},{"id":2,"productType":"Tools","expires":1480496691580,"purchaseDetails":[],"version":1}]
+ */
+
+/**
+ * @apiDefine SavePurchaseSuccess200Return
+ *
+ * @apiSuccess {Long} 	        id 				                id of the purchase.
+ * @apiSuccess {String} 	    productType  	                product type.
+ * @apiSuccess {Date} 		    expires  	                    expiration date.
+ * @apiSuccess {Object[]} 		purchaseDetails  	            list of purchaseDetails.
+ * @apiSuccess {Long} 	        purchaseDetails.id 				id of the item.
+ * @apiSuccess {String} 	    purchaseDetails.description  	description of the item.
+ * @apiSuccess {Integer} 	    purchaseDetails.quantity  	    quantity.
+ * @apiSuccess {Double} 	    purchaseDetails.value  	        total value.
+ * @apiSuccess {Long} 	        version  	                    version of the purchase, also returned in the ETag header.
+ *
+ * @apiSuccessExample {json} Success 201 response example:
+ *  HTTP/1.1 201 Created
+ *  Content-Type: application/json;charset=UTF-8
+ *  ETag: "1"
+ *
+ *  {"id":1,"productType":"Cake","expires":1480507595369,"purchaseDetails":[{"id":1,"description":"XXL wedding cake","quantity":1,"value":500.0}],"version":1}
+ */
+
+/**
+ * @apiDefine UpdatePurchaseSuccess200Return
+ *
+ * @apiSuccess {Long} 	        id 				                id of the purchase.
+ * @apiSuccess {String} 	    productType  	                product type.
+ * @apiSuccess {Date} 		    expires  	                    expiration date.
+ * @apiSuccess {Object[]} 		purchaseDetails  	            list of purchaseDetails.
+ * @apiSuccess {Long} 	        purchaseDetails.id 				id of the item.
+ * @apiSuccess {String} 	    purchaseDetails.description  	description of the item.
+ * @apiSuccess {Integer} 	    purchaseDetails.quantity  	    quantity.
+ * @apiSuccess {Double} 	    purchaseDetails.value  	        total value.
+ * @apiSuccess {Long} 	        version  	                    version of the purchase, also returned in the ETag header.
+ *
+ * @apiSuccessExample {json} Success 200 response example:
+ *  HTTP/1.1 200 OK
+ *  Content-Type: application/json;charset=UTF-8
+ *  ETag: "2"
+ *
+ *  {"id":1,"productType":"Bakery","expires":1480507595369,"purchaseDetails":[{"id":1,"description":"XL wedding cake","quantity":2,"value":600.0}],"version":2}
+ */
+
+/**
+ * @apiDefine DataIntegrityViolation
+ *
+ * @apiError (Error 409) {String} code="DataIntegrityViolation"
+ * @apiError (Error 409) {String} message detailed message
+ *
+ *  @apiErrorExample {json} Error 409 response example:
+ *  HTTP/1.1 409 Conflict
+ *  Content-Type: application/json;charset=UTF-8
+ *  Content-Length: 72
+ *
+ *  {"code":"DataIntegrityViolation","message":"Purchase id already in use"}
+ */
+
+/**
+ * @apiDefine DataIntegrityViolation2
+ *
+ * @apiError (Error 409) {String} code="DataIntegrityViolation"
+ * @apiError (Error 409) {String} message detailed message
+ *
+ *  @apiErrorExample {json} Error 409 response example:
+ *  HTTP/1.1 409 Conflict
+ *  Content-Type: application/json;charset=UTF-8
+ *  Content-Length: 78
+ *
+ *  {"code":"DataIntegrityViolation","message":"Purchase detail id already in use"}
+ */
+
+/**
+ * @apiDefine InvalidPurchase
+ *
+ * @apiError (Error 400) {String} code="InvalidPurchase"
+ * @apiError (Error 400) {String} message detailed message
+ * @apiError (Error 400) {Object[]} fieldErrors list of errors
+ * @apiError (Error 400) {String} fieldErrors.code code of field error
+ * @apiError (Error 400) {String} fieldErrors.field field name
+ * @apiError (Error 400) {String} fieldErrors.resource resource name
+ * @apiError (Error 400) {String} fieldErrors.message detailed message
+ *
+ *  @apiErrorExample {json} Error 400 response example:
+ *  HTTP/1.1 400 Bad Request
+ *  Content-Type: application/json;charset=UTF-8
+ *  Content-Length: 291
+ *
+ *  {"code":"InvalidPurchase","fieldErrors":[{"code":"","field":"productType","resource":"purchase","message":"ProductType is empty"},{"code":"","field":"purchaseDetails[0].quantity","resource":"purchase","message":"PurchaseDetail quantity is null or equals to 0"}],"message":"Invalid purchase"}
+ */
+
+/**
+ * @apiDefine NotFoundException
+ *
+ * @apiError (Error 404) {String} code="NotFound"
+ * @apiError (Error 404) {String} message detailed message
+ *
+ *  @apiErrorExample {json} Error 404 response example:
+ *  HTTP/1.1 404 Not Found
+ *  Content-Type: application/json;charset=UTF-8
+ *  Content-Length: 50
+ *
+ *  {"code":"NotFound","message":"Purchase 1 not found"}
+ */
+
+/**
+ * @apiDefine ServiceUnavailable
+ *
+ * @apiError (Error 503) {String} code="ServiceUnavailable"
+ * @apiError (Error 503) {String} message detailed message
+ *
+ *  @apiErrorExample {json} Error 503 response example:
+ *  HTTP/1.1 503 Service Unavailable
+ *  Content-Type: application/json;charset=UTF-8
+ *  Content-Length: 84
+ *
+ *  {"code":"ServiceUnavailable","message":"Purchase database didn't answer within 2000ms"}
+ */
+
+/**
+ * @apiDefine PreconditionFailed
+ *
+ * @apiError (Error 412) {String} code="PreconditionFailed"
+ * @apiError (Error 412) {String} message detailed message
+ *
+ *  @apiErrorExample {json} Error 412 response example:
+ *  HTTP/1.1 412 Precondition Failed
+ *  Content-Type: application/json;charset=UTF-8
+ *
+ *  {"code":"PreconditionFailed","message":"Purchase 1 version is 3, expected 2"}
+ */
+
+/**
+ * @apiDefine StaleSnapshot
+ *
+ * @apiSuccess (Stale 200) {String} Warning=110 - "Response is Stale" header returned when the database is unavailable and the last known result is served.
+ * @apiSuccess (Stale 200) {Number} Age header with the age in seconds of the last known result.
+ *
+ *  @apiSuccessExample {json} Stale 200 response example:
+ *  HTTP/1.1 200 OK
+ *  Warning: 110 - "Response is Stale"
+ *  Age: 60
+ *  Content-Type: application/json;charset=UTF-8
+ */
+
+/**
+ * @apiVersion 1.0.0
+ * @apiName GetValidPurchases
+ * @apiGroup Purchases
+ *
+ * @apiDescription
+ * This service allows you to get a list of all valid purchases.<br>
+ * The list can be paginated with the limit and cursor parameters, the purchases are ordered by expiration date and id.
+ * The cursor of the next page is returned in the X-Next-Cursor header, the header is absent in the last page.<br>
+ * While the database is unavailable the last known valid purchases of the full list are returned with the Warning and Age headers.<br>
+ *
+ * @api {get} /api/purchases
+ * 1. Get valid purchases
+ *
+ * @apiParam {Number{1-1000}} [limit=100] max number of purchases in the page.
+ * @apiParam {String} [cursor] cursor returned in the X-Next-Cursor header of the previous page.
+ *
+ * @apiHeader {String} Accept=application/json;charset=UTF-8
+ * @apiHeaderExample {json} Header-Example:
+ * {
+ *  "Accept": "application/json;charset=UTF-8"
+ * }
+ *
+ * @apiExample Example usage:
+ * curl 'http://localhost:8080/api/purchases' -i -H 'Accept: application/json;charset=UTF-8'
+ * curl 'http://localhost:8080/api/purchases?limit=100&cursor=MTQ4MDQ5NjY5MTU4MDox' -i -H 'Accept: application/json;charset=UTF-8'
+ *
+ * @apiUse GetValidPurchasesSuccess200Return
+ * @apiUse StaleSnapshot
+ * @apiUse NoContent
+ * @apiUse ServiceUnavailable
+ *
+ *  @apiSampleRequest off
+ */
+
+/**
+ * @apiVersion 1.0.0
+ * @apiName GetPurchase
+ * @apiGroup Purchases
+ *
+ * @apiDescription
+ * This service allows you to get a purchase by id, the ETag header has the version of the purchase.<br>
+ * While the database is unavailable the last known purchase is returned with the Warning and Age headers.<br>
+ *
+ * @api {get} /api/purchases/:purchaseId
+ * 1. Get purchase
+ *
+ * @apiParam {Number} purchaseId purchase unique ID.
+ *
+ * @apiHeader {String} Accept=application/json;charset=UTF-8
+ * @apiHeaderExample {json} Header-Example:
+ * {
+ *  "Accept": "application/json;charset=UTF-8"
+ * }
+ *
+ * @apiExample Example usage:
+ * curl 'http://localhost:8080/api/purchases/1' -i -H 'Accept: application/json;charset=UTF-8'
+ *
+ * @apiSuccessExample {json} Success 200 response example:
+ *  HTTP/1.1 200 OK
+ *  Content-Type: application/json;charset=UTF-8
+ *
+ *  {"id":1,"productType":"Cake","expires":1480496691580,"purchaseDetails":[]}
+ *
+ * @apiUse StaleSnapshot
+ * @apiUse NotFoundException
+ * @apiUse ServiceUnavailable
+ *
+ *  @apiSampleRequest off
+ */
+
+/**
+ * @apiVersion 1.0.0
+ * @apiName StreamValidPurchases
+ * @apiGroup Purchases
+ *
+ * @apiDescription
+ * This service allows you to stream all valid purchases as newline delimited json, one purchase per line.<br>
+ * The purchases are written as they are read from the database, use it to fetch the full list of valid purchases.<br>
+ *
+ * @api {get} /api/purchases
+ * 1. Stream valid purchases
+ *
+ * @apiHeader {String} Accept=application/x-ndjson
+ * @apiHeaderExample {json} Header-Example:
+ * {
+ *  "Accept": "application/x-ndjson"
+ * }
+ *
+ * @apiExample Example usage:
+ * curl 'http://localhost:8080/api/purchases' -i -H 'Accept: application/x-ndjson'
+ *
+ * @apiSuccessExample {json} Success 200 response example:
+ *  HTTP/1.1 200 OK
+ *  Content-Type: application/x-ndjson
+ *  Transfer-Encoding: chunked
+ *
+ *  {"id":1,"productType":"Cake","expires":1480496691580,"purchaseDetails":[]}
+ *  {"id":2,"productType":"Tools","expires":1480496691580,"purchaseDetails":[]}
+ *
+ *  @apiSampleRequest off
+ */
+
+/**
+ * @apiVersion 1.0.0
+ * @apiName SavePurchase
+ * @apiGroup Purchases
+ *
+ * @apiDescription
+ * This service allows you to save a given purchase.<br>
+ * With the Idempotency-Key header a retry with the same key and purchase gets the original 201 response back,
+ * with the Idempotent-Replayed header, instead of creating the purchase again.
+ * The same key with a different purchase gets 422 and a retry while the original request is running gets 409.<br>
+ *
+ * @api {post} /api/purchases
+ * 2. Save purchase
+ *
+ * @apiHeader {String} Accept=application/json;charset=UTF-8
+ * @apiHeader {String} content-type=application/json;charset=UTF-8
+ * @apiHeader {String} [Idempotency-Key] unique key of the purchase creation chosen by the client, up to 255 characters.
+ * @apiHeaderExample {json} Header-Example:
+ * {
+ *  "Accept": "application/json;charset=UTF-8",
+ *  "Content-Type": "application/json;charset=UTF-8",
+ *  "Idempotency-Key": "8e03978e-40d5-43e8-bc93-6894a57f9324"
+ * }
+ *
+ * @apiExample Example usage:
+ * curl 'http://localhost:8080/api/purchases' -i -X POST -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '{"id":1,"productType":"Cake","expires":1480507595369,"purchaseDetails":[{"id":1,"description":"XXL wedding cake","quantity":1,"value":500.0}]}'
+ * curl 'http://localhost:8080/api/purchases' -i -X POST -H 'Idempotency-Key: 8e03978e-40d5-43e8-bc93-6894a57f9324' -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '{"id":1,"productType":"Cake","purchaseDetails":[{"id":1,"description":"XXL wedding cake","quantity":1,"value":500.0}]}'
+ *
+ * @apiUse SavePurchaseSuccess200Return
+ * @apiUse DataIntegrityViolation
+ * @apiUse InvalidPurchase
+ *
+ *  @apiSampleRequest off
+ */
+
+/**
+ * @apiVersion 1.0.0
+ * @apiName SavePurchases
+ * @apiGroup Purchases
+ *
+ * @apiDescription
+ * This service allows you to save a batch of up to 1000 purchases.<br>
+ * Each purchase is validated on its own and gets its own result, in the order of the request.<br>
+ * The purchases ids are checked for conflicts with a single call and the new purchases are saved in a single batch.<br>
+ *
+ * @api {post} /api/purchases/batch
+ * 2. Save purchases batch
+ *
+ * @apiHeader {String} Accept=application/json;charset=UTF-8
+ * @apiHeader {String} content-type=application/json;charset=UTF-8
+ * @apiHeaderExample {json} Header-Example:
+ * {
+ *  "Accept": "application/json;charset=UTF-8",
+ *  "Content-Type": "application/json;charset=UTF-8"
+ * }
+ *
+ * @apiExample Example usage:
+ * curl 'http://localhost:8080/api/purchases/batch' -i -X POST -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '[{"id":1,"productType":"Cake","purchaseDetails":[{"id":1,"description":"XXL wedding cake","quantity":1,"value":500.0}]},{"id":2,"purchaseDetails":[{"id":1,"description":"Nails","quantity":100,"value":0.1}]}]'
+ *
+ * @apiSuccess {Integer} 	    index 				            position of the purchase in the request.
+ * @apiSuccess {Long} 	        id  	                        id of the purchase.
+ * @apiSuccess {Integer} 	    status  	                    201 if created, 400 if invalid or 409 if the id is already in use.
+ * @apiSuccess {String} 	    code  	                        error code.
+ * @apiSuccess {String} 	    message  	                    error message.
+ * @apiSuccess {Object[]} 		fieldErrors  	                list of validation errors.
+ *
+ * @apiSuccessExample {json} Success 207 response example:
+ *  HTTP/1.1 207 Multi-Status
+ *  Content-Type: application/json;charset=UTF-8
+ *
+ *  [{"index":0,"id":1,"status":201},{"index":1,"id":2,"status":400,"code":"InvalidPurchase","message":"Invalid purchase","fieldErrors":[{"field":"productType","code":"","message":"ProductType is empty","resource":"purchases[1]"}]}]
+ *
+ * @apiUse DataIntegrityViolation
+ * @apiUse InvalidPurchase
+ *
+ *  @apiSampleRequest off
+ */
+
+/**
+ * @apiVersion 1.0.0
+ * @apiName UpdatePurchase
+ * @apiGroup Purchases
+ *
+ * @apiDescription
+ * This service allows you to update a given purchase.<br>
+ * With the If-Match header the purchase is only updated if its version is still the one of the ETag,
+ * otherwise nothing is changed and 412 is returned, get the purchase again and retry the update.<br>
+ *
+ * @api {post} /api/purchases/:purchaseId
+ * 2. Update purchase
+ *
+ * @@apiParam {Number} purchaseId purchase unique ID.
+ *
+ * @apiHeader {String} Accept=application/json;charset=UTF-8
+ * @apiHeader {String} content-type=application/json;charset=UTF-8
+ * @apiHeader {String} [If-Match] ETag of the purchase version the changes are based on.
+ * @apiHeaderExample {json} Header-Example:
+ * {
+ *  "Accept": "application/json;charset=UTF-8",
+ *  "Content-Type": "application/json;charset=UTF-8",
+ *  "If-Match": "\"1\""
+ * }
+ *
+ * @apiExample Example usage:
+ * curl 'http://localhost:8080/api/purchases/1' -i -X PUT -H 'If-Match: "1"' -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '{"id":1,"productType":"Bakery","purchaseDetails":[{"id":1,"description":"XL wedding cake","quantity":2,"value":600.0}]}'
+ * curl 'http://localhost:8080/api/purchases/1' -i -X PUT -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/json;charset=UTF-8' -d '{"id":1,"productType":"Bakery","purchaseDetails":[{"id":1,"description":"XL wedding cake","quantity":2,"value":600.0}]}'
+ *
+ * @apiUse UpdatePurchaseSuccess200Return
+ * @apiUse DataIntegrityViolation2
+ * @apiUse InvalidPurchase
+ * @apiUse NotFoundException
+ * @apiUse PreconditionFailed
+ * @apiUse ServiceUnavailable
+ *
+ *  @apiSampleRequest off
+ */
+
+/**
+ * @apiVersion 1.0.0
+ * @apiName PatchPurchase
+ * @apiGroup Purchases
+ *
+ * @apiDescription
+ * This service allows you to change only some fields of a given purchase with a json merge patch (RFC 7396).<br>
+ * Only the fields in the patch are validated and changed, the expiration date is renewed as in the update.<br>
+ * A purchaseDetails array replaces all the details, a purchaseDetails object keyed by detail id changes only those details:
+ * the fields of an existing detail are merged, a new detail must have description, quantity and value and a null detail is removed.<br>
+ * With the If-Match header the purchase is only patched if its version is still the one of the ETag.<br>
+ *
+ * @api {patch} /api/purchases/:purchaseId
+ * 3. Patch purchase
+ *
+ * @@apiParam {Number} purchaseId purchase unique ID.
+ *
+ * @apiHeader {String} Accept=application/json;charset=UTF-8
+ * @apiHeader {String} content-type=application/merge-patch+json
+ * @apiHeader {String} [If-Match] ETag of the purchase version the changes are based on.
+ * @apiHeaderExample {json} Header-Example:
+ * {
+ *  "Accept": "application/json;charset=UTF-8",
+ *  "Content-Type": "application/merge-patch+json",
+ *  "If-Match": "\"1\""
+ * }
+ *
+ * @apiExample Example usage:
+ * curl 'http://localhost:8080/api/purchases/1' -i -X PATCH -H 'If-Match: "1"' -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/merge-patch+json' -d '{"purchaseDetails":{"1":{"quantity":3},"2":null,"3":{"description":"Cake topper","quantity":1,"value":15.0}}}'
+ * curl 'http://localhost:8080/api/purchases/1' -i -X PATCH -H 'Accept: application/json;charset=UTF-8' -H 'Content-Type: application/merge-patch+json' -d '{"productType":"Bakery"}'
+ *
+ * @apiUse UpdatePurchaseSuccess200Return
+ * @apiUse DataIntegrityViolation2
+ * @apiUse InvalidPurchase
+ * @apiUse NotFoundException
+ * @apiUse PreconditionFailed
+ * @apiUse ServiceUnavailable
+ *
+ *  @apiSampleRequest off
  */
\ No newline at end of file
@@ -2,13 +2,20 @@ package pt.pmribeiro.webstore.config;
 
 import org.springframework.aop.Advisor;
 import org.springframework.aop.aspectj.AspectJExpressionPointcut;
-import org.springframework.aop.interceptor.CustomizableTraceInterceptor;
-import org.springframework.aop.interceptor.JamonPerformanceMonitorInterceptor;
 import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
-import org.springframework.web.filter.CommonsRequestLoggingFilter;
+import org.springframework.context.annotation.Primary;
+import pt.pmribeiro.webstore.dao.AsyncPurchaseDAO;
+import pt.pmribeiro.webstore.dao.CachingPurchaseDAO;
+import pt.pmribeiro.webstore.dao.HystrixPurchaseDAO;
+import pt.pmribeiro.webstore.dao.IPurchaseDAO;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.service.LastKnownPurchases;
+import pt.pmribeiro.webstore.service.SingleFlight;
 
-import static org.springframework.aop.interceptor.CustomizableTraceInterceptor.*;
+import java.util.List;
 
 /**
  * {@code CommonComfiguration} contains the common configuration
@@ -19,71 +26,145 @@ import static org.springframework.aop.interceptor.CustomizableTraceInterceptor.*
 public class CommonComfiguration {
 
     /**
-     * Create a CommonsRequestLoggingFilter to log system metrics
+     * Create the isolation boundary of the IPurchaseDAO of the active profile
+     * with separate hystrix thread pools for reads and writes
      *
-     * @return CommonsRequestLoggingFilter
+     * @param purchaseRepository the repository of the active profile
+     * @return HystrixPurchaseDAO
      */
     @Bean
-    public CommonsRequestLoggingFilter requestLoggingFilter() {
-        CommonsRequestLoggingFilter crlf = new CommonsRequestLoggingFilter();
-        crlf.setIncludeClientInfo(true);
-        crlf.setIncludeQueryString(true);
-        crlf.setIncludePayload(true);
-        return crlf;
+    public HystrixPurchaseDAO hystrixPurchaseRepository(@Qualifier("purchaseRepository") IPurchaseDAO purchaseRepository) {
+        return new HystrixPurchaseDAO(purchaseRepository);
     }
 
     /**
-     * Create a JamonPerformanceMonitorInterceptor to collect application metrics
+     * Create the read-through cache in front of the isolated IPurchaseDAO
+     * so the cache hits never leave the calling thread, the IPurchaseDAO used by the service
      *
-     * @return JamonPerformanceMonitorInterceptor
+     * @param hystrixPurchaseRepository the isolated repository of the active profile
+     * @param maximumSize max number of purchases in the cache
+     * @param expireAfterWrite max time in milliseconds a purchase stays in the cache
+     * @return CachingPurchaseDAO
      */
     @Bean
-    public JamonPerformanceMonitorInterceptor jamonPerformanceMonitorInterceptor() {
-        JamonPerformanceMonitorInterceptor jamonPerformanceMonitorInterceptor = new JamonPerformanceMonitorInterceptor(true, true);
-        return jamonPerformanceMonitorInterceptor;
+    @Primary
+    public CachingPurchaseDAO cachingPurchaseRepository(HystrixPurchaseDAO hystrixPurchaseRepository,
+                                                        @Value("${purchase.cache.maximum-size:10000}") long maximumSize,
+                                                        @Value("${purchase.cache.expire-after-write:600000}") long expireAfterWrite) {
+        return new CachingPurchaseDAO(hystrixPurchaseRepository, maximumSize, expireAfterWrite);
     }
 
     /**
-     * Create Advisor for all methods in pt.pmribeiro.webstore package
+     * Create a PurchaseCacheMetrics to expose the purchase cache counters
      *
-     * used by the JamonPerformanceMonitorInterceptor
-     * @return Advisor
+     * @param cachingPurchaseRepository the purchase cache
+     * @return PurchaseCacheMetrics
      */
     @Bean
-    public Advisor performanceAdvisor() {
-        AspectJExpressionPointcut pointcut = new AspectJExpressionPointcut();
-        pointcut.setExpression("execution(* pt.pmribeiro.webstore..controller..*(..)) || " +
-                "execution(* pt.pmribeiro.webstore..service..*(..)) || " +
-                "execution(* pt.pmribeiro.webstore..dao..*(..))");
-        return new DefaultPointcutAdvisor(pointcut, jamonPerformanceMonitorInterceptor());
+    public PurchaseCacheMetrics purchaseCacheMetrics(CachingPurchaseDAO cachingPurchaseRepository) {
+        return new PurchaseCacheMetrics(cachingPurchaseRepository);
+    }
+
+    /**
+     * Create the async instance of IPurchaseDAO queuing its calls in the read pool of the isolation boundary
+     *
+     * @param hystrixPurchaseRepository the isolated repository of the active profile
+     * @param cachingPurchaseRepository the purchase cache, shared with the blocking calls
+     * @return AsyncPurchaseDAO
+     */
+    @Bean
+    public AsyncPurchaseDAO asyncPurchaseRepository(HystrixPurchaseDAO hystrixPurchaseRepository, CachingPurchaseDAO cachingPurchaseRepository) {
+        return new AsyncPurchaseDAO(hystrixPurchaseRepository, cachingPurchaseRepository);
+    }
+
+    /**
+     * Create the SingleFlight coalescing the concurrent calls of the valid purchases
+     *
+     * @param freshness time in milliseconds a completed list is shared, 0 to share only the calls in flight
+     * @return SingleFlight
+     */
+    @Bean
+    public SingleFlight<List<Purchase>> validPurchasesFlight(@Value("${purchase.valid.freshness:0}") long freshness) {
+        return new SingleFlight<>(freshness);
+    }
+
+    /**
+     * Create the LastKnownPurchases served while the database is unavailable
+     *
+     * @param maximumSize max number of purchases by id kept
+     * @return LastKnownPurchases
+     */
+    @Bean
+    public LastKnownPurchases lastKnownPurchases(@Value("${purchase.snapshot.maximum-size:10000}") long maximumSize) {
+        return new LastKnownPurchases(maximumSize);
+    }
+
+    /**
+     * Create a SampledRequestLoggingFilter to log a sample of the requests
+     *
+     * @param sampleRate fraction of the requests logged
+     * @param maxPayloadLength max number of bytes of the payload logged
+     * @param queueSize number of log messages waiting to be written
+     * @return SampledRequestLoggingFilter
+     */
+    @Bean
+    public SampledRequestLoggingFilter requestLoggingFilter(@Value("${purchase.request-logging.sample-rate:0.01}") double sampleRate,
+                                                            @Value("${purchase.request-logging.max-payload-length:1024}") int maxPayloadLength,
+                                                            @Value("${purchase.request-logging.queue-size:1024}") int queueSize) {
+        return new SampledRequestLoggingFilter(sampleRate, maxPayloadLength, queueSize);
+    }
+
+    /**
+     * Create an IdempotencyFilter to replay the purchase creations retried with the same Idempotency-Key
+     *
+     * @param maximumSize max number of responses kept
+     * @param expiration time in milliseconds a response is kept
+     * @param maxBodySize max number of bytes of the payload
+     * @return IdempotencyFilter
+     */
+    @Bean
+    public IdempotencyFilter idempotencyFilter(@Value("${purchase.idempotency.maximum-size:10000}") long maximumSize,
+                                               @Value("${purchase.idempotency.expiration:86400000}") long expiration,
+                                               @Value("${purchase.idempotency.max-body-size:1048576}") int maxBodySize) {
+        return new IdempotencyFilter(maximumSize, expiration, maxBodySize);
+    }
+
+    /**
+     * Create a LatencyInterceptor to collect the latency histograms of the application
+     *
+     * @param traceSampleRate fraction of the calls logged in trace level
+     * @return LatencyInterceptor
+     */
+    @Bean
+    public LatencyInterceptor latencyInterceptor(@Value("${purchase.latency.trace-sample-rate:0.01}") double traceSampleRate) {
+        return new LatencyInterceptor(traceSampleRate);
     }
 
     /**
-     * Create a CustomizableTraceInterceptor to log events
+     * Create a LatencyEndpoint to expose the latency histograms in the actuator
      *
-     * @return CustomizableTraceInterceptor
+     * @param latencyInterceptor the interceptor recording the latencies
+     * @return LatencyEndpoint
      */
     @Bean
-    public CustomizableTraceInterceptor customizableTraceInterceptor() {
-        CustomizableTraceInterceptor cti = new CustomizableTraceInterceptor();
-        cti.setEnterMessage("Entering method '" + PLACEHOLDER_METHOD_NAME + "("+ PLACEHOLDER_ARGUMENTS+")' of class [" + PLACEHOLDER_TARGET_CLASS_NAME + "]");
-        cti.setExitMessage("Exiting method '" + PLACEHOLDER_METHOD_NAME + "' of class [" + PLACEHOLDER_TARGET_CLASS_NAME + "] took " + PLACEHOLDER_INVOCATION_TIME+"ms.");
-        return cti;
+    public LatencyEndpoint latencyEndpoint(LatencyInterceptor latencyInterceptor) {
+        return new LatencyEndpoint(latencyInterceptor);
     }
 
     /**
      * Create Advisor for all methods in pt.pmribeiro.webstore package
-     * used by the CustomizableTraceInterceptor
+     * used by the LatencyInterceptor
      *
+     * @param latencyInterceptor the interceptor recording the latencies
      * @return Advisor
      */
     @Bean
-    public Advisor traceAdvisor() {
+    public Advisor latencyAdvisor(LatencyInterceptor latencyInterceptor) {
         AspectJExpressionPointcut pointcut = new AspectJExpressionPointcut();
         pointcut.setExpression("execution(* pt.pmribeiro.webstore..controller..*(..)) || " +
                 "execution(* pt.pmribeiro.webstore..service..*(..)) || " +
                 "execution(* pt.pmribeiro.webstore..dao..*(..))");
-        return new DefaultPointcutAdvisor(pointcut, customizableTraceInterceptor());
+        return new DefaultPointcutAdvisor(pointcut, latencyInterceptor);
     }
 
 }
@@ -1,29 +1,26 @@
 package pt.pmribeiro.webstore.config;
 
 import com.google.common.collect.Lists;
-import org.mockito.invocation.InvocationOnMock;
-import org.mockito.stubbing.Answer;
-import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
-import pt.pmribeiro.webstore.controller.PurchaseController;
+import pt.pmribeiro.webstore.dao.ExpiringPurchaseDAO;
 import pt.pmribeiro.webstore.dao.IPurchaseDAO;
+import pt.pmribeiro.webstore.dao.InMemoryPurchaseDAO;
+import pt.pmribeiro.webstore.dao.PurchaseArchive;
+import pt.pmribeiro.webstore.dao.PurchaseJournal;
 import pt.pmribeiro.webstore.dto.Purchase;
 import pt.pmribeiro.webstore.dto.PurchaseDetail;
 
-import java.util.Arrays;
+import java.nio.file.Paths;
 import java.util.Calendar;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.Mockito.*;
 
 /**
  * {@code DevelopmentConfiguration} contains the spring configuration
- * for development profile with mock of the IPurchaseDAO
+ * for development profile with an in memory IPurchaseDAO made durable by a PurchaseJournal,
+ * whose expired purchases are moved to a PurchaseArchive
  *
  * Created by pribeiro on 26/11/2016.
  */
@@ -31,15 +28,64 @@ import static org.mockito.Mockito.*;
 @Profile({"dev", "docker"})
 public class DevelopmentConfiguration extends CommonComfiguration {
 
-    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PurchaseController.class);
+    /**
+     * Create the journal of the in memory purchases
+     *
+     * @param directory directory of the log and snapshot files, required as the journal must outlive the process
+     * @param snapshotInterval time in milliseconds between snapshots
+     * @return PurchaseJournal
+     */
+    @Bean(destroyMethod = "close")
+    public PurchaseJournal purchaseJournal(@Value("${purchase.journal.directory}") String directory,
+                                           @Value("${purchase.journal.snapshot-interval:60000}") long snapshotInterval) {
+        return new PurchaseJournal(Paths.get(directory), snapshotInterval);
+    }
 
     /**
-     * Create a mock instance of IPurchaseDAO interface
+     * Create the archive of the expired purchases in segment files mapped in memory
      *
-     * @return IPurchaseDAO mock
+     * @param directory directory of the segment files, required as the archive must outlive the process
+     * @param segmentSize size in bytes of each segment file
+     * @param blockSize number of purchases by entry of the sparse index
+     * @return PurchaseArchive
      */
     @Bean
-    public IPurchaseDAO purchaseRepository() {
+    public PurchaseArchive purchaseArchive(@Value("${purchase.archive.directory}") String directory,
+                                           @Value("${purchase.archive.segment-size:67108864}") int segmentSize,
+                                           @Value("${purchase.archive.block-size:64}") int blockSize) {
+        return new PurchaseArchive(Paths.get(directory), segmentSize, blockSize);
+    }
+
+    /**
+     * Create an in memory instance of IPurchaseDAO interface recovered from the journal,
+     * with sample purchases when the journal recovered nothing,
+     * and the sweeper moving its expired purchases to the archive
+     *
+     * @param purchaseJournal the journal of the purchases
+     * @param purchaseArchive the archive of the expired purchases
+     * @param tick time in milliseconds between sweeps
+     * @param wheelSize number of buckets of each level of the timing wheel
+     * @param levels number of levels of the timing wheel
+     * @return IPurchaseDAO in memory
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public ExpiringPurchaseDAO purchaseRepository(PurchaseJournal purchaseJournal, PurchaseArchive purchaseArchive,
+                                                  @Value("${purchase.sweeper.tick:1000}") long tick,
+                                                  @Value("${purchase.sweeper.wheel-size:64}") int wheelSize,
+                                                  @Value("${purchase.sweeper.levels:3}") int levels) {
+        IPurchaseDAO inMemoryPurchaseRepository = new InMemoryPurchaseDAO(purchaseJournal);
+        if (purchaseJournal.isEmpty()) { // not when every purchase was archived or removed
+            savePurchaseSamples(inMemoryPurchaseRepository);
+        }
+        return new ExpiringPurchaseDAO(inMemoryPurchaseRepository, purchaseArchive, tick, wheelSize, levels);
+    }
+
+    /**
+     * Saves the sample purchases, two valid and two expired
+     *
+     * @param purchaseRepository the empty repository
+     */
+    private static void savePurchaseSamples(IPurchaseDAO purchaseRepository) {
         // get valid in invalid dates to set in expires field of Purchase
         Calendar validDate = Calendar.getInstance();
         validDate.add(Calendar.DAY_OF_MONTH, 10);
@@ -73,68 +119,7 @@ public class DevelopmentConfiguration extends CommonComfiguration {
                 )
         ).build());
 
-        // create IPurchaseDAO mock
-        IPurchaseDAO purchaseRepository = spy(IPurchaseDAO.class);
-
-        // set methods call expected result
-        // getAll function
-        doReturn(purchaseList).when(purchaseRepository).getAll();
-        // getPurchasesDetailByPurchasesIds function
-        doAnswer(new Answer<List<Purchase>>() {
-            @Override
-            public List<Purchase> answer(InvocationOnMock invocation) throws Throwable {
-                List<Long> idsList = Lists.newArrayList();
-                List<Object> args = Arrays.asList(invocation.getArguments());
-                args.forEach(arg -> idsList.add((Long)arg));
-                logger.debug("idsList", idsList);
-                return purchaseList.parallelStream()
-                        .filter(p -> idsList.contains(p.getId()))
-                        .collect(Collectors.toList());
-            }
-        }).when(purchaseRepository).getPurchasesDetailByPurchasesIds(any());
-        // findById function
-        doAnswer(new Answer<Purchase>() {
-            @Override
-            public Purchase answer(InvocationOnMock invocation) throws Throwable {
-                Long id = invocation.getArgument(0);
-                List<Purchase> purchases = purchaseList.parallelStream()
-                        .filter(p -> id == p.getId())
-                        .collect(Collectors.toList());
-                return purchases.isEmpty() ? null : purchases.get(0);
-            }
-        }).when(purchaseRepository).findById(anyLong());
-        // save function
-        doAnswer(new Answer<Purchase>() {
-            @Override
-            public Purchase answer(InvocationOnMock invocation) throws Throwable {
-                purchaseList.add(invocation.getArgument(0));
-                return (Purchase)invocation.getArgument(0);
-            }
-        }).when(purchaseRepository).save(any(Purchase.class));
-        // update function
-        doAnswer(new Answer<Purchase>() {
-            @Override
-            public Purchase answer(InvocationOnMock invocation) throws Throwable {
-                List<Long> ids = purchaseList.parallelStream()
-                        .map(p -> p.getId())
-                        .collect(Collectors.toList());
-                Purchase purchase = invocation.getArgument(0);
-                purchaseList.set(ids.indexOf(purchase.getId()), invocation.getArgument(0));
-                return (Purchase)invocation.getArgument(0);
-            }
-        }).when(purchaseRepository).update(any(Purchase.class));
-        // exists function
-        doAnswer(new Answer<Boolean>() {
-            @Override
-            public Boolean answer(InvocationOnMock invocation) throws Throwable {
-                List<Long> ids = purchaseList.parallelStream()
-                        .map(p -> p.getId())
-                        .collect(Collectors.toList());
-                return ids.contains(invocation.getArgument(0));
-            }
-        }).when(purchaseRepository).exists(any(Long.class));
-
-        return purchaseRepository;
+        purchaseRepository.saveAll(purchaseList);
     }
 
 }
@@ -0,0 +1,271 @@
+package pt.pmribeiro.webstore.config;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code IdempotencyFilter} replays the response of a purchase creation retried with the same Idempotency-Key header
+ * The 201 responses of POST /api/purchases are kept by key in a bounded store expiring after a while,
+ * a retry with the same key and payload gets the original response back without reaching the controller,
+ * so it isn't validated nor saved again
+ *
+ * A retry arriving while the original request is still running gets 409, a key reused with a different payload gets 422,
+ * the failed requests aren't kept and can be retried with the same key
+ * The payload is read in memory to be fingerprinted, a payload bigger than maxBodySize bytes gets 413 before it's read
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyFilter.class);
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final String PATH = "/api/purchases";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, StoredResponse> responses;
+    private final int maxBodySize;
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    /**
+     * @param maximumSize max number of responses kept
+     * @param expiration time in milliseconds a response is kept
+     * @param maxBodySize max number of bytes of the payload
+     */
+    public IdempotencyFilter(long maximumSize, long expiration, int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        this.responses = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expiration, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Only the purchase creations with an Idempotency-Key are filtered
+     *
+     * @see OncePerRequestFilter
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.POST.matches(request.getMethod())
+                || request.getHeader(IDEMPOTENCY_KEY_HEADER) == null
+                || !PATH.equals(urlPathHelper.getPathWithinApplication(request));
+    }
+
+    /**
+     * @see OncePerRequestFilter
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String key = request.getHeader(IDEMPOTENCY_KEY_HEADER);
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            writeError(response, HttpStatus.BAD_REQUEST, "InvalidIdempotencyKey",
+                    "Idempotency-Key must have between 1 and " + MAX_KEY_LENGTH + " characters");
+            return;
+        }
+
+        byte[] payload = request.getContentLengthLong() > maxBodySize ? null : readPayload(request.getInputStream());
+        if (payload == null) {
+            writeError(response, HttpStatus.PAYLOAD_TOO_LARGE, "PayloadTooLarge",
+                    "Purchase with an Idempotency-Key must have at most " + maxBodySize + " bytes");
+            return;
+        }
+        HashCode fingerprint = Hashing.sha256().hashBytes(payload);
+
+        // only the first request with the key runs, the others get the stored response or a conflict
+        StoredResponse inProgress = new StoredResponse(fingerprint);
+        StoredResponse stored = responses.asMap().putIfAbsent(key, inProgress);
+        if (stored != null) {
+            if (!stored.fingerprint.equals(fingerprint)) {
+                writeError(response, HttpStatus.UNPROCESSABLE_ENTITY, "IdempotencyKeyReused",
+                        "Idempotency-Key was already used with a different purchase");
+            } else if (stored.body == null) {
+                writeError(response, HttpStatus.CONFLICT, "IdempotencyKeyInProgress",
+                        "Purchase with this Idempotency-Key is still being created");
+            } else {
+                log.debug("Replaying response of Idempotency-Key {}", key);
+                stored.replay(response);
+            }
+            return;
+        }
+
+        ContentCachingResponseWrapper responseToUse = new ContentCachingResponseWrapper(response);
+        boolean kept = false;
+        try {
+            filterChain.doFilter(new PayloadRequestWrapper(request, payload), responseToUse);
+            if (responseToUse.getStatus() == HttpStatus.CREATED.value() && !request.isAsyncStarted()) {
+                kept = responses.asMap().replace(key, inProgress, new StoredResponse(fingerprint, responseToUse));
+            }
+        } finally {
+            if (!kept) {
+                responses.asMap().remove(key, inProgress); // can be retried with the same key
+            }
+            responseToUse.copyBodyToResponse();
+        }
+    }
+
+    /**
+     * Reads the payload up to maxBodySize bytes, whatever the Content-Length header says
+     *
+     * @param inputStream the request input stream
+     * @return the payload or null if it's bigger than maxBodySize bytes
+     * @throws IOException if the payload can't be read
+     */
+    private byte[] readPayload(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            if (payload.size() + read > maxBodySize) {
+                return null;
+            }
+            payload.write(buffer, 0, read);
+        }
+        return payload.toByteArray();
+    }
+
+    private static void writeError(HttpServletResponse response, HttpStatus status, String code, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.getOutputStream().write(("{\"code\":\"" + code + "\",\"message\":\"" + message + "\"}")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Response kept for an Idempotency-Key, without body while the original request is running
+     */
+    private static class StoredResponse {
+
+        private final HashCode fingerprint;
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        private StoredResponse(HashCode fingerprint) {
+            this.fingerprint = fingerprint;
+            this.status = 0;
+            this.headers = null;
+            this.body = null;
+        }
+
+        private StoredResponse(HashCode fingerprint, ContentCachingResponseWrapper response) {
+            this.fingerprint = fingerprint;
+            this.status = response.getStatus();
+            this.headers = new LinkedHashMap<>();
+            response.getHeaderNames().forEach(name -> headers.put(name, response.getHeader(name)));
+            if (response.getContentType() != null) {
+                headers.put("Content-Type", response.getContentType());
+            }
+            this.body = response.getContentAsByteArray();
+        }
+
+        private void replay(HttpServletResponse response) throws IOException {
+            response.setStatus(status);
+            headers.forEach(response::setHeader);
+            response.setHeader(IDEMPOTENT_REPLAYED_HEADER, "true");
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+
+    }
+
+    /**
+     * Request wrapper serving the payload already read by the filter
+     */
+    private static class PayloadRequestWrapper extends HttpServletRequestWrapper {
+
+        private final byte[] payload;
+
+        private PayloadRequestWrapper(HttpServletRequest request, byte[] payload) {
+            super(request);
+            this.payload = payload;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(payload);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return inputStream.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return inputStream.read(b, off, len);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return inputStream.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                // the whole payload is already in memory, it's available right away
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    try {
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        if (isFinished()) {
+                            readListener.onAllDataRead();
+                        }
+                    } catch (IOException e) {
+                        readListener.onError(e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return payload.length;
+        }
+
+    }
+
+}
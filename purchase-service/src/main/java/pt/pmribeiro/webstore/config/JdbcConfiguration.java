@@ -0,0 +1,78 @@
+package pt.pmribeiro.webstore.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.DataSourceInitializer;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pt.pmribeiro.webstore.dao.IPurchaseDAO;
+import pt.pmribeiro.webstore.dao.JdbcPurchaseDAO;
+
+import javax.sql.DataSource;
+
+/**
+ * {@code JdbcConfiguration} contains the spring configuration
+ * for jdbc profile with the JDBC implementation of the IPurchaseDAO
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@Configuration
+@Profile("jdbc")
+public class JdbcConfiguration extends CommonComfiguration {
+
+    /**
+     * Create the pooled data source configured by the purchase.datasource properties
+     *
+     * @return HikariDataSource
+     */
+    @Bean
+    @ConfigurationProperties(prefix = "purchase.datasource")
+    public HikariDataSource dataSource() {
+        return new HikariDataSource();
+    }
+
+    /**
+     * Create a DataSourceInitializer to create the purchase schema
+     *
+     * @param dataSource the purchase data source
+     * @return DataSourceInitializer
+     */
+    @Bean
+    public DataSourceInitializer dataSourceInitializer(DataSource dataSource) {
+        DataSourceInitializer initializer = new DataSourceInitializer();
+        initializer.setDataSource(dataSource);
+        initializer.setDatabasePopulator(new ResourceDatabasePopulator(new ClassPathResource("db/schema-jdbc.sql")));
+        return initializer;
+    }
+
+    /**
+     * Create the transaction manager for the purchase data source
+     *
+     * @param dataSource the purchase data source
+     * @return PlatformTransactionManager
+     */
+    @Bean
+    public PlatformTransactionManager transactionManager(DataSource dataSource) {
+        return new DataSourceTransactionManager(dataSource);
+    }
+
+    /**
+     * Create the JDBC instance of IPurchaseDAO interface
+     *
+     * @param dataSource the purchase data source
+     * @param transactionManager the purchase transaction manager
+     * @return IPurchaseDAO
+     */
+    @Bean
+    public IPurchaseDAO purchaseRepository(DataSource dataSource, PlatformTransactionManager transactionManager) {
+        return new JdbcPurchaseDAO(new NamedParameterJdbcTemplate(dataSource), new TransactionTemplate(transactionManager));
+    }
+
+}
@@ -0,0 +1,30 @@
+package pt.pmribeiro.webstore.config;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+import java.util.Map;
+
+/**
+ * {@code LatencyEndpoint} exposes the latency percentiles (p50, p99, p999) in microseconds
+ * of each controller, service and dao bean and of each of their methods
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class LatencyEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    private final LatencyInterceptor latencyInterceptor;
+
+    public LatencyEndpoint(LatencyInterceptor latencyInterceptor) {
+        super("latency");
+        this.latencyInterceptor = latencyInterceptor;
+    }
+
+    /**
+     * @see AbstractEndpoint
+     */
+    @Override
+    public Map<String, Object> invoke() {
+        return latencyInterceptor.snapshot();
+    }
+
+}
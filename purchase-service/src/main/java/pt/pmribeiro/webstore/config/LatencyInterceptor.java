@@ -0,0 +1,155 @@
+package pt.pmribeiro.webstore.config;
+
+import com.google.common.collect.Maps;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@code LatencyInterceptor} records the latency of each intercepted method in a HdrHistogram recorder
+ * The recorders are wait-free for the calling threads, the histograms are only read by the latency endpoint
+ * Only a sample of the calls is logged, so the interceptor can stay on in production
+ *
+ * The methods returning a future only measure the time to submit the call
+ *
+ * The histograms are kept by bean, not by layer, the dao decorators (cache, hystrix, expiry) call each other
+ * so a single dao call would be counted once by decorator in a histogram of the whole layer
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class LatencyInterceptor implements MethodInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(LatencyInterceptor.class);
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, MethodLatency>> latencies = new ConcurrentHashMap<>();
+
+    private final double traceSampleRate;
+
+    /**
+     * @param traceSampleRate fraction of the calls logged in trace level, between 0 and 1
+     */
+    public LatencyInterceptor(double traceSampleRate) {
+        if (traceSampleRate < 0 || traceSampleRate > 1) {
+            throw new IllegalArgumentException("traceSampleRate must be between 0 and 1");
+        }
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    /**
+     * @see MethodInterceptor
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            MethodLatency latency = latencyOf(invocation);
+            latency.recorder.recordValue(elapsed);
+            if (log.isTraceEnabled() && ThreadLocalRandom.current().nextDouble() < traceSampleRate) {
+                log.trace("Method '{}' took {}us", latency.name, elapsed / 1000);
+            }
+        }
+    }
+
+    /**
+     * Gets the latency percentiles recorded since the start of the application
+     * by bean (e.g. dao.CachingPurchaseDAO) and by method, in microseconds
+     *
+     * @return map with the latency of each bean and the latency of each method in the methods key
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Histogram> beans = Maps.newTreeMap();
+        Map<String, Object> methods = Maps.newTreeMap();
+        latencies.values().forEach(byMethod -> byMethod.values().forEach(latency -> {
+            Histogram bean = beans.computeIfAbsent(latency.bean, key -> new Histogram(SIGNIFICANT_DIGITS));
+            methods.put(latency.name, latency.addTo(bean));
+        }));
+
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+        beans.forEach((bean, histogram) -> snapshot.put(bean, summary(histogram)));
+        snapshot.put("methods", methods);
+        return snapshot;
+    }
+
+    /**
+     * Gets the latency of the invoked method, creating it in the first call
+     *
+     * @param invocation the method invocation
+     * @return the latency of the method
+     */
+    private MethodLatency latencyOf(MethodInvocation invocation) {
+        Class<?> targetClass = invocation.getThis() != null ? invocation.getThis().getClass() : invocation.getMethod().getDeclaringClass();
+        ConcurrentMap<Method, MethodLatency> byMethod = latencies.get(targetClass);
+        if (byMethod == null) {
+            byMethod = latencies.computeIfAbsent(targetClass, key -> new ConcurrentHashMap<>());
+        }
+        MethodLatency latency = byMethod.get(invocation.getMethod());
+        if (latency == null) {
+            latency = byMethod.computeIfAbsent(invocation.getMethod(), method -> new MethodLatency(targetClass, method));
+        }
+        return latency;
+    }
+
+    /**
+     * Summarizes the histogram in microseconds
+     *
+     * @param histogram histogram in nanoseconds
+     * @return map with count, mean, p50, p99, p999 and max
+     */
+    private static Map<String, Object> summary(Histogram histogram) {
+        Map<String, Object> summary = Maps.newLinkedHashMap();
+        summary.put("count", histogram.getTotalCount());
+        summary.put("mean", histogram.getMean() / 1000);
+        summary.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+        summary.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+        summary.put("p999", histogram.getValueAtPercentile(99.9) / 1000.0);
+        summary.put("max", histogram.getMaxValue() / 1000.0);
+        return summary;
+    }
+
+    /**
+     * Latency of a single method of a class
+     */
+    private static class MethodLatency {
+
+        private final String bean;
+        private final String name;
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+        private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        private MethodLatency(Class<?> targetClass, Method method) {
+            String packageName = targetClass.getPackage() != null ? targetClass.getPackage().getName() : "";
+            this.bean = packageName.substring(packageName.lastIndexOf('.') + 1) + "." + targetClass.getSimpleName();
+            this.name = bean + "." + method.getName();
+        }
+
+        /**
+         * Moves the values recorded since the last call to the total and adds the total to the bean
+         *
+         * @param bean histogram of the bean
+         * @return summary of the total of the method
+         */
+        private synchronized Map<String, Object> addTo(Histogram bean) {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            bean.add(total);
+            return summary(total);
+        }
+
+    }
+
+}
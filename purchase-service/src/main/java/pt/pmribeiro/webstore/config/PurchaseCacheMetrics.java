@@ -0,0 +1,41 @@
+package pt.pmribeiro.webstore.config;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import pt.pmribeiro.webstore.dao.CachingPurchaseDAO;
+
+import java.util.Collection;
+
+/**
+ * {@code PurchaseCacheMetrics} exposes the counters of the purchase cache
+ * in the actuator metrics endpoint
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class PurchaseCacheMetrics implements PublicMetrics {
+
+    private final CachingPurchaseDAO purchaseCache;
+
+    public PurchaseCacheMetrics(CachingPurchaseDAO purchaseCache) {
+        this.purchaseCache = purchaseCache;
+    }
+
+    /**
+     * @see PublicMetrics
+     */
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = purchaseCache.stats();
+        Collection<Metric<?>> metrics = Lists.newArrayList();
+        metrics.add(new Metric<>("cache.purchases.size", purchaseCache.size()));
+        metrics.add(new Metric<>("cache.purchases.hit", stats.hitCount()));
+        metrics.add(new Metric<>("cache.purchases.miss", stats.missCount()));
+        metrics.add(new Metric<>("cache.purchases.hit.ratio", stats.hitRate()));
+        metrics.add(new Metric<>("cache.purchases.eviction", stats.evictionCount()));
+        metrics.add(new Metric<>("cache.purchases.expired", purchaseCache.expiredCount()));
+        return metrics;
+    }
+
+}
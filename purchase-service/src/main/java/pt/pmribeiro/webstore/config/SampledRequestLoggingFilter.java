@@ -0,0 +1,273 @@
+package pt.pmribeiro.webstore.config;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code SampledRequestLoggingFilter} logs a sample of the requests in debug level
+ * Only the sampled requests copy the payload, up to maxPayloadLength bytes,
+ * and the log messages are formatted and written by a single background thread
+ * When the queue of the background thread is full the log messages are discarded
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class SampledRequestLoggingFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(SampledRequestLoggingFilter.class);
+
+    private final double sampleRate;
+    private final int maxPayloadLength;
+    private final ExecutorService executor;
+
+    /**
+     * @param sampleRate fraction of the requests logged, between 0 and 1
+     * @param maxPayloadLength max number of bytes of the payload logged, 0 to not log the payload
+     * @param queueSize number of log messages waiting for the background thread
+     */
+    public SampledRequestLoggingFilter(double sampleRate, int maxPayloadLength, int queueSize) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+        this.maxPayloadLength = maxPayloadLength;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("request-logging").setDaemon(true).build(),
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * @see OncePerRequestFilter
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!shouldLog()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        long start = System.nanoTime();
+        PayloadCapturingRequestWrapper requestToUse = new PayloadCapturingRequestWrapper(request, maxPayloadLength);
+        try {
+            filterChain.doFilter(requestToUse, response);
+        } finally {
+            // only the cheap request fields are read in the request thread
+            RequestLog requestLog = new RequestLog(request.getMethod(), request.getRequestURI(), request.getQueryString(),
+                    request.getRemoteAddr(), request.isAsyncStarted() ? null : response.getStatus(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), requestToUse.getPayload(),
+                    requestToUse.isPayloadTruncated(), request.getCharacterEncoding());
+            executor.execute(() -> writeLog(requestLog.toString()));
+        }
+    }
+
+    /**
+     * Decides if the current request is logged
+     *
+     * @return true if the request is in the sample
+     */
+    protected boolean shouldLog() {
+        return sampleRate > 0 && log.isDebugEnabled() && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Writes the log message, called by the background thread
+     *
+     * @param message the log message
+     */
+    protected void writeLog(String message) {
+        log.debug(message);
+    }
+
+    /**
+     * Stops the background thread, the log messages waiting are still written
+     */
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Fields of a request to log, formatted by the background thread
+     */
+    private static class RequestLog {
+
+        private final String method;
+        private final String uri;
+        private final String queryString;
+        private final String client;
+        private final Integer status;
+        private final long millis;
+        private final byte[] payload;
+        private final boolean payloadTruncated;
+        private final String encoding;
+
+        private RequestLog(String method, String uri, String queryString, String client, Integer status, long millis,
+                           byte[] payload, boolean payloadTruncated, String encoding) {
+            this.method = method;
+            this.uri = uri;
+            this.queryString = queryString;
+            this.client = client;
+            this.status = status;
+            this.millis = millis;
+            this.payload = payload;
+            this.payloadTruncated = payloadTruncated;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder message = new StringBuilder("Request [").append(method).append(' ').append(uri);
+            if (queryString != null) {
+                message.append('?').append(queryString);
+            }
+            message.append(";client=").append(client)
+                    .append(";status=").append(status != null ? status.toString() : "async")
+                    .append(";took=").append(millis).append("ms");
+            if (payload.length > 0) {
+                message.append(";payload=").append(decode(payload, encoding));
+                if (payloadTruncated) {
+                    message.append("...");
+                }
+            }
+            return message.append(']').toString();
+        }
+
+        private static String decode(byte[] payload, String encoding) {
+            try {
+                return encoding != null ? new String(payload, encoding) : new String(payload, StandardCharsets.UTF_8);
+            } catch (UnsupportedEncodingException e) {
+                return "[unknown encoding " + encoding + "]";
+            }
+        }
+
+    }
+
+    /**
+     * Request wrapper keeping a copy of the first bytes of the payload read by the application
+     */
+    private static class PayloadCapturingRequestWrapper extends HttpServletRequestWrapper {
+
+        private final int maxPayloadLength;
+        private final ByteArrayOutputStream payload;
+        private boolean payloadTruncated;
+        private ServletInputStream inputStream;
+        private BufferedReader reader;
+
+        private PayloadCapturingRequestWrapper(HttpServletRequest request, int maxPayloadLength) {
+            super(request);
+            this.maxPayloadLength = maxPayloadLength;
+            this.payload = new ByteArrayOutputStream(Math.min(maxPayloadLength, Math.max(request.getContentLength(), 0)));
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                inputStream = new PayloadCapturingInputStream(getRequest().getInputStream());
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                String encoding = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(),
+                        encoding != null ? encoding : StandardCharsets.UTF_8.name()));
+            }
+            return reader;
+        }
+
+        private byte[] getPayload() {
+            return payload.toByteArray();
+        }
+
+        private boolean isPayloadTruncated() {
+            return payloadTruncated;
+        }
+
+        private void capture(int b) {
+            if (payload.size() < maxPayloadLength) {
+                payload.write(b);
+            } else {
+                payloadTruncated = true;
+            }
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            int length = Math.min(len, maxPayloadLength - payload.size());
+            if (length > 0) {
+                payload.write(b, off, length);
+            }
+            if (length < len) {
+                payloadTruncated = true;
+            }
+        }
+
+        private class PayloadCapturingInputStream extends ServletInputStream {
+
+            private final ServletInputStream inputStream;
+
+            private PayloadCapturingInputStream(ServletInputStream inputStream) {
+                this.inputStream = inputStream;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = inputStream.read();
+                if (b != -1) {
+                    capture(b);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = inputStream.read(b, off, len);
+                if (count > 0) {
+                    capture(b, off, count);
+                }
+                return count;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return inputStream.isFinished();
+            }
+
+            @Override
+            public boolean isReady() {
+                return inputStream.isReady();
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                inputStream.setReadListener(readListener);
+            }
+
+        }
+
+    }
+
+}
@@ -1,28 +1,64 @@
 package pt.pmribeiro.webstore.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
+import com.google.common.primitives.Longs;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.BindingResult;
+import org.springframework.validation.Errors;
 import org.springframework.validation.FieldError;
+import org.springframework.validation.MapBindingResult;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseBatchResult;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.dto.Snapshot;
 import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
 import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
 import pt.pmribeiro.webstore.exceptions.ValidationException;
 import pt.pmribeiro.webstore.service.IPurchaseService;
 import pt.pmribeiro.webstore.validators.PurchaseValidator;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * {@code PurchaseController} implements the endpoints of the Purchase Service API
@@ -40,16 +76,51 @@ public class PurchaseController {
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PurchaseController.class);
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String STALE_WARNING = "110 - \"Response is Stale\"";
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final String APPLICATION_MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long DEFAULT_STREAM_TIMEOUT = 3600000;
+    private static final int DEFAULT_MAX_CONCURRENT_STREAMS = 4;
+    private static final String STREAM_PERMIT_INTERCEPTOR = PurchaseController.class.getName() + ".streamPermit";
+
     private IPurchaseService purchaseService;
 
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    // same json representation of the application/json responses, flushed by the servlet buffer only
+    private final ObjectWriter ndjsonWriter = objectMapper
+            .writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     @Autowired
     private PurchaseValidator purchaseValidator;
 
+    // the streams of the whole valid set outlive the default async timeout of the other requests
+    @Value("${purchase.mvc.async.stream-timeout:3600000}")
+    private long streamTimeout = DEFAULT_STREAM_TIMEOUT;
+
+    // one permit by stream, each stream holds a database connection while it's written
+    private Semaphore streamPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_STREAMS);
+
     @Autowired
     public PurchaseController(IPurchaseService purchaseService) {
         this.purchaseService = purchaseService;
     }
 
+    /**
+     * Sets the max number of streams written at the same time
+     * Kept well below the size of the connection pool so the streams never starve the other requests
+     *
+     * @param maxConcurrentStreams max number of concurrent streams
+     */
+    @Autowired
+    public void setMaxConcurrentStreams(@Value("${purchase.stream.max-concurrent:4}") int maxConcurrentStreams) {
+        this.streamPermits = new Semaphore(maxConcurrentStreams);
+    }
+
     /**
      * Adds validators to binder
      * @param binder
@@ -61,17 +132,234 @@ public class PurchaseController {
 
     /**
      * Gets a list of valid purchases
+     * When limit or cursor are given the list is paginated and the cursor of the
+     * next page is returned in the X-Next-Cursor header
      *
+     * @param limit max number of purchases in the page
+     * @param cursor cursor of the page returned by the previous call
      * @return list of valid purchases
      */
     @RequestMapping(path = "/purchases", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, name = "getValidPurchases")
     @ResponseBody
-    @HystrixCommand
-    public ResponseEntity<List<Purchase>> getValidPurchases() {
-        logger.info("Fetching all valid purchases");
-        return Optional.ofNullable(purchaseService.getValidPurchases())
-                .map(result -> new ResponseEntity<>(result, HttpStatus.OK))
-                .orElse(new ResponseEntity<>(HttpStatus.NO_CONTENT));
+    public DeferredResult<ResponseEntity<List<Purchase>>> getValidPurchases(@RequestParam(name = "limit", required = false) Integer limit,
+                                                                            @RequestParam(name = "cursor", required = false) String cursor) {
+        if (limit == null && cursor == null) {
+            logger.info("Fetching all valid purchases");
+
+            // the request thread is released while the database is queried
+            return toDeferredResult(purchaseService.getValidPurchasesAsync(), snapshot -> Optional.ofNullable(snapshot.getValue())
+                    .map(validPurchases -> new ResponseEntity<>(validPurchases, getSnapshotHeaders(snapshot), HttpStatus.OK))
+                    .orElse(new ResponseEntity<>(getSnapshotHeaders(snapshot), HttpStatus.NO_CONTENT)));
+        }
+
+        logger.info("Fetching page of valid purchases");
+        int pageSize = getPageSize(limit);
+        PurchaseCursor after = getPageCursor(cursor);
+
+        return toDeferredResult(purchaseService.getValidPurchasesPageAsync(after, pageSize), page -> {
+            HttpHeaders headers = new HttpHeaders();
+            if (page.getNextCursor() != null) {
+                headers.set(NEXT_CURSOR_HEADER, page.getNextCursor().encode());
+            }
+            return new ResponseEntity<>(page.getPurchases(), headers, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Streams all valid purchases as newline delimited json
+     * Each purchase is written as soon as it's read from the database so the memory
+     * used by the request doesn't depend on the number of valid purchases
+     * The stream has its own async timeout and is refused with 503 when the max concurrent streams are being written
+     * The permit of the stream is released when the body is written or, if the body never runs (rejected,
+     * timed out or disconnected before it's dispatched), when the async request completes
+     *
+     * @param request the http request
+     * @param response the http response
+     * @return stream of valid purchases
+     */
+    @RequestMapping(path = "/purchases", method = RequestMethod.GET, produces = APPLICATION_NDJSON_VALUE, name = "streamValidPurchases")
+    public ResponseEntity<StreamingResponseBody> streamValidPurchases(HttpServletRequest request, HttpServletResponse response) {
+        logger.info("Streaming all valid purchases");
+
+        if (!streamPermits.tryAcquire()) {
+            throw new ServiceUnavailableException("Too many valid purchases streams, retry later");
+        }
+        AsyncWebRequest asyncWebRequest = WebAsyncUtils.createAsyncWebRequest(request, response);
+        asyncWebRequest.setTimeout(streamTimeout);
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setAsyncWebRequest(asyncWebRequest); // replaces the default timeout
+
+        AtomicBoolean started = new AtomicBoolean();
+        asyncManager.registerCallableInterceptor(STREAM_PERMIT_INTERCEPTOR, new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                if (!started.getAndSet(true)) { // the body never ran, nor will it
+                    streamPermits.release();
+                }
+            }
+        });
+
+        StreamingResponseBody body = outputStream -> {
+            if (started.getAndSet(true)) { // the request already completed, nobody is reading the stream
+                return;
+            }
+            try (JsonGenerator generator = ndjsonWriter.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                purchaseService.streamValidPurchases(purchase -> {
+                    try {
+                        ndjsonWriter.writeValue(generator, purchase);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } finally {
+                streamPermits.release();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    /**
+     * Validates the page size requested
+     *
+     * @param limit page size requested or null for the default
+     * @return page size
+     */
+    private int getPageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ValidationException("Invalid page", rejectParameter("limit", limit, "Limit must be between 1 and " + MAX_PAGE_SIZE));
+        }
+        return limit;
+    }
+
+    /**
+     * Decodes the page cursor requested
+     *
+     * @param cursor cursor token or null for the first page
+     * @return page cursor
+     */
+    private PurchaseCursor getPageCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return PurchaseCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid page", rejectParameter("cursor", cursor, "Cursor is invalid"));
+        }
+    }
+
+    /**
+     * Builds the errors for a rejected request parameter
+     *
+     * @param name parameter name
+     * @param value parameter value
+     * @param message detailed message
+     * @return errors with the rejected parameter
+     */
+    private static Errors rejectParameter(String name, Object value, String message) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(name, value);
+        Errors errors = new MapBindingResult(parameters, "purchases");
+        errors.rejectValue(name, "", message);
+        return errors;
+    }
+
+    /**
+     * Builds a DeferredResult completed by the given future
+     *
+     * @param future future result of the service
+     * @param responseMapper maps the result of the service to the http response
+     * @return deferred result
+     */
+    private static <T, R> DeferredResult<ResponseEntity<R>> toDeferredResult(CompletableFuture<T> future, Function<T, ResponseEntity<R>> responseMapper) {
+        DeferredResult<ResponseEntity<R>> deferredResult = new DeferredResult<>();
+        future.whenComplete((result, exception) -> {
+            if (exception != null) {
+                deferredResult.setErrorResult(exception instanceof CompletionException ? exception.getCause() : exception);
+            } else {
+                deferredResult.setResult(responseMapper.apply(result));
+            }
+        });
+        return deferredResult;
+    }
+
+    /**
+     * Gets the purchase with the given id, the ETag header has the version of the purchase
+     * While the database is unavailable the last known purchase is returned as stale
+     *
+     * @param purchaseId
+     * @return purchase
+     */
+    @RequestMapping(path = "/purchases/{purchaseId}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, name = "getPurchase")
+    @ResponseBody
+    public DeferredResult<ResponseEntity<Purchase>> getPurchase(@PathVariable("purchaseId") Long purchaseId) {
+        logger.info("Fetching purchase");
+
+        // the request thread is released while a purchase missing from the cache is read
+        return toDeferredResult(purchaseService.findPurchaseByIdAsync(purchaseId), snapshot -> {
+            HttpHeaders headers = getSnapshotHeaders(snapshot);
+            setVersion(headers, snapshot.getValue());
+            return new ResponseEntity<>(snapshot.getValue(), headers, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Sets the version of the purchase as the ETag header of the response
+     *
+     * @param headers response headers
+     * @param purchase purchase returned in the response
+     * @return response headers
+     */
+    private static HttpHeaders setVersion(HttpHeaders headers, Purchase purchase) {
+        if (purchase != null && purchase.getVersion() != null) {
+            headers.setETag("\"" + purchase.getVersion() + "\"");
+        }
+        return headers;
+    }
+
+    /**
+     * Gets the version expected by the If-Match header of the request
+     * Only a single strong entity tag with a version is supported, any other tag never matches
+     *
+     * @param purchaseId id of the purchase to update
+     * @param ifMatch If-Match header, null or * to update any version
+     * @return expected version or null for any version
+     */
+    private static Long getExpectedVersion(Long purchaseId, String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String entityTag = ifMatch.trim();
+        if (entityTag.length() > 2 && entityTag.startsWith("\"") && entityTag.endsWith("\"")) {
+            try {
+                return Long.valueOf(entityTag.substring(1, entityTag.length() - 1));
+            } catch (NumberFormatException e) {
+                // not a version, never matches
+            }
+        }
+        throw new PreconditionFailedException("Purchase " + purchaseId + " doesn't match " + entityTag);
+    }
+
+    /**
+     * Builds the headers of a response with the given snapshot
+     * Stale snapshots have the stale warning and the age in seconds of the snapshot
+     *
+     * @param snapshot snapshot returned in the response
+     * @return response headers
+     */
+    private static HttpHeaders getSnapshotHeaders(Snapshot<?> snapshot) {
+        HttpHeaders headers = new HttpHeaders();
+        if (snapshot.isStale()) {
+            headers.set(HttpHeaders.WARNING, STALE_WARNING);
+            headers.set(HttpHeaders.AGE, String.valueOf(Math.max(0, (System.currentTimeMillis() - snapshot.getTakenAt()) / 1000)));
+        }
+        return headers;
     }
 
     /**
@@ -83,7 +371,6 @@ public class PurchaseController {
      */
     @RequestMapping(path = "/purchases", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE, name = "savePurchase")
     @ResponseBody
-    @HystrixCommand
     public ResponseEntity savePurchase(@RequestBody @Valid Purchase purchase, BindingResult bindingResult) throws Exception {
         logger.info("Saving purchase");
 
@@ -93,46 +380,218 @@ public class PurchaseController {
         }
 
         return Optional.ofNullable(purchaseService.createPurchase(purchase))
-                .map(result -> new ResponseEntity<>(result, HttpStatus.CREATED))
+                .map(result -> new ResponseEntity<>(result, setVersion(new HttpHeaders(), result), HttpStatus.CREATED))
                 .orElseThrow(() -> new Exception("Unable to create purchase"));
     }
 
     /**
-     * Updates a existing purchase
+     * Saves a batch of purchases
+     * Each purchase is validated on its own, the valid ones are created with a single
+     * conflict check and a single batched insert
+     *
+     * @param purchases
+     * @return result of each purchase in the order of the request
+     */
+    @RequestMapping(path = "/purchases/batch", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE, name = "savePurchases")
+    @ResponseBody
+    public ResponseEntity<List<PurchaseBatchResult>> savePurchases(@RequestBody List<Purchase> purchases) {
+        logger.info("Saving batch of purchases");
+
+        if (purchases.isEmpty() || purchases.size() > MAX_BATCH_SIZE) {
+            throw new ValidationException("Invalid batch", rejectParameter("purchases", purchases.size(), "Batch size must be between 1 and " + MAX_BATCH_SIZE));
+        }
+
+        // check if the information of each purchase is valid
+        List<PurchaseBatchResult> results = Lists.newArrayListWithCapacity(purchases.size());
+        List<Purchase> validPurchases = Lists.newArrayListWithCapacity(purchases.size());
+        List<Integer> validIndexes = Lists.newArrayListWithCapacity(purchases.size());
+        for (int i = 0; i < purchases.size(); i++) {
+            Purchase purchase = purchases.get(i);
+            if (purchase == null) {
+                results.add(PurchaseBatchResult.builder().index(i).status(HttpStatus.BAD_REQUEST.value())
+                        .code("InvalidPurchase").message("Purchase is null").build());
+                continue;
+            }
+
+            Errors errors = new BeanPropertyBindingResult(purchase, "purchases[" + i + "]");
+            purchaseValidator.validate(purchase, errors);
+            if (errors.hasErrors()) {
+                results.add(PurchaseBatchResult.builder().index(i).id(purchase.getId()).status(HttpStatus.BAD_REQUEST.value())
+                        .code("InvalidPurchase").message("Invalid purchase").fieldErrors(getFieldErrorResources(errors)).build());
+            } else {
+                results.add(null); // filled with the result of the service
+                validPurchases.add(purchase);
+                validIndexes.add(i);
+            }
+        }
+
+        if (!validPurchases.isEmpty()) {
+            List<PurchaseBatchResult> created = purchaseService.createPurchases(validPurchases);
+            for (int i = 0; i < created.size(); i++) {
+                PurchaseBatchResult result = created.get(i);
+                result.setIndex(validIndexes.get(i)); // index of the purchase in the request
+                results.set(result.getIndex(), result);
+            }
+        }
+
+        return new ResponseEntity<>(results, HttpStatus.MULTI_STATUS);
+    }
+
+    /**
+     * Updates a existing purchase with a single call to the service
+     * With the If-Match header the purchase is only updated if it's still in the version of the ETag,
+     * otherwise the update fails with 412 and the client must get the purchase again
      *
      * @param purchaseId
+     * @param ifMatch
      * @param purchase
      * @param bindingResult
      * @return updated purchase
      */
-    @RequestMapping(path = "/purchases/{purchaseId}", method = {RequestMethod.PUT, RequestMethod.PATCH}, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE, name = "saveOrUpdatePurchase")
+    @RequestMapping(path = "/purchases/{purchaseId}", method = RequestMethod.PUT, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE, name = "saveOrUpdatePurchase")
     @ResponseBody
-    //@HystrixCommand
-    public ResponseEntity updatePurchase(@PathVariable("purchaseId") Long purchaseId, @RequestBody @Valid Purchase purchase, BindingResult bindingResult) throws Exception {
+    public ResponseEntity updatePurchase(@PathVariable("purchaseId") Long purchaseId, @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                         @RequestBody @Valid Purchase purchase, BindingResult bindingResult) throws Exception {
         logger.info("Updating purchase");
 
-        // fetch existing purchase
-        Purchase currentPurchase = purchaseService.findPurchaseById(purchaseId);
-        // if purchase not found throws exception
-        if (currentPurchase == null) {
-            throw new NotFoundException("Purchase " + purchaseId + " not found");
-        }
-
         // check if purchase information is valid
         if (bindingResult.hasErrors()) {
             throw new ValidationException("Invalid purchase", bindingResult);
         }
+        Long expectedVersion = getExpectedVersion(purchaseId, ifMatch);
 
-        // copy properties in purchase to old purchase
-        currentPurchase.setProductType(purchase.getProductType());
-        currentPurchase.setPurchaseDetails(purchase.getPurchaseDetails());
+        // the changes are a new purchase, the stored purchase is never changed in place
+        Purchase changes = Purchase.builder()
+                .id(purchaseId)
+                .productType(purchase.getProductType())
+                .purchaseDetails(purchase.getPurchaseDetails())
+                .build();
 
         // updates and returns saved values
-        return Optional.ofNullable(purchaseService.updatePurchase(currentPurchase))
-                .map(result -> new ResponseEntity<>(result, HttpStatus.OK))
+        Purchase updated = expectedVersion == null ? purchaseService.updatePurchase(changes) : purchaseService.updatePurchase(changes, expectedVersion);
+        return Optional.ofNullable(updated)
+                .map(result -> new ResponseEntity<>(result, setVersion(new HttpHeaders(), result), HttpStatus.OK))
                 .orElseThrow(() -> new Exception("Unable to create purchase"));
     }
 
+    /**
+     * Patches only the fields of a existing purchase present in the json merge patch (RFC 7396)
+     * The details are replaced by a purchaseDetails array, or changed one by one by a purchaseDetails object
+     * keyed by detail id, where a null detail removes it
+     * With the If-Match header the purchase is only patched if it's still in the version of the ETag
+     *
+     * @param purchaseId
+     * @param ifMatch
+     * @param mergePatch
+     * @return patched purchase
+     */
+    @RequestMapping(path = "/purchases/{purchaseId}", method = RequestMethod.PATCH, consumes = {APPLICATION_MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE}, produces = MediaType.APPLICATION_JSON_VALUE, name = "patchPurchase")
+    @ResponseBody
+    public ResponseEntity patchPurchase(@PathVariable("purchaseId") Long purchaseId, @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                        @RequestBody JsonNode mergePatch) throws Exception {
+        logger.info("Patching purchase");
+
+        // check only the fields present in the patch
+        Errors errors = new MapBindingResult(Maps.newHashMap(), "purchase");
+        PurchasePatch patch = readMergePatch(purchaseId, mergePatch, errors);
+        purchaseValidator.validatePatch(patch, errors);
+        if (errors.hasErrors()) {
+            throw new ValidationException("Invalid purchase", errors);
+        }
+        patch.setExpectedVersion(getExpectedVersion(purchaseId, ifMatch));
+
+        // patches and returns saved values
+        return Optional.ofNullable(purchaseService.patchPurchase(patch))
+                .map(result -> new ResponseEntity<>(result, setVersion(new HttpHeaders(), result), HttpStatus.OK))
+                .orElseThrow(() -> new Exception("Unable to patch purchase"));
+    }
+
+    /**
+     * Reads the changes of the purchase from the json merge patch
+     * A null field removes it, so only the details can be null, id, expires and version can't be changed
+     *
+     * @param purchaseId id of the purchase
+     * @param mergePatch json merge patch
+     * @param errors errors of the fields that can't be changed as requested
+     * @return changes of the purchase
+     */
+    private PurchasePatch readMergePatch(Long purchaseId, JsonNode mergePatch, Errors errors) {
+        PurchasePatch patch = PurchasePatch.builder().id(purchaseId).build();
+        if (!mergePatch.isObject()) {
+            errors.reject("", "Merge patch is not a json object");
+            return patch;
+        }
+
+        mergePatch.fields().forEachRemaining(field -> {
+            JsonNode value = field.getValue();
+            switch (field.getKey()) {
+                case "id":
+                    if (!value.canConvertToLong() || value.asLong() != purchaseId) {
+                        errors.rejectValue("id", "", "Id can't be changed");
+                    }
+                    break;
+                case "productType":
+                    if (value.isTextual()) {
+                        patch.setProductType(value.asText());
+                    } else {
+                        errors.rejectValue("productType", "", "ProductType is empty");
+                    }
+                    break;
+                case "purchaseDetails":
+                    if (value.isArray()) {
+                        patch.setPurchaseDetails(readValue(value, PurchaseDetail[].class, "purchaseDetails", errors)
+                                .map(Lists::newArrayList).orElse(null));
+                    } else if (value.isObject()) {
+                        patch.setDetailChanges(readDetailChanges(value, errors));
+                    } else {
+                        errors.rejectValue("purchaseDetails", "", "PurchaseDetails is empty");
+                    }
+                    break;
+                default: // expires and version are set by the service, unknown fields are ignored as in the full update
+            }
+        });
+        return patch;
+    }
+
+    /**
+     * Reads the changes of the details keyed by detail id, a null change removes the detail
+     */
+    private Map<Long, PurchaseDetail> readDetailChanges(JsonNode detailPatches, Errors errors) {
+        Map<Long, PurchaseDetail> detailChanges = Maps.newLinkedHashMap();
+        detailPatches.fields().forEachRemaining(field -> {
+            String path = "purchaseDetails." + field.getKey();
+            Long detailId = Longs.tryParse(field.getKey());
+            JsonNode value = field.getValue();
+            if (detailId == null) {
+                errors.rejectValue(path, "", "PurchaseDetail id is invalid");
+            } else if (value.isNull()) {
+                detailChanges.put(detailId, null);
+            } else if (!value.isObject()) {
+                errors.rejectValue(path, "", "PurchaseDetail is invalid");
+            } else if (value.has("id") && (!value.get("id").canConvertToLong() || value.get("id").asLong() != detailId)) {
+                errors.rejectValue(path + ".id", "", "PurchaseDetail id can't be changed");
+            } else if (value.path("description").isNull()) {
+                errors.rejectValue(path + ".description", "", "PurchaseDetail description is null or empty");
+            } else if (value.path("quantity").isNull()) {
+                errors.rejectValue(path + ".quantity", "", "PurchaseDetail quantity is null or equals to 0");
+            } else if (value.path("value").isNull()) {
+                errors.rejectValue(path + ".value", "", "PurchaseDetail value is null");
+            } else {
+                readValue(value, PurchaseDetail.class, path, errors).ifPresent(change -> detailChanges.put(detailId, change));
+            }
+        });
+        return detailChanges;
+    }
+
+    private <T> Optional<T> readValue(JsonNode value, Class<T> type, String path, Errors errors) {
+        try {
+            return Optional.of(objectMapper.treeToValue(value, type));
+        } catch (JsonProcessingException e) {
+            errors.rejectValue(path, "", "Invalid value: " + e.getOriginalMessage());
+            return Optional.empty();
+        }
+    }
+
     /**
      * Handles the validation exception  throned by the api
      * and build the http response
@@ -142,12 +601,27 @@ public class PurchaseController {
      */
     @ResponseStatus(value = HttpStatus.BAD_REQUEST)
     @ExceptionHandler(ValidationException.class)
-    @HystrixCommand
     public @ResponseBody Map<String, Object> handleInvalidRequestException(ValidationException exception) {
+        // set information to return
+        Map<String, Object> error = Maps.newHashMap();
+        error.put("code", "InvalidPurchase");
+        error.put("message", exception.getMessage());
+        error.put("fieldErrors", getFieldErrorResources(exception.getErrors()));
+
+        return error;
+    }
+
+    /**
+     * Builds the list of field errors returned by the api
+     *
+     * @param errors validation errors
+     * @return field errors list
+     */
+    private static List<Map<String, Object>> getFieldErrorResources(Errors errors) {
         List<Map<String, Object>> fieldErrorResources = Lists.newArrayList();
 
         // build list with errors founded
-        List<FieldError> fieldErrors = exception.getErrors().getFieldErrors();
+        List<FieldError> fieldErrors = errors.getFieldErrors();
         for (FieldError fieldError : fieldErrors) {
             Map<String, Object> fieldErrorResource = Maps.newHashMap();
 
@@ -157,14 +631,7 @@ public class PurchaseController {
             fieldErrorResource.put("message", fieldError.getDefaultMessage());
             fieldErrorResources.add(fieldErrorResource);
         }
-
-        // set information to return
-        Map<String, Object> error = Maps.newHashMap();
-        error.put("code", "InvalidPurchase");
-        error.put("message", exception.getMessage());
-        error.put("fieldErrors", fieldErrorResources);
-
-        return error;
+        return fieldErrorResources;
     }
 
     /**
@@ -177,7 +644,6 @@ public class PurchaseController {
     @ResponseStatus(value = HttpStatus.CONFLICT)
     @ExceptionHandler(DataIntegrityViolationException.class)
     public @ResponseBody
-    @HystrixCommand
     Map<String, Object> handleDataIntegrityViolationException(DataIntegrityViolationException exception) {
         Map<String, Object> error = Maps.newHashMap();
         error.put("code", "DataIntegrityViolation");
@@ -195,7 +661,6 @@ public class PurchaseController {
      */
     @ResponseStatus(value = HttpStatus.NOT_FOUND)
     @ExceptionHandler(NotFoundException.class)
-    @HystrixCommand
     public @ResponseBody Map<String, Object> handleNotFoundException(NotFoundException exception) {
         Map<String, Object> error = Maps.newHashMap();
         error.put("code", "NotFound");
@@ -204,4 +669,38 @@ public class PurchaseController {
         return error;
     }
 
+    /**
+     * Handles the precondition failed exception throned by the api
+     * and build the http response
+     *
+     * @param exception
+     * @return error information
+     */
+    @ResponseStatus(value = HttpStatus.PRECONDITION_FAILED)
+    @ExceptionHandler(PreconditionFailedException.class)
+    public @ResponseBody Map<String, Object> handlePreconditionFailedException(PreconditionFailedException exception) {
+        Map<String, Object> error = Maps.newHashMap();
+        error.put("code", "PreconditionFailed");
+        error.put("message", exception.getMessage());
+
+        return error;
+    }
+
+    /**
+     * Handles the service unavailable exception throned by the api
+     * and build the http response
+     *
+     * @param exception
+     * @return error information
+     */
+    @ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public @ResponseBody Map<String, Object> handleServiceUnavailableException(ServiceUnavailableException exception) {
+        Map<String, Object> error = Maps.newHashMap();
+        error.put("code", "ServiceUnavailable");
+        error.put("message", exception.getMessage());
+
+        return error;
+    }
+
 }
@@ -0,0 +1,66 @@
+package pt.pmribeiro.webstore.dao;
+
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@code AsyncPurchaseDAO} queues the calls in the hystrix commands of the read pool of {@link HystrixPurchaseDAO}
+ * so the request threads never block on the database
+ * The calls share the thread pool, the timeout and the circuit breaker of the blocking calls,
+ * there is no other pool or deadline
+ *
+ * The lookups by id go through the cache of the blocking IPurchaseDAO first, only the misses are queued,
+ * the other calls are served by the isolation boundary, below the cache
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class AsyncPurchaseDAO implements IAsyncPurchaseDAO {
+
+    private final HystrixPurchaseDAO hystrixPurchaseRepository;
+
+    private final CachingPurchaseDAO cachingPurchaseRepository;
+
+    /**
+     * Creates a new async DAO for the given isolation boundary
+     *
+     * @param hystrixPurchaseRepository the isolated repository of the active profile
+     * @param cachingPurchaseRepository the cache in front of the isolated repository
+     */
+    public AsyncPurchaseDAO(HystrixPurchaseDAO hystrixPurchaseRepository, CachingPurchaseDAO cachingPurchaseRepository) {
+        this.hystrixPurchaseRepository = hystrixPurchaseRepository;
+        this.cachingPurchaseRepository = cachingPurchaseRepository;
+    }
+
+    /**
+     * @see IAsyncPurchaseDAO
+     */
+    @Override
+    public CompletableFuture<List<Purchase>> getValidPurchasesDetail(long now) {
+        return hystrixPurchaseRepository.queueRead("getValidPurchasesDetail",
+                purchaseRepository -> purchaseRepository.getValidPurchasesDetail(now));
+    }
+
+    /**
+     * @see IAsyncPurchaseDAO
+     */
+    @Override
+    public CompletableFuture<List<Purchase>> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit) {
+        return hystrixPurchaseRepository.queueRead("getValidPurchasesDetailPage",
+                purchaseRepository -> purchaseRepository.getValidPurchasesDetailPage(now, after, limit));
+    }
+
+    /**
+     * Served by the cache when the purchase is cached, otherwise collapsed with the concurrent
+     * lookups in a single getPurchasesDetailByPurchasesIds call and cached
+     *
+     * @see IAsyncPurchaseDAO
+     */
+    @Override
+    public CompletableFuture<Purchase> findById(Long id) {
+        return cachingPurchaseRepository.findByIdAsync(id, hystrixPurchaseRepository::queueFindById);
+    }
+
+}
@@ -0,0 +1,346 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ValidationException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * {@code CachingPurchaseDAO} is a bounded read-through cache of the purchases by id
+ * in front of another IPurchaseDAO
+ * Each entry lives until the expiration date of the purchase and at most expireAfterWrite milliseconds,
+ * so the entries of expired purchases never read again don't stay until size eviction,
+ * entries are invalidated on save and update
+ * A lookup only counts as a hit when it serves the cached purchase, a lookup of an expired entry is a miss
+ *
+ * Each write bumps the generation of the stripe of its id when it invalidates the entry, a purchase loaded
+ * on a miss is only cached if the generation is still the one read before the load, so a load racing with
+ * a write never puts back the version the write replaced
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class CachingPurchaseDAO implements IPurchaseDAO {
+
+    private static final int STRIPES = 64;
+
+    private final IPurchaseDAO purchaseRepository;
+    private final Cache<Long, Purchase> purchasesById;
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final long[] generations = new long[STRIPES]; // guarded by the lock of the stripe
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Creates a new cache for the given repository
+     *
+     * @param purchaseRepository cached repository
+     * @param maximumSize max number of purchases in the cache
+     * @param expireAfterWrite max time in milliseconds a purchase stays in the cache
+     */
+    public CachingPurchaseDAO(IPurchaseDAO purchaseRepository, long maximumSize, long expireAfterWrite) {
+        this.purchaseRepository = purchaseRepository;
+        this.purchasesById = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite, TimeUnit.MILLISECONDS)
+                .recordStats() // evictions only, the lookups are counted by findById
+                .build();
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            locks[stripe] = new Object();
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getAll() {
+        return purchaseRepository.getAll();
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getPurchasesDetailByPurchasesIds(Long... ids) {
+        return purchaseRepository.getPurchasesDetailByPurchasesIds(ids);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetail(long now) {
+        return purchaseRepository.getValidPurchasesDetail(now);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit) {
+        return purchaseRepository.getValidPurchasesDetailPage(now, after, limit);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public void streamValidPurchasesDetail(long now, Consumer<Purchase> consumer) {
+        purchaseRepository.streamValidPurchasesDetail(now, consumer);
+    }
+
+    /**
+     * Gets the purchase from the cache or loads it from the cached repository
+     * A cached purchase past its expiration date is evicted and loaded again
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase findById(Long id) throws NotFoundException {
+        Purchase purchase = getCached(id);
+        if (purchase != null) {
+            return purchase;
+        }
+        long generation = generation(id);
+        return putLoaded(id, generation, purchaseRepository.findById(id));
+    }
+
+    /**
+     * Gets the purchase from the cache or loads it with the given async loader, a miss never blocks the calling thread
+     * The loaded purchase is cached as the ones loaded by findById
+     *
+     * @param id the id of the purchase to get
+     * @param loader loads the purchase of the given id from the cached repository
+     * @return future with the purchase or null if not found
+     */
+    public CompletableFuture<Purchase> findByIdAsync(Long id, Function<Long, CompletableFuture<Purchase>> loader) {
+        Purchase purchase = getCached(id);
+        if (purchase != null) {
+            return CompletableFuture.completedFuture(purchase);
+        }
+        long generation = generation(id);
+        return loader.apply(id).thenApply(loaded -> putLoaded(id, generation, loaded));
+    }
+
+    /**
+     * Gets the cached purchase of the given id, counting the lookup as a hit or a miss
+     * A cached purchase past its expiration date is evicted
+     *
+     * @param id the purchase id
+     * @return the cached purchase or null on a miss
+     */
+    private Purchase getCached(Long id) {
+        Purchase purchase = purchasesById.asMap().get(id); // unlike getIfPresent, not counted as a hit before the check
+        if (purchase != null) {
+            if (purchase.getExpires().getTime() >= System.currentTimeMillis()) {
+                hitCount.increment();
+                return purchase;
+            }
+            purchasesById.invalidate(id); // entry ttl ends at the expiration date of the purchase
+            expiredCount.incrementAndGet();
+        }
+        missCount.increment();
+        return null;
+    }
+
+    /**
+     * Gets the generation of the stripe of the given id, read before a load
+     *
+     * @param id the purchase id
+     * @return generation of the stripe
+     */
+    private long generation(Long id) {
+        int stripe = stripe(id);
+        synchronized (locks[stripe]) {
+            return generations[stripe];
+        }
+    }
+
+    /**
+     * Caches a loaded purchase that is still valid, unless its stripe was written since the load started
+     *
+     * @param id the purchase id
+     * @param generation generation of the stripe read before the load
+     * @param purchase the loaded purchase, may be null
+     * @return the loaded purchase
+     */
+    private Purchase putLoaded(Long id, long generation, Purchase purchase) {
+        if (purchase != null && purchase.getExpires().getTime() >= System.currentTimeMillis()) {
+            int stripe = stripe(id);
+            synchronized (locks[stripe]) {
+                if (generations[stripe] == generation) { // no write of the stripe since the load started
+                    purchasesById.put(id, purchase);
+                }
+            }
+        }
+        return purchase;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase save(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        try {
+            return purchaseRepository.save(purchase);
+        } finally {
+            invalidate(purchase.getId());
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean insertIfAbsent(Purchase purchase) throws ValidationException {
+        try {
+            return purchaseRepository.insertIfAbsent(purchase);
+        } finally {
+            invalidate(purchase.getId());
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> saveAll(List<Purchase> purchases) throws DataIntegrityViolationException, ValidationException {
+        try {
+            return purchaseRepository.saveAll(purchases);
+        } finally {
+            purchases.forEach(purchase -> invalidate(purchase.getId()));
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase update(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        try {
+            return purchaseRepository.update(purchase);
+        } finally {
+            invalidate(purchase.getId());
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase updateIfVersion(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        try {
+            return purchaseRepository.updateIfVersion(purchase, expectedVersion);
+        } finally {
+            invalidate(purchase.getId());
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase patch(PurchasePatch patch) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        try {
+            return purchaseRepository.patch(patch);
+        } finally {
+            invalidate(patch.getId());
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public int removeExpired(Collection<Long> ids, long now) {
+        try {
+            return purchaseRepository.removeExpired(ids, now);
+        } finally {
+            ids.forEach(this::invalidate);
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean exists(Long id) {
+        return purchasesById.getIfPresent(id) != null || purchaseRepository.exists(id);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return purchaseRepository.findExistingIds(ids);
+    }
+
+    /**
+     * Invalidates the entry of a written purchase and bumps the generation of its stripe,
+     * so the loads started before the write don't cache what they read
+     *
+     * @param id the purchase id written
+     */
+    private void invalidate(Long id) {
+        int stripe = stripe(id);
+        synchronized (locks[stripe]) {
+            generations[stripe]++;
+            purchasesById.invalidate(id);
+        }
+    }
+
+    private static int stripe(Long id) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Gets the hit, miss and eviction counters of the cache, the lookups of expired entries are misses
+     *
+     * @return cache statistics
+     */
+    public CacheStats stats() {
+        CacheStats stats = purchasesById.stats();
+        return new CacheStats(hitCount.sum(), missCount.sum(), stats.loadSuccessCount(), stats.loadExceptionCount(),
+                stats.totalLoadTime(), stats.evictionCount());
+    }
+
+    /**
+     * Gets the number of entries evicted because the purchase expired
+     *
+     * @return number of expired entries
+     */
+    public long expiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Gets the number of purchases in the cache
+     *
+     * @return cache size
+     */
+    public long size() {
+        return purchasesById.size();
+    }
+
+}
@@ -0,0 +1,394 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ValidationException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code ExpiringPurchaseDAO} moves the expired purchases of another IPurchaseDAO to a {@link PurchaseArchive} in background
+ * Every purchase written through this DAO is scheduled by its expiration date in an {@link ExpiryWheel}
+ * advanced by a single sweeper thread each tick, the due purchases are appended to the archive
+ * and then removed with a single removeExpired call, the archived purchases are still found by id
+ *
+ * Scheduling is O(1) in the request thread, the purchase is only queued for the sweeper thread
+ * An update pushing the expiration date out schedules the purchase again, the previous entry is
+ * discarded when it's due and removeExpired checks the expiration date again, so a renewed purchase is never removed,
+ * at most an older version is archived and the stored purchase is found first
+ *
+ * The purchases already stored are read once by the sweeper thread when it starts, only the ones not scheduled yet
+ * by a write are scheduled, so a purchase written meanwhile keeps its last expiration date
+ *
+ * An archived purchase id is still in use, exists is true and a new purchase with the same id is rejected,
+ * the archived purchase is read only, its updates fail with {@link DataIntegrityViolationException}
+ * The archive and the removal of the expired purchases are exclusive with the inserts,
+ * so an id being archived is never inserted again
+ *
+ * It's the repository of the in memory profile, below the isolation boundary and the cache of the purchases,
+ * so the reads of the archive run in the read pool
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class ExpiringPurchaseDAO implements IPurchaseDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpiringPurchaseDAO.class);
+
+    private final IPurchaseDAO purchaseRepository;
+    private final PurchaseArchive archive;
+    private final ExpiryWheel wheel; // owned by the sweeper thread
+    private final Queue<long[]> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<Long, Long> expiresById = new ConcurrentHashMap<>(); // last expiration date scheduled
+    private final ReadWriteLock archiving = new ReentrantReadWriteLock(); // write locked to archive, read locked to insert
+    private final long tickMillis;
+    private final ScheduledExecutorService sweeper;
+    private volatile boolean tracking;
+
+    /**
+     * Creates the DAO, the sweeper thread only runs after start
+     *
+     * @param purchaseRepository repository with the purchases to expire
+     * @param archive archive of the expired purchases
+     * @param tickMillis time in milliseconds between sweeps, also the span of a bucket of the first level of the wheel
+     * @param wheelSize number of buckets of each level of the wheel
+     * @param levels number of levels of the wheel
+     */
+    public ExpiringPurchaseDAO(IPurchaseDAO purchaseRepository, PurchaseArchive archive, long tickMillis, int wheelSize, int levels) {
+        this.purchaseRepository = purchaseRepository;
+        this.archive = archive;
+        this.wheel = new ExpiryWheel(tickMillis, wheelSize, levels, System.currentTimeMillis());
+        this.tickMillis = tickMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("purchase-expiry-sweeper").setDaemon(true).build());
+    }
+
+    /**
+     * Starts the sweeper thread, sweeping once every tick
+     */
+    public void start() {
+        sweeper.scheduleWithFixedDelay(() -> sweep(System.currentTimeMillis()), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the sweeper thread and closes the archive
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+        try {
+            sweeper.awaitTermination(tickMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        archive.close();
+    }
+
+    /**
+     * Archives and removes the purchases due at the given time, called by the sweeper thread
+     *
+     * @param now current time in milliseconds
+     * @return number of purchases removed
+     */
+    int sweep(long now) {
+        try {
+            if (!tracking) {
+                purchaseRepository.getAll().forEach(this::scheduleIfAbsent); // the purchases stored before this DAO
+                tracking = true;
+            }
+
+            Map<Long, Long> due = Maps.newHashMap();
+            long[] entry;
+            while ((entry = pending.poll()) != null) {
+                if (!wheel.add(entry[0], entry[1])) {
+                    due.put(entry[0], entry[1]);
+                }
+            }
+            wheel.advance(now, due::put);
+
+            // only the last expiration date scheduled of each purchase counts
+            due.entrySet().removeIf(expiry -> !expiresById.remove(expiry.getKey(), expiry.getValue()));
+            if (due.isEmpty()) {
+                return 0;
+            }
+            try {
+                List<Purchase> expired = purchaseRepository.getPurchasesDetailByPurchasesIds(due.keySet().toArray(new Long[due.size()]))
+                        .stream()
+                        .filter(purchase -> purchase.getExpires().getTime() < now)
+                        .collect(Collectors.toList());
+                if (expired.isEmpty()) {
+                    return 0;
+                }
+                int removed;
+                archiving.writeLock().lock();
+                try {
+                    archive.append(expired);
+                    removed = purchaseRepository.removeExpired(expired.stream().map(Purchase::getId).collect(Collectors.toList()), now);
+                } finally {
+                    archiving.writeLock().unlock();
+                }
+                log.debug("Archived {} expired purchases", removed);
+                return removed;
+            } catch (RuntimeException e) {
+                due.forEach(this::schedule); // retried in the next sweep
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to remove the expired purchases", e);
+            return 0;
+        }
+    }
+
+    private void schedule(Purchase purchase) {
+        if (purchase != null && purchase.getExpires() != null) {
+            schedule(purchase.getId(), purchase.getExpires().getTime());
+        }
+    }
+
+    private void schedule(Long id, Long expires) {
+        expiresById.put(id, expires);
+        pending.add(new long[]{id, expires});
+    }
+
+    private void scheduleIfAbsent(Purchase purchase) {
+        if (purchase.getExpires() != null && expiresById.putIfAbsent(purchase.getId(), purchase.getExpires().getTime()) == null) {
+            pending.add(new long[]{purchase.getId(), purchase.getExpires().getTime()});
+        }
+    }
+
+    /**
+     * Inserts with the archive locked for reading, so no purchase is archived between the check of the ids and the insert
+     *
+     * @param insert the insert in the repository
+     * @param <T> result type
+     * @return result of the insert
+     */
+    private <T> T inserting(Supplier<T> insert) {
+        archiving.readLock().lock();
+        try {
+            return insert.get();
+        } finally {
+            archiving.readLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the stored purchase, a purchase not found because it's archived can't be updated
+     *
+     * @param id the purchase id
+     * @param update the update in the repository
+     * @return purchase saved with the new version
+     */
+    private Purchase updating(Long id, Supplier<Purchase> update) {
+        Purchase updated;
+        try {
+            updated = update.get();
+        } catch (NotFoundException e) {
+            if (isArchived(id)) {
+                throw new DataIntegrityViolationException("Purchase " + id + " is expired and archived, it can't be changed");
+            }
+            throw e;
+        }
+        schedule(updated);
+        return updated;
+    }
+
+    private boolean isArchived(Long id) {
+        return id != null && archive.find(id).isPresent();
+    }
+
+    /**
+     * Adds the archived purchases of the ids not found in the repository
+     *
+     * @param ids the purchase ids
+     * @param purchases the purchases found in the repository
+     * @return the purchases found in the repository or in the archive
+     */
+    private List<Purchase> withArchived(Stream<Long> ids, List<Purchase> purchases) {
+        Set<Long> found = purchases.stream().map(Purchase::getId).collect(Collectors.toSet());
+        List<Purchase> archived = ids
+                .filter(id -> id != null && !found.contains(id))
+                .distinct()
+                .map(archive::find)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+        if (archived.isEmpty()) {
+            return purchases;
+        }
+        return Stream.concat(purchases.stream(), archived.stream()).collect(Collectors.toList());
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getAll() {
+        return purchaseRepository.getAll();
+    }
+
+    /**
+     * The ids not found in the repository are found in the archive
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getPurchasesDetailByPurchasesIds(Long... ids) {
+        return withArchived(Arrays.stream(ids), purchaseRepository.getPurchasesDetailByPurchasesIds(ids));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetail(long now) {
+        return purchaseRepository.getValidPurchasesDetail(now);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit) {
+        return purchaseRepository.getValidPurchasesDetailPage(now, after, limit);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public void streamValidPurchasesDetail(long now, Consumer<Purchase> consumer) {
+        purchaseRepository.streamValidPurchasesDetail(now, consumer);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase findById(Long id) throws NotFoundException {
+        Purchase purchase = purchaseRepository.findById(id);
+        if (purchase == null && id != null) {
+            return archive.find(id).orElse(null);
+        }
+        return purchase;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase save(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        Purchase saved = inserting(() -> {
+            if (isArchived(purchase.getId())) {
+                throw new DataIntegrityViolationException("Purchase id already in use");
+            }
+            return purchaseRepository.save(purchase);
+        });
+        schedule(saved);
+        return saved;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean insertIfAbsent(Purchase purchase) throws ValidationException {
+        boolean inserted = inserting(() -> !isArchived(purchase.getId()) && purchaseRepository.insertIfAbsent(purchase));
+        if (inserted) {
+            schedule(purchase);
+        }
+        return inserted;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> saveAll(List<Purchase> purchases) throws DataIntegrityViolationException, ValidationException {
+        List<Purchase> saved = inserting(() -> {
+            if (purchases.stream().anyMatch(purchase -> isArchived(purchase.getId()))) {
+                throw new DataIntegrityViolationException("Purchase id already in use");
+            }
+            return purchaseRepository.saveAll(purchases);
+        });
+        saved.forEach(this::schedule);
+        return saved;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase update(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        return updating(purchase.getId(), () -> purchaseRepository.update(purchase));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase updateIfVersion(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        return updating(purchase.getId(), () -> purchaseRepository.updateIfVersion(purchase, expectedVersion));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase patch(PurchasePatch patch) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        return updating(patch.getId(), () -> purchaseRepository.patch(patch));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public int removeExpired(Collection<Long> ids, long now) {
+        return purchaseRepository.removeExpired(ids, now);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean exists(Long id) {
+        return purchaseRepository.exists(id) || isArchived(id);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        Set<Long> existingIds = purchaseRepository.findExistingIds(ids);
+        return Stream.concat(existingIds.stream(), ids.stream().filter(id -> !existingIds.contains(id) && isArchived(id)))
+                .collect(Collectors.toSet());
+    }
+
+}
@@ -0,0 +1,146 @@
+package pt.pmribeiro.webstore.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * {@code ExpiryWheel} is a hierarchical timing wheel of purchase ids by expiration date
+ * Each level has wheelSize buckets, a bucket of the first level spans one tick and a bucket of the
+ * next level spans the whole previous level, so an id is added in O(levels) whatever its expiration date
+ * When the time advances the buckets of the upper levels are cascaded to the lower levels
+ * and the ids of the first level buckets already passed are due
+ *
+ * An id is due only when its expiration date is before the current time, never earlier,
+ * the ids expiring beyond the last level wait in a list cascaded at each tick of the last level
+ *
+ * Not thread safe, the wheel is owned by a single thread
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class ExpiryWheel {
+
+    private final int wheelSize;
+    private final long[] tickMillis;
+    private final List<Entry>[][] buckets;
+    private final List<Entry> beyond = new ArrayList<>();
+    private long currentTime; // start of the current tick of the first level
+    private int size;
+
+    /**
+     * @param tickMillis time in milliseconds spanned by a bucket of the first level
+     * @param wheelSize number of buckets of each level
+     * @param levels number of levels
+     * @param startTime current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public ExpiryWheel(long tickMillis, int wheelSize, int levels, long startTime) {
+        if (tickMillis <= 0 || wheelSize < 2 || levels < 1) {
+            throw new IllegalArgumentException("tickMillis must be positive, wheelSize at least 2 and levels at least 1");
+        }
+        this.wheelSize = wheelSize;
+        this.tickMillis = new long[levels];
+        this.buckets = new List[levels][wheelSize];
+        for (int level = 0; level < levels; level++) {
+            this.tickMillis[level] = level == 0 ? tickMillis : this.tickMillis[level - 1] * wheelSize;
+            for (int slot = 0; slot < wheelSize; slot++) {
+                buckets[level][slot] = new ArrayList<>();
+            }
+        }
+        this.currentTime = startTime - Math.floorMod(startTime, tickMillis);
+    }
+
+    /**
+     * Adds the id to the bucket of its expiration date
+     *
+     * @param id the purchase id
+     * @param expires the purchase expiration date in milliseconds
+     * @return false if the id is already due and wasn't added
+     */
+    public boolean add(long id, long expires) {
+        return add(new Entry(id, expires));
+    }
+
+    private boolean add(Entry entry) {
+        if (entry.expires < currentTime) {
+            return false;
+        }
+        for (int level = 0; level < tickMillis.length; level++) {
+            long tick = tickMillis[level];
+            long levelStart = currentTime - Math.floorMod(currentTime, tick);
+            if (entry.expires < levelStart + tick * wheelSize) {
+                buckets[level][slot(entry.expires, tick)].add(entry);
+                size++;
+                return true;
+            }
+        }
+        beyond.add(entry);
+        size++;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the given time, tick by tick
+     *
+     * @param now current time in milliseconds
+     * @param due receives the id and the expiration date of each due id
+     */
+    public void advance(long now, BiConsumer<Long, Long> due) {
+        long firstTick = tickMillis[0];
+        while (currentTime + firstTick <= now) {
+            long passed = currentTime;
+            currentTime += firstTick;
+
+            // the upper buckets starting now go down first, so they are cascaded level by level
+            int last = tickMillis.length - 1;
+            if (Math.floorMod(currentTime, tickMillis[last]) == 0) {
+                cascade(beyond, due);
+            }
+            for (int level = last; level > 0; level--) {
+                long tick = tickMillis[level];
+                if (Math.floorMod(currentTime, tick) == 0) {
+                    cascade(buckets[level][slot(currentTime, tick)], due);
+                }
+            }
+            cascade(buckets[0][slot(passed, firstTick)], due); // all due, the tick is over
+        }
+    }
+
+    /**
+     * @return number of ids in the wheel
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(List<Entry> bucket, BiConsumer<Long, Long> due) {
+        if (bucket.isEmpty()) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(bucket);
+        bucket.clear();
+        size -= entries.size();
+        for (Entry entry : entries) {
+            if (!add(entry)) {
+                due.accept(entry.id, entry.expires);
+            }
+        }
+    }
+
+    private int slot(long time, long tick) {
+        return (int) Math.floorMod(Math.floorDiv(time, tick), (long) wheelSize);
+    }
+
+    private static class Entry {
+
+        private final long id;
+        private final long expires;
+
+        private Entry(long id, long expires) {
+            this.id = id;
+            this.expires = expires;
+        }
+
+    }
+
+}
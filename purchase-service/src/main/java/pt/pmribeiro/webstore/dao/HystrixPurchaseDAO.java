@@ -0,0 +1,336 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixThreadPoolKey;
+import com.netflix.hystrix.exception.HystrixBadRequestException;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
+import pt.pmribeiro.webstore.exceptions.ValidationException;
+import rx.Observable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * {@code HystrixPurchaseDAO} is the single isolation boundary of the purchase service,
+ * each call of the IPurchaseDAO runs in a hystrix command named after the method
+ * Reads and writes run in separate thread pools so slow writes can't starve the reads
+ *
+ * The business exceptions of the IPurchaseDAO are rethrown as they are and don't count as failures,
+ * timeouts, rejections, open circuits and other failures are thrown as {@link ServiceUnavailableException}
+ *
+ * The single id lookups arriving within the window of the findById collapser are batched
+ * in a single getPurchasesDetailByPurchasesIds call, trading a small wait for fewer round trips to the database
+ *
+ * The commands, the thread pools and the collapser are configured with the hystrix.command.[method name],
+ * hystrix.threadpool.[pool key] and hystrix.collapser.findById properties
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class HystrixPurchaseDAO implements IPurchaseDAO {
+
+    public static final String GROUP_KEY = "PurchaseDAO";
+    public static final String READ_POOL_KEY = "purchase-dao-read";
+    public static final String WRITE_POOL_KEY = "purchase-dao-write";
+    public static final String FIND_BY_ID_COLLAPSER_KEY = "findById";
+
+    private static final HystrixCollapser.Setter FIND_BY_ID_COLLAPSER = HystrixCollapser.Setter
+            .withCollapserKey(HystrixCollapserKey.Factory.asKey(FIND_BY_ID_COLLAPSER_KEY))
+            .andScope(HystrixCollapser.Scope.GLOBAL); // the lookups of all the requests share the batch
+
+    private final IPurchaseDAO purchaseRepository;
+    private final ConcurrentMap<String, HystrixCommand.Setter> setters = new ConcurrentHashMap<>();
+
+    public HystrixPurchaseDAO(IPurchaseDAO purchaseRepository) {
+        this.purchaseRepository = purchaseRepository;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getAll() {
+        return read("getAll", purchaseRepository::getAll);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getPurchasesDetailByPurchasesIds(Long... ids) {
+        return read("getPurchasesDetailByPurchasesIds", () -> purchaseRepository.getPurchasesDetailByPurchasesIds(ids));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetail(long now) {
+        return read("getValidPurchasesDetail", () -> purchaseRepository.getValidPurchasesDetail(now));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit) {
+        return read("getValidPurchasesDetailPage", () -> purchaseRepository.getValidPurchasesDetailPage(now, after, limit));
+    }
+
+    /**
+     * Not isolated, the stream lasts as long as the client reads the response, in a command it would hold
+     * a thread of the read pool and be cut by the command timeout
+     * The concurrent streams are bounded instead by the stream permits and the stream timeout of the controller,
+     * see the purchase.mvc.async properties
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public void streamValidPurchasesDetail(long now, Consumer<Purchase> consumer) {
+        purchaseRepository.streamValidPurchasesDetail(now, consumer);
+    }
+
+    /**
+     * Collapsed with the concurrent lookups in a single getPurchasesDetailByPurchasesIds call
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase findById(Long id) throws NotFoundException {
+        try {
+            return new FindByIdCollapser(id).queue().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Purchase database is unavailable (findById interrupted)", e);
+        } catch (ExecutionException e) {
+            throw unwrap(FIND_BY_ID_COLLAPSER_KEY, e.getCause());
+        }
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase save(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        return write("save", () -> purchaseRepository.save(purchase));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean insertIfAbsent(Purchase purchase) throws ValidationException {
+        return write("insertIfAbsent", () -> purchaseRepository.insertIfAbsent(purchase));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> saveAll(List<Purchase> purchases) throws DataIntegrityViolationException, ValidationException {
+        return write("saveAll", () -> purchaseRepository.saveAll(purchases));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase update(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        return write("update", () -> purchaseRepository.update(purchase));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase updateIfVersion(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        return write("updateIfVersion", () -> purchaseRepository.updateIfVersion(purchase, expectedVersion));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase patch(PurchasePatch patch) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        return write("patch", () -> purchaseRepository.patch(patch));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public int removeExpired(Collection<Long> ids, long now) {
+        return write("removeExpired", () -> purchaseRepository.removeExpired(ids, now));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean exists(Long id) {
+        return read("exists", () -> purchaseRepository.exists(id));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return read("findExistingIds", () -> purchaseRepository.findExistingIds(ids));
+    }
+
+    /**
+     * Queues the call in a hystrix command of the read pool without blocking the caller
+     *
+     * @param commandKey key of the command
+     * @param call the call to the repository
+     * @param <T> result type
+     * @return future completed with the result of the call or the exception thrown to the caller
+     */
+    <T> CompletableFuture<T> queueRead(String commandKey, Function<IPurchaseDAO, T> call) {
+        return toFuture(commandKey, command(READ_POOL_KEY, commandKey, () -> call.apply(purchaseRepository)).toObservable());
+    }
+
+    /**
+     * Queues the lookup in the findById collapser without blocking the caller
+     *
+     * @param id the id of the purchase
+     * @return future completed with the purchase, null if not found, or the exception thrown to the caller
+     */
+    CompletableFuture<Purchase> queueFindById(Long id) {
+        return toFuture(FIND_BY_ID_COLLAPSER_KEY, new FindByIdCollapser(id).toObservable());
+    }
+
+    private static <T> CompletableFuture<T> toFuture(String commandKey, Observable<T> observable) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        observable.subscribe(result::complete,
+                exception -> result.completeExceptionally(unwrap(commandKey, exception)),
+                () -> result.complete(null)); // no effect once completed with the value
+        return result;
+    }
+
+    private <T> T read(String commandKey, Supplier<T> call) {
+        return execute(READ_POOL_KEY, commandKey, call);
+    }
+
+    private <T> T write(String commandKey, Supplier<T> call) {
+        return execute(WRITE_POOL_KEY, commandKey, call);
+    }
+
+    /**
+     * Runs the call in a hystrix command of the given thread pool
+     *
+     * @param threadPoolKey key of the thread pool
+     * @param commandKey key of the command
+     * @param call the call to the repository
+     * @param <T> result type
+     * @return result of the call
+     */
+    private <T> T execute(String threadPoolKey, String commandKey, Supplier<T> call) {
+        try {
+            return command(threadPoolKey, commandKey, call).execute();
+        } catch (HystrixBadRequestException | HystrixRuntimeException e) {
+            throw unwrap(commandKey, e);
+        }
+    }
+
+    /**
+     * Creates the hystrix command of the call in the given thread pool,
+     * the business exceptions are thrown as HystrixBadRequestException so they aren't counted as failures
+     */
+    private <T> HystrixCommand<T> command(String threadPoolKey, String commandKey, Supplier<T> call) {
+        return new HystrixCommand<T>(setters.computeIfAbsent(commandKey, key -> setter(threadPoolKey, key))) {
+            @Override
+            protected T run() {
+                try {
+                    return call.get();
+                } catch (DataIntegrityViolationException | NotFoundException | PreconditionFailedException | ValidationException e) {
+                    throw new HystrixBadRequestException(e.getMessage(), e); // not a failure of the database
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets the exception thrown to the caller for the failure of a command
+     *
+     * @param commandKey key of the failed command
+     * @param exception the failure of the command
+     * @return the business exception or ServiceUnavailableException when the database failed
+     */
+    private static RuntimeException unwrap(String commandKey, Throwable exception) {
+        if (exception instanceof HystrixBadRequestException) {
+            return (RuntimeException) exception.getCause();
+        }
+        if (exception instanceof HystrixRuntimeException) {
+            return new ServiceUnavailableException("Purchase database is unavailable (" + commandKey + " " +
+                    ((HystrixRuntimeException) exception).getFailureType().name().toLowerCase() + ")", exception);
+        }
+        return exception instanceof RuntimeException ? (RuntimeException) exception
+                : new ServiceUnavailableException("Purchase database is unavailable (" + commandKey + ")", exception);
+    }
+
+    private static HystrixCommand.Setter setter(String threadPoolKey, String commandKey) {
+        return HystrixCommand.Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey(GROUP_KEY))
+                .andCommandKey(HystrixCommandKey.Factory.asKey(commandKey))
+                .andThreadPoolKey(HystrixThreadPoolKey.Factory.asKey(threadPoolKey));
+    }
+
+    /**
+     * Batches the findById calls of the window in a single getPurchasesDetailByPurchasesIds command of the read pool
+     */
+    private class FindByIdCollapser extends HystrixCollapser<List<Purchase>, Purchase, Long> {
+
+        private final Long id;
+
+        private FindByIdCollapser(Long id) {
+            super(FIND_BY_ID_COLLAPSER);
+            this.id = id;
+        }
+
+        @Override
+        public Long getRequestArgument() {
+            return id;
+        }
+
+        @Override
+        protected HystrixCommand<List<Purchase>> createCommand(Collection<CollapsedRequest<Purchase, Long>> requests) {
+            Long[] ids = requests.stream()
+                    .map(CollapsedRequest::getArgument)
+                    .distinct()
+                    .toArray(Long[]::new);
+            return command(READ_POOL_KEY, "getPurchasesDetailByPurchasesIds", () -> purchaseRepository.getPurchasesDetailByPurchasesIds(ids));
+        }
+
+        @Override
+        protected void mapResponseToRequests(List<Purchase> purchases, Collection<CollapsedRequest<Purchase, Long>> requests) {
+            Map<Long, Purchase> purchasesById = purchases.stream()
+                    .collect(Collectors.toMap(Purchase::getId, Function.identity(), (first, second) -> first));
+            requests.forEach(request -> request.setResponse(purchasesById.get(request.getArgument()))); // null when not found
+        }
+
+    }
+
+}
@@ -0,0 +1,49 @@
+package pt.pmribeiro.webstore.dao;
+
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface specification for the asynchronous PurchaseDAO bean
+ * Every call is bounded by the hystrix timeout, when the timeout is exceeded, the call is rejected
+ * or the circuit is open the returned future completes exceptionally with a {@link ServiceUnavailableException}
+ * Only reads are offered, the writes must go through the cache and the sweeper of the blocking IPurchaseDAO
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public interface IAsyncPurchaseDAO {
+
+    /**
+     * Gets the purchases valid at the given time with the detail from a database
+     *
+     * @param now time in milliseconds
+     * @return future with the list of valid purchases with the detail
+     * @see IPurchaseDAO#getValidPurchasesDetail(long)
+     */
+    CompletableFuture<List<Purchase>> getValidPurchasesDetail(long now);
+
+    /**
+     * Gets a page of the purchases valid at the given time with the detail from a database
+     *
+     * @param now time in milliseconds
+     * @param after cursor of the last purchase of the previous page, null for the first page
+     * @param limit max number of purchases in the page
+     * @return future with the page of valid purchases with the detail
+     * @see IPurchaseDAO#getValidPurchasesDetailPage(long, PurchaseCursor, int)
+     */
+    CompletableFuture<List<Purchase>> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit);
+
+    /**
+     * Get the purchase for the given id
+     *
+     * @param id the id of the purchase to get from the database
+     * @return future with the purchase in the database or null if not found
+     * @see IPurchaseDAO#findById(Long)
+     */
+    CompletableFuture<Purchase> findById(Long id);
+
+}
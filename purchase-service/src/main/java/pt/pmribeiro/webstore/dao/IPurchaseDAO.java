@@ -2,15 +2,22 @@ package pt.pmribeiro.webstore.dao;
 
 import org.springframework.stereotype.Repository;
 import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
 import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
 import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
 import pt.pmribeiro.webstore.exceptions.ValidationException;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Interface specification for PurchaseDAO bean
- * @todo: change methods signature to return Future to monitor the quality of service with timeout. SLA <= 2s
+ * The calls are blocking, the SLA of 2 seconds is enforced by the hystrix timeout of {@link HystrixPurchaseDAO}
+ * and {@link IAsyncPurchaseDAO} offers the reads returning futures
  *
  * Created by pribeiro on 26/11/2016.
  */
@@ -32,6 +39,37 @@ public interface IPurchaseDAO {
      */
     List<Purchase> getPurchasesDetailByPurchasesIds(Long... ids);
 
+    /**
+     * Gets the purchases valid at the given time with the detail from a database
+     * applying the expiration filter in the database in a single call
+     * Definition: A valid purchase has the expiration date bigger or equals to the given time
+     *
+     * @param now time in milliseconds
+     * @return list of valid purchases with the detail ordered by expiration date
+     */
+    List<Purchase> getValidPurchasesDetail(long now);
+
+    /**
+     * Gets a page of the purchases valid at the given time with the detail from a database
+     * The purchases are ordered by expiration date and id and the page starts right after the cursor,
+     * so the database seeks to the cursor position instead of skipping the previous pages
+     *
+     * @param now time in milliseconds
+     * @param after cursor of the last purchase of the previous page, null for the first page
+     * @param limit max number of purchases in the page
+     * @return list of valid purchases with the detail ordered by expiration date and id
+     */
+    List<Purchase> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit);
+
+    /**
+     * Streams the purchases valid at the given time with the detail from a database
+     * The purchases are handed to the consumer as they are read, so the whole list is never kept in memory
+     *
+     * @param now time in milliseconds
+     * @param consumer receives each valid purchase with the detail ordered by expiration date and id
+     */
+    void streamValidPurchasesDetail(long now, Consumer<Purchase> consumer);
+
     /**
      * Get the purchase for the given id
      *
@@ -42,7 +80,7 @@ public interface IPurchaseDAO {
     Purchase findById(Long id) throws NotFoundException;
 
     /**
-     * Save a given purchase in the database
+     * Save a given purchase in the database with version 1
      *
      * @param purchase the purchase model to save
      * @return purchase saved in database
@@ -52,15 +90,77 @@ public interface IPurchaseDAO {
     Purchase save(Purchase purchase) throws DataIntegrityViolationException, ValidationException;
 
     /**
-     * Updates a given purchase in the database
+     * Inserts a given purchase in the database only if its id is not in use, as a single atomic operation,
+     * so there is no window between checking the id and saving the purchase
+     *
+     * @param purchase the purchase model to insert
+     * @return true if the purchase was inserted, false if the purchase id is already in use
+     * @throws ValidationException if any of the field don't match the requirements
+     */
+    boolean insertIfAbsent(Purchase purchase) throws ValidationException;
+
+    /**
+     * Save the given purchases in the database in a single batch
+     *
+     * @param purchases the purchase models to save
+     * @return purchases saved in database
+     * @throws DataIntegrityViolationException if any of the purchases violates the integrity of the data in the database,
+     * in this case none of the purchases is saved
+     * @throws ValidationException if any of the field don't match the requirements
+     */
+    List<Purchase> saveAll(List<Purchase> purchases) throws DataIntegrityViolationException, ValidationException;
+
+    /**
+     * Updates a given purchase in the database whatever its current version, incrementing the version
      *
      * @param purchase the purchase model to update
-     * @return purchase saved in database
+     * @return purchase saved in database with the new version
      * @throws DataIntegrityViolationException if violates the integrity of the data in the database
      * @throws ValidationException if any of the field don't match the requirements
      */
     Purchase update(Purchase purchase) throws DataIntegrityViolationException, ValidationException;
 
+    /**
+     * Updates a given purchase in the database only if its version is still the expected one, incrementing the version
+     * The version check and the update are a single atomic operation, so concurrent writers can't overwrite each other
+     *
+     * @param purchase the purchase model to update
+     * @param expectedVersion the version of the purchase the changes are based on
+     * @return purchase saved in database with the new version
+     * @throws NotFoundException if purchase not found in database
+     * @throws PreconditionFailedException if the purchase version is not the expected one
+     * @throws DataIntegrityViolationException if violates the integrity of the data in the database
+     * @throws ValidationException if any of the field don't match the requirements
+     */
+    Purchase updateIfVersion(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException;
+
+    /**
+     * Patches only the changed fields of a purchase in the database, incrementing the version
+     * Only the changed details are written, the version check and the changes are a single atomic operation
+     *
+     * @param patch the changes of the purchase
+     * @return purchase saved in database with the new version
+     * @throws NotFoundException if purchase not found in database
+     * @throws PreconditionFailedException if the patch has an expected version and the purchase version is not that one
+     * @throws DataIntegrityViolationException if violates the integrity of the data in the database
+     * @throws ValidationException if a new detail is incomplete or the purchase is left without details
+     */
+    Purchase patch(PurchasePatch patch) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException;
+
+    /**
+     * Removes the purchases with the given ids that are still expired at the given time
+     * The expiration date is checked and the purchase removed in a single atomic operation,
+     * so a purchase whose expiration date was pushed out by an update is kept
+     * Definition: A expired purchase has the expiration date smaller than the given time
+     *
+     * @param ids the ids of the purchases expected to be expired
+     * @param now time in milliseconds
+     * @return number of purchases removed
+     */
+    int removeExpired(Collection<Long> ids, long now);
+
     /**
      * Checks if a purchase with the given id exists in database
      *
@@ -69,4 +169,12 @@ public interface IPurchaseDAO {
      */
     boolean exists(Long id);
 
+    /**
+     * Gets which of the given purchase ids exist in database with a single call
+     *
+     * @param ids the purchase ids
+     * @return the ids of the purchases that exist in the database
+     */
+    Set<Long> findExistingIds(Collection<Long> ids);
+
 }
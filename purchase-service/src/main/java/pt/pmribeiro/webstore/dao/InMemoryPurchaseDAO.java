@@ -0,0 +1,370 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ValidationException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * {@code InMemoryPurchaseDAO} keeps the purchases in memory indexed by id
+ * Lookups by id are O(1) and never lock, the writes lock the stripes of their ids, a batch locks all its ids at once
+ * and checks them before changing anything, so the expiration date index is always updated
+ * together with the purchase and the readers never see a batch rolled back
+ *
+ * With a {@link PurchaseJournal} the purchases are recovered on creation and each write is appended
+ * to the journal while its ids are locked, so the records of the same id are in the order of the writes,
+ * the write is only applied once its records are on the disk and a write the journal failed changes nothing
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class InMemoryPurchaseDAO implements IPurchaseDAO {
+
+    private static final int STRIPES = 64;
+
+    private final Lock[] locks = new Lock[STRIPES]; // writes of the ids of each stripe
+    private final ConcurrentMap<Long, Purchase> purchasesById = new ConcurrentHashMap<>();
+    private final PurchaseExpiryIndex expiryIndex = new PurchaseExpiryIndex();
+    private final PurchaseJournal journal;
+
+    /**
+     * Creates an empty store, lost on restart
+     */
+    public InMemoryPurchaseDAO() {
+        this.journal = null;
+        initLocks();
+    }
+
+    /**
+     * Creates the store with the purchases recovered from the journal
+     *
+     * @param journal journal of the writes, recovered and then written by this store only
+     */
+    public InMemoryPurchaseDAO(PurchaseJournal journal) {
+        this.journal = journal;
+        initLocks();
+        journal.recover(purchase -> {
+            purchasesById.put(purchase.getId(), purchase);
+            index(purchase);
+        }, id -> {
+            purchasesById.remove(id);
+            expiryIndex.remove(id);
+        }, purchasesById::values);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getAll() {
+        return Lists.newArrayList(purchasesById.values());
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getPurchasesDetailByPurchasesIds(Long... ids) {
+        return Arrays.stream(ids)
+                .map(purchasesById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetail(long now) {
+        return Lists.newArrayList(expiryIndex.validAt(now));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit) {
+        return expiryIndex.validAt(now, after, limit);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public void streamValidPurchasesDetail(long now, Consumer<Purchase> consumer) {
+        expiryIndex.validAt(now).forEach(consumer);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase findById(Long id) throws NotFoundException {
+        return purchasesById.get(id);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase save(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        return logged(Collections.singleton(purchase.getId()), () -> insertAll(Collections.singletonList(purchase)).get(0));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean insertIfAbsent(Purchase purchase) throws ValidationException {
+        return logged(Collections.singleton(purchase.getId()), () -> {
+            requireUniqueDetailIds(purchase);
+            if (purchasesById.containsKey(purchase.getId())) {
+                return false;
+            }
+            purchase.setVersion(1L);
+            put(Collections.singletonList(purchase));
+            return true;
+        });
+    }
+
+    /**
+     * Saves all the purchases or none, the ids are checked before any purchase is saved
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> saveAll(List<Purchase> purchases) throws DataIntegrityViolationException, ValidationException {
+        return logged(purchases.stream().map(Purchase::getId).collect(Collectors.toList()), () -> insertAll(purchases));
+    }
+
+    /**
+     * Inserts the purchases with the first version, called with their ids locked
+     *
+     * @param purchases the purchases to save
+     * @return purchases saved
+     * @throws DataIntegrityViolationException if any id is already in use or repeated, nothing is saved
+     */
+    private List<Purchase> insertAll(List<Purchase> purchases) {
+        purchases.forEach(InMemoryPurchaseDAO::requireUniqueDetailIds);
+        Set<Long> ids = new HashSet<>();
+        for (Purchase purchase : purchases) {
+            if (!ids.add(purchase.getId()) || purchasesById.containsKey(purchase.getId())) {
+                throw new DataIntegrityViolationException("Purchase id already in use");
+            }
+        }
+        purchases.forEach(purchase -> purchase.setVersion(1L));
+        put(purchases);
+        return purchases;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase update(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        return logged(Collections.singleton(purchase.getId()), () -> update(purchase, null));
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase updateIfVersion(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        return logged(Collections.singleton(purchase.getId()), () -> update(purchase, expectedVersion));
+    }
+
+    /**
+     * Patches only the changed fields of the purchase, the stored purchase is never changed in place
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase patch(PurchasePatch patch) throws NotFoundException, PreconditionFailedException, ValidationException {
+        return logged(Collections.singleton(patch.getId()),
+                () -> replace(patch.getId(), patch.getExpectedVersion(), patch::applyTo));
+    }
+
+    /**
+     * Replaces the purchase with the given one, the stored purchase is never changed in place
+     *
+     * @param purchase the purchase model to update
+     * @param expectedVersion the version the purchase must have, null to update any version
+     * @return purchase saved with the new version
+     */
+    private Purchase update(Purchase purchase, Long expectedVersion) {
+        return replace(purchase.getId(), expectedVersion, current -> purchase);
+    }
+
+    /**
+     * Replaces the stored purchase with the one built from it, with the next version, called with the id locked
+     *
+     * @param id the purchase id
+     * @param expectedVersion the version the purchase must have, null to replace any version
+     * @param replacement builds the new purchase from the stored one
+     * @return purchase saved with the new version
+     */
+    private Purchase replace(Long id, Long expectedVersion, Function<Purchase, Purchase> replacement) {
+        Purchase current = purchasesById.get(id);
+        if (current == null) {
+            throw new NotFoundException("Purchase " + id + " not found");
+        }
+        if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+            throw new PreconditionFailedException("Purchase " + id + " version is " + current.getVersion() + ", expected " + expectedVersion);
+        }
+        Purchase purchase = replacement.apply(current);
+        requireUniqueDetailIds(purchase);
+        purchase.setVersion(current.getVersion() + 1);
+        put(Collections.singletonList(purchase));
+        return purchase;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public int removeExpired(Collection<Long> ids, long now) {
+        return logged(ids, () -> remove(ids, now));
+    }
+
+    /**
+     * Removes each purchase still expired at the given time, called with the ids locked
+     *
+     * @param ids the purchase ids due
+     * @param now current time in milliseconds
+     * @return number of purchases removed
+     */
+    private int remove(Collection<Long> ids, long now) {
+        List<Long> expired = ids.stream()
+                .distinct()
+                .filter(id -> {
+                    Purchase current = purchasesById.get(id);
+                    return current != null && current.getExpires().getTime() < now; // not pushed out meanwhile
+                })
+                .collect(Collectors.toList());
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        if (journal != null) {
+            journal.remove(expired);
+        }
+        for (Long id : expired) {
+            purchasesById.remove(id);
+            expiryIndex.remove(id);
+        }
+        return expired.size();
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean exists(Long id) {
+        return purchasesById.containsKey(id);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return ids.stream()
+                .filter(purchasesById::containsKey)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Rejects the detail ids repeated in the purchase, as the primary key of the detail table does
+     *
+     * @param purchase the purchase to save
+     * @throws ValidationException if a detail id is repeated
+     */
+    private static void requireUniqueDetailIds(Purchase purchase) {
+        if (purchase.getPurchaseDetails() != null && purchase.getPurchaseDetails().stream()
+                .map(PurchaseDetail::getId)
+                .distinct()
+                .count() < purchase.getPurchaseDetails().size()) {
+            throw PurchasePatch.invalid("purchaseDetails", "PurchaseDetail id is repeated");
+        }
+    }
+
+    /**
+     * Adds or moves the purchase in the expiration date index
+     *
+     * @param purchase the purchase to index
+     */
+    private void index(Purchase purchase) {
+        expiryIndex.put(purchase);
+    }
+
+    /**
+     * Runs the write with the stripes of its ids locked, in the order of the stripes, within the journal if any
+     *
+     * @param ids the purchase ids written
+     * @param write the write of the store
+     * @return the result of the write
+     */
+    private <T> T logged(Collection<Long> ids, Supplier<T> write) {
+        int[] stripes = ids.stream().mapToInt(InMemoryPurchaseDAO::stripe).distinct().sorted().toArray();
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+        try {
+            return journal != null ? journal.write(write) : write.get();
+        } finally {
+            for (int stripe : stripes) {
+                locks[stripe].unlock();
+            }
+        }
+    }
+
+    /**
+     * Appends the purchases to the journal, if any, and then stores them, called with their ids locked
+     *
+     * @param purchases the purchases saved
+     */
+    private void put(List<Purchase> purchases) {
+        if (purchases.isEmpty()) {
+            return;
+        }
+        if (journal != null) {
+            journal.put(purchases); // nothing is stored if the journal fails
+        }
+        for (Purchase purchase : purchases) {
+            purchasesById.put(purchase.getId(), purchase);
+            index(purchase);
+        }
+    }
+
+    private void initLocks() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            locks[stripe] = new ReentrantLock();
+        }
+    }
+
+    private static int stripe(Long id) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+}
@@ -0,0 +1,568 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ValidationException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * {@code JdbcPurchaseDAO} is the JDBC implementation of the IPurchaseDAO
+ * The purchase details are always loaded for the whole list of purchases in one query,
+ * in the same read only repeatable read transaction as the purchases, so a purchase is never read
+ * with the details of another version
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class JdbcPurchaseDAO implements IPurchaseDAO {
+
+    private static final String STREAM_VALID_PURCHASES = "SELECT p.id, p.product_type, p.expires, p.version, " +
+            "d.id AS detail_id, d.description, d.quantity, d.item_value " +
+            "FROM purchase p LEFT JOIN purchase_detail d ON d.purchase_id = p.id " +
+            "WHERE p.expires >= ? ORDER BY p.expires, p.id, d.id";
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final String SELECT_PURCHASES = "SELECT id, product_type, expires, version FROM purchase";
+    private static final String SELECT_DETAILS = "SELECT d.purchase_id, d.id, d.description, d.quantity, d.item_value FROM purchase_detail d";
+    private static final String INSERT_PURCHASE = "INSERT INTO purchase (id, product_type, expires, version) VALUES (:id, :productType, :expires, 1)";
+    private static final String INSERT_DETAIL = "INSERT INTO purchase_detail (purchase_id, id, description, quantity, item_value) " +
+            "VALUES (:purchaseId, :id, :description, :quantity, :value)";
+
+    private static final RowMapper<Purchase> PURCHASE_ROW_MAPPER = (rs, rowNum) -> Purchase.builder()
+            .id(rs.getLong("id"))
+            .productType(rs.getString("product_type"))
+            .expires(new Date(rs.getTimestamp("expires").getTime()))
+            .version(rs.getLong("version"))
+            .build();
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readTransactionTemplate;
+
+    public JdbcPurchaseDAO(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.readTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.readTransactionTemplate.setReadOnly(true);
+        this.readTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getAll() {
+        return read(status -> {
+            List<Purchase> purchases = jdbcTemplate.query(SELECT_PURCHASES + " ORDER BY id", PURCHASE_ROW_MAPPER);
+            return withDetails(purchases, jdbcTemplate.query(SELECT_DETAILS, DetailRow.MAPPER));
+        });
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getPurchasesDetailByPurchasesIds(Long... ids) {
+        if (ids == null || ids.length == 0) {
+            return Lists.newArrayList();
+        }
+        return getPurchasesDetailByPurchasesIds(Arrays.asList(ids));
+    }
+
+    private List<Purchase> getPurchasesDetailByPurchasesIds(List<Long> ids) {
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        return read(status -> {
+            List<Purchase> purchases = jdbcTemplate.query(SELECT_PURCHASES + " WHERE id IN (:ids) ORDER BY expires, id", params, PURCHASE_ROW_MAPPER);
+            return withDetails(purchases, jdbcTemplate.query(SELECT_DETAILS + " WHERE d.purchase_id IN (:ids)", params, DetailRow.MAPPER));
+        });
+    }
+
+    /**
+     * Reads the purchases and the details with the single ordered query of the stream
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetail(long now) {
+        List<Purchase> purchases = Lists.newArrayList();
+        streamValidPurchasesDetail(now, purchases::add);
+        return purchases;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> getValidPurchasesDetailPage(long now, PurchaseCursor after, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource("now", new Timestamp(now)).addValue("limit", limit);
+        String afterCondition = "";
+        if (after != null) { // seek with the (expires, id) index instead of an offset
+            afterCondition = " AND (expires > :afterExpires OR (expires = :afterExpires AND id > :afterId))";
+            params.addValue("afterExpires", new Timestamp(after.getExpires())).addValue("afterId", after.getId());
+        }
+
+        String query = SELECT_PURCHASES + " WHERE expires >= :now" + afterCondition + " ORDER BY expires, id LIMIT :limit";
+        return read(status -> {
+            List<Purchase> purchases = jdbcTemplate.query(query, params, PURCHASE_ROW_MAPPER);
+            if (purchases.isEmpty()) {
+                return purchases;
+            }
+            params.addValue("ids", purchases.stream().map(Purchase::getId).collect(Collectors.toList()));
+            return withDetails(purchases, jdbcTemplate.query(SELECT_DETAILS + " WHERE d.purchase_id IN (:ids)", params, DetailRow.MAPPER));
+        });
+    }
+
+    /**
+     * Reads the purchases and the details with a single ordered query and hands each purchase
+     * to the consumer when all its detail rows were read
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public void streamValidPurchasesDetail(long now, Consumer<Purchase> consumer) {
+        PurchaseRowAssembler assembler = new PurchaseRowAssembler(consumer);
+        jdbcTemplate.getJdbcOperations().query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(STREAM_VALID_PURCHASES);
+            statement.setFetchSize(STREAM_FETCH_SIZE); // the driver doesn't hold the whole result set in memory
+            statement.setTimestamp(1, new Timestamp(now));
+            return statement;
+        }, assembler);
+        assembler.flush();
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase findById(Long id) throws NotFoundException {
+        MapSqlParameterSource params = new MapSqlParameterSource("id", id);
+        return read(status -> {
+            List<Purchase> purchases = jdbcTemplate.query(SELECT_PURCHASES + " WHERE id = :id", params, PURCHASE_ROW_MAPPER);
+            if (purchases.isEmpty()) {
+                return null;
+            }
+            return withDetails(purchases, jdbcTemplate.query(SELECT_DETAILS + " WHERE d.purchase_id = :id", params, DetailRow.MAPPER)).get(0);
+        });
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase save(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        if (!insertIfAbsent(purchase)) {
+            throw new DataIntegrityViolationException("Purchase id already in use");
+        }
+        return purchase;
+    }
+
+    /**
+     * Relies on the primary key of the purchase table, the insert fails with a duplicate key
+     * if the id is in use and nothing is written, a duplicate key of the details is a repeated detail id
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean insertIfAbsent(Purchase purchase) throws ValidationException {
+        try {
+            Boolean inserted = transactionTemplate.execute(status -> {
+                try {
+                    jdbcTemplate.update(INSERT_PURCHASE, purchaseParams(purchase));
+                } catch (DuplicateKeyException e) {
+                    return false; // id in use
+                }
+                insertDetails(purchase);
+                return true;
+            });
+            if (!inserted) {
+                return false;
+            }
+        } catch (DuplicateKeyException e) {
+            throw repeatedDetailId();
+        }
+        purchase.setVersion(1L);
+        return true;
+    }
+
+    /**
+     * Inserts all the purchases in one batch and all the details in another
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public List<Purchase> saveAll(List<Purchase> purchases) throws DataIntegrityViolationException, ValidationException {
+        if (purchases.isEmpty()) {
+            return purchases;
+        }
+
+        try {
+            transactionTemplate.execute(status -> {
+                SqlParameterSource[] batch = purchases.stream()
+                        .map(JdbcPurchaseDAO::purchaseParams)
+                        .toArray(size -> new SqlParameterSource[size]);
+                try {
+                    jdbcTemplate.batchUpdate(INSERT_PURCHASE, batch);
+                } catch (DuplicateKeyException e) {
+                    throw new DataIntegrityViolationException("Purchase id already in use");
+                }
+                insertDetails(purchases);
+                return null;
+            });
+        } catch (DuplicateKeyException e) {
+            throw repeatedDetailId();
+        }
+        purchases.forEach(purchase -> purchase.setVersion(1L));
+        return purchases;
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase update(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
+        return update(purchase, null);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase updateIfVersion(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        return update(purchase, expectedVersion);
+    }
+
+    /**
+     * Updates the purchase and replaces its details in one transaction,
+     * the version is checked and incremented by the update statement itself
+     *
+     * @param purchase the purchase model to update
+     * @param expectedVersion the version the purchase must have, null to update any version
+     * @return purchase saved with the new version
+     */
+    private Purchase update(Purchase purchase, Long expectedVersion) {
+        try {
+            Long version = transactionTemplate.execute(status -> {
+                MapSqlParameterSource params = purchaseParams(purchase).addValue("version", expectedVersion);
+                int updated = jdbcTemplate.update("UPDATE purchase SET product_type = :productType, expires = :expires, version = version + 1 " +
+                        "WHERE id = :id" + (expectedVersion != null ? " AND version = :version" : ""), params);
+                if (updated == 0) {
+                    throw notUpdated(purchase.getId(), expectedVersion);
+                }
+                jdbcTemplate.update("DELETE FROM purchase_detail WHERE purchase_id = :id", params);
+                insertDetails(purchase);
+                return expectedVersion != null ? expectedVersion + 1
+                        : jdbcTemplate.queryForObject("SELECT version FROM purchase WHERE id = :id", params, Long.class);
+            });
+            purchase.setVersion(version);
+        } catch (DuplicateKeyException e) {
+            throw repeatedDetailId();
+        }
+        return purchase;
+    }
+
+    /**
+     * Updates only the changed columns of the purchase and writes only the changed detail rows in one transaction,
+     * a detail change updates the row and inserts it when it doesn't exist yet
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Purchase patch(PurchasePatch patch) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        try {
+            return transactionTemplate.execute(status -> {
+                MapSqlParameterSource params = new MapSqlParameterSource("id", patch.getId())
+                        .addValue("productType", patch.getProductType())
+                        .addValue("expires", patch.getExpires() != null ? new Timestamp(patch.getExpires().getTime()) : null)
+                        .addValue("version", patch.getExpectedVersion());
+                int updated = jdbcTemplate.update("UPDATE purchase SET " +
+                        (patch.getProductType() != null ? "product_type = :productType, " : "") +
+                        (patch.getExpires() != null ? "expires = :expires, " : "") +
+                        "version = version + 1 WHERE id = :id" + (patch.getExpectedVersion() != null ? " AND version = :version" : ""), params);
+                if (updated == 0) {
+                    throw notUpdated(patch.getId(), patch.getExpectedVersion());
+                }
+
+                if (patch.getPurchaseDetails() != null) {
+                    if (patch.getPurchaseDetails().isEmpty()) {
+                        throw PurchasePatch.invalid("purchaseDetails", "PurchaseDetails is empty");
+                    }
+                    jdbcTemplate.update("DELETE FROM purchase_detail WHERE purchase_id = :id", params);
+                    insertDetails(Purchase.builder().id(patch.getId()).purchaseDetails(patch.getPurchaseDetails()).build());
+                } else if (patch.hasDetailChanges()) {
+                    patchDetails(patch.getId(), patch.getDetailChanges());
+                }
+                return findById(patch.getId());
+            });
+        } catch (DuplicateKeyException e) {
+            throw repeatedDetailId();
+        }
+    }
+
+    /**
+     * Writes only the changed detail rows, the removed ones are deleted, the changed ones are updated
+     * column by column and the ones that didn't exist are inserted in a second batch
+     *
+     * @param purchaseId the purchase id
+     * @param detailChanges changed fields by detail id, null to remove the detail
+     */
+    private void patchDetails(Long purchaseId, Map<Long, PurchaseDetail> detailChanges) {
+        List<SqlParameterSource> removals = Lists.newArrayList();
+        List<Long> changedIds = Lists.newArrayList();
+        List<SqlParameterSource> changes = Lists.newArrayList();
+        detailChanges.forEach((detailId, change) -> {
+            if (change == null) {
+                removals.add(new MapSqlParameterSource("purchaseId", purchaseId).addValue("id", detailId));
+            } else {
+                changedIds.add(detailId);
+                changes.add(detailParams(purchaseId, detailId, change));
+            }
+        });
+
+        if (!removals.isEmpty()) {
+            jdbcTemplate.batchUpdate("DELETE FROM purchase_detail WHERE purchase_id = :purchaseId AND id = :id",
+                    removals.toArray(new SqlParameterSource[0]));
+        }
+        if (!changes.isEmpty()) {
+            int[] updated = jdbcTemplate.batchUpdate("UPDATE purchase_detail SET description = COALESCE(:description, description), " +
+                            "quantity = COALESCE(:quantity, quantity), item_value = COALESCE(:value, item_value) " +
+                            "WHERE purchase_id = :purchaseId AND id = :id",
+                    changes.toArray(new SqlParameterSource[0]));
+            List<SqlParameterSource> inserts = Lists.newArrayList();
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] == 0) {
+                    Long detailId = changedIds.get(i);
+                    inserts.add(detailParams(purchaseId, detailId, PurchasePatch.mergeDetail(detailId, null, detailChanges.get(detailId))));
+                }
+            }
+            if (!inserts.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_DETAIL, inserts.toArray(new SqlParameterSource[0]));
+            }
+        }
+        if (!removals.isEmpty() && jdbcTemplate.queryForObject("SELECT COUNT(*) FROM purchase_detail WHERE purchase_id = :purchaseId",
+                new MapSqlParameterSource("purchaseId", purchaseId), Integer.class) == 0) {
+            throw PurchasePatch.invalid("purchaseDetails", "PurchaseDetails is empty");
+        }
+    }
+
+    /**
+     * Gets the reason a purchase wasn't updated, only read when the update didn't match any row
+     *
+     * @param id the purchase id
+     * @param expectedVersion the version the purchase must have, null for any version
+     * @return NotFoundException or PreconditionFailedException
+     */
+    private RuntimeException notUpdated(Long id, Long expectedVersion) {
+        List<Long> versions = jdbcTemplate.queryForList("SELECT version FROM purchase WHERE id = :id", new MapSqlParameterSource("id", id), Long.class);
+        if (versions.isEmpty()) {
+            return new NotFoundException("Purchase " + id + " not found");
+        }
+        return new PreconditionFailedException("Purchase " + id + " version is " + versions.get(0) + ", expected " + expectedVersion);
+    }
+
+    /**
+     * Deletes the details and the purchases in one transaction, both with the expiration date condition
+     *
+     * @see IPurchaseDAO
+     */
+    @Override
+    public int removeExpired(Collection<Long> ids, long now) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids).addValue("now", new Timestamp(now));
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.update("DELETE FROM purchase_detail WHERE purchase_id IN " +
+                    "(SELECT id FROM purchase WHERE id IN (:ids) AND expires < :now)", params);
+            return jdbcTemplate.update("DELETE FROM purchase WHERE id IN (:ids) AND expires < :now", params);
+        });
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public boolean exists(Long id) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM purchase WHERE id = :id", new MapSqlParameterSource("id", id), Integer.class) > 0;
+    }
+
+    /**
+     * Inserts the detail list of the purchase in a single batch
+     *
+     * @param purchase the purchase with the details to insert
+     */
+    private void insertDetails(Purchase purchase) {
+        insertDetails(Collections.singletonList(purchase));
+    }
+
+    /**
+     * Inserts the detail lists of all the purchases in a single batch
+     *
+     * @param purchases the purchases with the details to insert
+     */
+    private void insertDetails(List<Purchase> purchases) {
+        SqlParameterSource[] batch = purchases.stream()
+                .filter(purchase -> purchase.getPurchaseDetails() != null)
+                .flatMap(purchase -> purchase.getPurchaseDetails().stream()
+                        .map(detail -> detailParams(purchase.getId(), detail.getId(), detail)))
+                .toArray(size -> new SqlParameterSource[size]);
+        if (batch.length == 0) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_DETAIL, batch);
+    }
+
+    /**
+     * @see IPurchaseDAO
+     */
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Sets.newHashSet();
+        }
+        return Sets.newHashSet(jdbcTemplate.queryForList("SELECT id FROM purchase WHERE id IN (:ids)", new MapSqlParameterSource("ids", ids), Long.class));
+    }
+
+    private static MapSqlParameterSource detailParams(Long purchaseId, Long detailId, PurchaseDetail detail) {
+        return new MapSqlParameterSource()
+                .addValue("purchaseId", purchaseId)
+                .addValue("id", detailId)
+                .addValue("description", detail.getDescription())
+                .addValue("quantity", detail.getQuantity())
+                .addValue("value", detail.getValue());
+    }
+
+    /**
+     * Only the details have a composite key that the purchase id doesn't cover,
+     * their duplicate key is a detail id repeated in the same purchase
+     *
+     * @return validation exception of the details
+     */
+    private static ValidationException repeatedDetailId() {
+        return PurchasePatch.invalid("purchaseDetails", "PurchaseDetail id is repeated");
+    }
+
+    private static MapSqlParameterSource purchaseParams(Purchase purchase) {
+        return new MapSqlParameterSource()
+                .addValue("id", purchase.getId())
+                .addValue("productType", purchase.getProductType())
+                .addValue("expires", new Timestamp(purchase.getExpires().getTime()));
+    }
+
+    /**
+     * Runs the queries of a read in one read only repeatable read transaction
+     *
+     * @param read the queries of the purchases and of their details
+     * @return the result of the read
+     */
+    private <T> T read(TransactionCallback<T> read) {
+        return readTransactionTemplate.execute(read);
+    }
+
+    /**
+     * Sets the purchase details loaded in one query to the given purchases
+     *
+     * @param purchases purchases without details
+     * @param detailRows detail rows of the purchases
+     * @return purchases with details
+     */
+    private static List<Purchase> withDetails(List<Purchase> purchases, Collection<DetailRow> detailRows) {
+        Map<Long, List<PurchaseDetail>> detailsByPurchaseId = Maps.newHashMapWithExpectedSize(purchases.size());
+        detailRows.forEach(row -> detailsByPurchaseId.computeIfAbsent(row.purchaseId, id -> Lists.newArrayList()).add(row.detail));
+        purchases.forEach(purchase -> purchase.setPurchaseDetails(detailsByPurchaseId.getOrDefault(purchase.getId(), Lists.newArrayList())));
+        return purchases;
+    }
+
+    /**
+     * {@code PurchaseRowAssembler} groups the consecutive rows of a purchase joined with the details
+     */
+    private static class PurchaseRowAssembler implements RowCallbackHandler {
+
+        private final Consumer<Purchase> consumer;
+        private Purchase current;
+
+        PurchaseRowAssembler(Consumer<Purchase> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long id = rs.getLong("id");
+            if (current == null || current.getId() != id) {
+                flush();
+                current = PURCHASE_ROW_MAPPER.mapRow(rs, 0);
+                current.setPurchaseDetails(Lists.newArrayList());
+            }
+
+            long detailId = rs.getLong("detail_id");
+            if (!rs.wasNull()) {
+                current.getPurchaseDetails().add(PurchaseDetail.builder()
+                        .id(detailId)
+                        .description(rs.getString("description"))
+                        .quantity(rs.getInt("quantity"))
+                        .value(rs.getDouble("item_value"))
+                        .build());
+            }
+        }
+
+        void flush() {
+            if (current != null) {
+                consumer.accept(current);
+                current = null;
+            }
+        }
+
+    }
+
+    /**
+     * {@code DetailRow} is a purchase detail row with the id of the purchase it belongs to
+     */
+    private static class DetailRow {
+
+        static final RowMapper<DetailRow> MAPPER = (rs, rowNum) -> new DetailRow(rs.getLong("purchase_id"), PurchaseDetail.builder()
+                .id(rs.getLong("id"))
+                .description(rs.getString("description"))
+                .quantity(rs.getInt("quantity"))
+                .value(rs.getDouble("item_value"))
+                .build());
+
+        final long purchaseId;
+        final PurchaseDetail detail;
+
+        DetailRow(long purchaseId, PurchaseDetail detail) {
+            this.purchaseId = purchaseId;
+            this.detail = detail;
+        }
+
+    }
+
+}
@@ -0,0 +1,367 @@
+package pt.pmribeiro.webstore.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.pmribeiro.webstore.dto.Purchase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * {@code PurchaseArchive} keeps the expired purchases off the heap in append-only segment files mapped in memory
+ * Each append writes the purchases sorted by id in blocks of at most blockSize records,
+ * only the id range and the offset of each block are kept on the heap, a sparse index
+ *
+ * The sparse index is sorted by the first id of the blocks, with the greatest last id of the blocks up to each one,
+ * a purchase is found by a binary search of the last block starting at or before its id, walking back only the blocks
+ * whose range may still hold the id, and the records of a block only until a greater id
+ * When several blocks hold the id the one appended last wins
+ *
+ * The records of a block are covered by a CRC, the records of an append are forced to the disk before the length
+ * of its blocks is written and forced, so a block is only visible once complete and a block partially written
+ * by a crash is ignored when the segments are read again on startup
+ *
+ * Appends are serialized, reads run concurrently with them on an immutable copy of the index
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class PurchaseArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(PurchaseArchive.class);
+
+    private static final String SEGMENT_PATTERN = "purchases-*.segment";
+    private static final int CRC_OFFSET = Integer.BYTES;
+    private static final int CHECKED_OFFSET = CRC_OFFSET + Integer.BYTES; // start of the bytes covered by the CRC
+    private static final int BLOCK_HEADER = CHECKED_OFFSET + Integer.BYTES + Long.BYTES + Long.BYTES; // length, crc, count, first and last id
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int blockSize;
+    private final List<Segment> segments = new ArrayList<>(); // guarded by this
+    private volatile Index index = new Index(new Block[0]);
+    private int sequence; // order of the next block, guarded by this
+
+    /**
+     * Opens the archive, reading the blocks of the segments already in the directory
+     *
+     * @param directory directory of the segment files, created if missing
+     * @param segmentSize size in bytes of each segment file
+     * @param blockSize max number of purchases by block, the purchases by index entry
+     */
+    public PurchaseArchive(Path directory, int segmentSize, int blockSize) {
+        if (segmentSize <= BLOCK_HEADER || blockSize < 1) {
+            throw new IllegalArgumentException("segmentSize must be greater than " + BLOCK_HEADER + " and blockSize at least 1");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.blockSize = blockSize;
+        List<Block> blocks = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PATTERN)) {
+                stream.forEach(files::add);
+            }
+            files.sort(Comparator.naturalOrder());
+            for (Path file : files) {
+                segments.add(recover(file, blocks));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index = index.with(blocks);
+        log.info("Opened purchase archive {} with {} segments and {} blocks", directory, segments.size(), blocks.size());
+    }
+
+    /**
+     * Appends the purchases, each one encoded with {@link PurchaseCodec}
+     *
+     * @param purchases the purchases to archive
+     */
+    public synchronized void append(Collection<Purchase> purchases) {
+        if (purchases.isEmpty()) {
+            return;
+        }
+        List<Purchase> sorted = new ArrayList<>(purchases);
+        sorted.sort(Comparator.comparing(Purchase::getId));
+
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        int lastPosition = last != null ? last.position : 0;
+        int segmentCount = segments.size();
+        List<Block> blocks = new ArrayList<>();
+        try {
+            for (int from = 0; from < sorted.size(); from += blockSize) {
+                blocks.add(writeBlock(sorted.subList(from, Math.min(from + blockSize, sorted.size()))));
+            }
+
+            // the records are on the disk before any block is visible
+            Set<Segment> written = new LinkedHashSet<>();
+            blocks.forEach(block -> written.add(block.segment));
+            written.forEach(segment -> segment.buffer.force());
+            blocks.forEach(block -> block.segment.buffer.putInt(block.offset, block.length));
+            written.forEach(segment -> segment.buffer.force());
+        } catch (RuntimeException e) {
+            if (last != null) {
+                last.position = lastPosition; // the blocks not completed are written again by the next append
+            }
+            segments.subList(segmentCount, segments.size()).forEach(segment -> segment.position = 0);
+            throw e;
+        }
+        index = index.with(blocks);
+    }
+
+    /**
+     * Finds the last archived version of a purchase
+     *
+     * @param id the purchase id
+     * @return the archived purchase if any
+     */
+    public Optional<Purchase> find(long id) {
+        Index index = this.index;
+        Block found = null;
+        int foundPosition = -1;
+        for (int i = index.lastStartingAtOrBefore(id); i >= 0 && index.maxLastIds[i] >= id; i--) {
+            Block block = index.blocks[i];
+            if (block.lastId < id || (found != null && block.sequence < found.sequence)) {
+                continue;
+            }
+            int position = block.positionOf(id);
+            if (position >= 0) {
+                found = block;
+                foundPosition = position;
+            }
+        }
+        if (found == null) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer = found.segment.buffer.duplicate();
+        buffer.position(foundPosition);
+        return Optional.of(PurchaseCodec.decode(buffer));
+    }
+
+    /**
+     * @return number of purchases archived
+     */
+    public long size() {
+        return Arrays.stream(index.blocks).mapToLong(block -> block.count).sum();
+    }
+
+    /**
+     * Forces the segments to the disk
+     */
+    public synchronized void close() {
+        segments.forEach(segment -> segment.buffer.force());
+    }
+
+    /**
+     * Writes the records and the header of a block, all but its length
+     *
+     * @param purchases the purchases of the block sorted by id
+     * @return the block written
+     */
+    private Block writeBlock(List<Purchase> purchases) {
+        List<byte[]> records = new ArrayList<>(purchases.size());
+        int length = BLOCK_HEADER;
+        for (Purchase purchase : purchases) {
+            byte[] record = PurchaseCodec.encode(purchase);
+            records.add(record);
+            length += Integer.BYTES + record.length;
+        }
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.buffer.capacity() - segment.position < length) {
+            segment = createSegment(Math.max(segmentSize, length));
+        }
+
+        int offset = segment.position;
+        long firstId = purchases.get(0).getId();
+        long lastId = purchases.get(purchases.size() - 1).getId();
+        ByteBuffer out = segment.buffer.duplicate();
+        out.putInt(offset, 0); // not visible until its records are on the disk
+        out.position(offset + CHECKED_OFFSET);
+        out.putInt(records.size());
+        out.putLong(firstId);
+        out.putLong(lastId);
+        for (byte[] record : records) {
+            out.putInt(record.length).put(record);
+        }
+        segment.buffer.putInt(offset + CRC_OFFSET, crc(segment.buffer, offset, length));
+
+        segment.position = offset + length;
+        return new Block(segment, offset, length, records.size(), firstId, lastId, sequence++);
+    }
+
+    private Segment createSegment(int size) {
+        Path file = directory.resolve(String.format("purchases-%08d.segment", segments.size() + 1));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Segment segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Segment recover(Path file, List<Block> blocks) throws IOException {
+        Segment segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + BLOCK_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length < BLOCK_HEADER || offset + length > buffer.capacity()) {
+                break; // end of the segment or block not completed
+            }
+            if (buffer.getInt(offset + CRC_OFFSET) != crc(buffer, offset, length)) {
+                log.warn("Ignoring the corrupted block at {} of the purchase archive segment {}", offset, file);
+                break;
+            }
+            blocks.add(new Block(segment, offset, length, buffer.getInt(offset + CHECKED_OFFSET),
+                    buffer.getLong(offset + CHECKED_OFFSET + Integer.BYTES),
+                    buffer.getLong(offset + CHECKED_OFFSET + Integer.BYTES + Long.BYTES), sequence++));
+            offset += length;
+        }
+        segment.position = offset;
+        return segment;
+    }
+
+    /**
+     * @return the CRC of the block at the offset, from its count to the end of its records
+     */
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer checked = buffer.duplicate();
+        checked.position(offset + CHECKED_OFFSET).limit(offset + length);
+        CRC32 crc = new CRC32();
+        crc.update(checked);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Segment file mapped in memory, the position of the mapped buffer is never moved
+     */
+    private static class Segment {
+
+        private final MappedByteBuffer buffer;
+        private int position; // end of the last block, guarded by the archive
+
+        private Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+    }
+
+    /**
+     * Sparse index entry, the id range and the offset of a block
+     */
+    private static class Block {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final int count;
+        private final long firstId;
+        private final long lastId;
+        private final int sequence;
+
+        private Block(Segment segment, int offset, int length, int count, long firstId, long lastId, int sequence) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return the position of the record of the id in the segment, -1 if not in the block
+         */
+        private int positionOf(long id) {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset + BLOCK_HEADER);
+            for (int i = 0; i < count; i++) {
+                int recordLength = buffer.getInt();
+                long recordId = PurchaseCodec.peekId(buffer);
+                if (recordId == id) {
+                    return buffer.position();
+                }
+                if (recordId > id) {
+                    return -1; // sorted by id
+                }
+                buffer.position(buffer.position() + recordLength);
+            }
+            return -1;
+        }
+
+    }
+
+    /**
+     * Immutable sparse index, the blocks sorted by first id with the greatest last id up to each block
+     */
+    private static class Index {
+
+        private final Block[] blocks;
+        private final long[] firstIds;
+        private final long[] maxLastIds;
+
+        private Index(Block[] blocks) {
+            this.blocks = blocks;
+            this.firstIds = new long[blocks.length];
+            this.maxLastIds = new long[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                firstIds[i] = blocks[i].firstId;
+                maxLastIds[i] = Math.max(blocks[i].lastId, i > 0 ? maxLastIds[i - 1] : Long.MIN_VALUE);
+            }
+        }
+
+        /**
+         * @return a new index with the given blocks added
+         */
+        private Index with(List<Block> added) {
+            Block[] merged = Arrays.copyOf(blocks, blocks.length + added.size());
+            for (int i = 0; i < added.size(); i++) {
+                merged[blocks.length + i] = added.get(i);
+            }
+            Arrays.sort(merged, Comparator.comparingLong((Block block) -> block.firstId).thenComparingInt(block -> block.sequence));
+            return new Index(merged);
+        }
+
+        /**
+         * @return position of the last block with a first id smaller or equal to the id, -1 if none
+         */
+        private int lastStartingAtOrBefore(long id) {
+            int low = 0;
+            int high = firstIds.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (firstIds[middle] <= id) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+package pt.pmribeiro.webstore.dao;
+
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@code PurchaseCodec} writes a purchase with its details in a compact binary record
+ * The record starts with the purchase id, so it can be compared without decoding the whole record,
+ * the strings are written as UTF-8 and the missing values as a single marker
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public final class PurchaseCodec {
+
+    private static final byte ABSENT = 0;
+    private static final byte PRESENT = 1;
+
+    private PurchaseCodec() {
+    }
+
+    /**
+     * @param purchase the purchase to encode, with id
+     * @return the record of the purchase
+     */
+    public static byte[] encode(Purchase purchase) {
+        byte[] productType = bytes(purchase.getProductType());
+        List<PurchaseDetail> details = purchase.getPurchaseDetails() != null ? purchase.getPurchaseDetails() : new ArrayList<>();
+        List<byte[]> descriptions = new ArrayList<>(details.size());
+        int size = Long.BYTES + stringSize(productType) + 2 * (1 + Long.BYTES) + Integer.BYTES;
+        for (PurchaseDetail detail : details) {
+            byte[] description = bytes(detail.getDescription());
+            descriptions.add(description);
+            size += 1 + Long.BYTES + stringSize(description) + 1 + Integer.BYTES + 1 + Double.BYTES;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(purchase.getId());
+        putString(buffer, productType);
+        putLong(buffer, purchase.getExpires() != null ? purchase.getExpires().getTime() : null);
+        putLong(buffer, purchase.getVersion());
+        buffer.putInt(details.size());
+        for (int i = 0; i < details.size(); i++) {
+            PurchaseDetail detail = details.get(i);
+            putLong(buffer, detail.getId());
+            putString(buffer, descriptions.get(i));
+            if (detail.getQuantity() != null) {
+                buffer.put(PRESENT).putInt(detail.getQuantity());
+            } else {
+                buffer.put(ABSENT);
+            }
+            if (detail.getValue() != null) {
+                buffer.put(PRESENT).putDouble(detail.getValue());
+            } else {
+                buffer.put(ABSENT);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads the purchase id of the record at the buffer position, without moving it
+     *
+     * @param buffer the buffer positioned at the record
+     * @return the purchase id
+     */
+    public static long peekId(ByteBuffer buffer) {
+        return buffer.getLong(buffer.position());
+    }
+
+    /**
+     * Reads the record at the buffer position, moving it to the end of the record
+     *
+     * @param buffer the buffer positioned at the record
+     * @return the decoded purchase
+     */
+    public static Purchase decode(ByteBuffer buffer) {
+        Purchase purchase = new Purchase();
+        purchase.setId(buffer.getLong());
+        purchase.setProductType(getString(buffer));
+        Long expires = getLong(buffer);
+        purchase.setExpires(expires != null ? new Date(expires) : null);
+        purchase.setVersion(getLong(buffer));
+        int count = buffer.getInt();
+        List<PurchaseDetail> details = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PurchaseDetail detail = new PurchaseDetail();
+            detail.setId(getLong(buffer));
+            detail.setDescription(getString(buffer));
+            detail.setQuantity(buffer.get() == PRESENT ? buffer.getInt() : null);
+            detail.setValue(buffer.get() == PRESENT ? buffer.getDouble() : null);
+            details.add(detail);
+        }
+        purchase.setPurchaseDetails(details);
+        return purchase;
+    }
+
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int stringSize(byte[] value) {
+        return Integer.BYTES + (value != null ? value.length : 0);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length).put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void putLong(ByteBuffer buffer, Long value) {
+        if (value != null) {
+            buffer.put(PRESENT).putLong(value);
+        } else {
+            buffer.put(ABSENT);
+        }
+    }
+
+    private static Long getLong(ByteBuffer buffer) {
+        return buffer.get() == PRESENT ? buffer.getLong() : null;
+    }
+
+}
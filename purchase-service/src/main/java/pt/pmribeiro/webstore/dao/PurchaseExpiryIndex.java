@@ -0,0 +1,123 @@
+package pt.pmribeiro.webstore.dao;
+
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * {@code PurchaseExpiryIndex} keeps the stored purchases ordered by expiration date
+ * so the valid purchases can be listed with a range scan over the live entries only
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class PurchaseExpiryIndex {
+
+    private final ConcurrentNavigableMap<ExpiryKey, Purchase> purchasesByExpiry = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Long, ExpiryKey> keysById = new ConcurrentHashMap<>();
+
+    /**
+     * Adds or moves the given purchase in the index
+     *
+     * @param purchase the purchase to index
+     */
+    public void put(Purchase purchase) {
+        ExpiryKey key = new ExpiryKey(purchase.getExpires().getTime(), purchase.getId());
+        ExpiryKey previousKey = keysById.put(purchase.getId(), key);
+        purchasesByExpiry.put(key, purchase);
+        if (previousKey != null && !previousKey.equals(key)) {
+            purchasesByExpiry.remove(previousKey); // the expiration date changed, drop the old position
+        }
+    }
+
+    /**
+     * Removes the purchase with the given id from the index
+     *
+     * @param id the purchase id
+     */
+    public void remove(Long id) {
+        ExpiryKey key = keysById.remove(id);
+        if (key != null) {
+            purchasesByExpiry.remove(key);
+        }
+    }
+
+    /**
+     * Gets the purchases valid at the given time ordered by expiration date
+     * Definition: A valid purchase has the expiration date bigger or equals to the given time
+     *
+     * @param now time in milliseconds
+     * @return live view of the valid purchases
+     */
+    public Collection<Purchase> validAt(long now) {
+        return purchasesByExpiry.tailMap(new ExpiryKey(now, Long.MIN_VALUE), true).values();
+    }
+
+    /**
+     * Gets a page of the purchases valid at the given time ordered by expiration date and id
+     *
+     * @param now time in milliseconds
+     * @param after cursor of the last purchase of the previous page, null for the first page
+     * @param limit max number of purchases in the page
+     * @return list with the page of valid purchases
+     */
+    public List<Purchase> validAt(long now, PurchaseCursor after, int limit) {
+        ExpiryKey from = new ExpiryKey(now, Long.MIN_VALUE);
+        boolean inclusive = true;
+        if (after != null) {
+            ExpiryKey afterKey = new ExpiryKey(after.getExpires(), after.getId());
+            if (afterKey.compareTo(from) >= 0) { // seek to the cursor position
+                from = afterKey;
+                inclusive = false;
+            }
+        }
+        return purchasesByExpiry.tailMap(from, inclusive).values().stream()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * {@code ExpiryKey} orders the index by expiration date and then by purchase id
+     */
+    static class ExpiryKey implements Comparable<ExpiryKey> {
+
+        final long expires;
+        final long id;
+
+        ExpiryKey(long expires, long id) {
+            this.expires = expires;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(ExpiryKey other) {
+            int result = Long.compare(expires, other.expires);
+            return result != 0 ? result : Long.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof ExpiryKey)) {
+                return false;
+            }
+            ExpiryKey key = (ExpiryKey) other;
+            return expires == key.expires && id == key.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(expires) + Long.hashCode(id);
+        }
+
+    }
+
+}
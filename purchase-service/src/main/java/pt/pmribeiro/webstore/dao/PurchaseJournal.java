@@ -0,0 +1,502 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.pmribeiro.webstore.dto.Purchase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * {@code PurchaseJournal} makes an in memory purchase store durable with a write-ahead log and periodic snapshots
+ * Each write appends one record with the whole purchases saved, or the removed ids, encoded with {@link PurchaseCodec}
+ * and waits until it's on the disk before the store applies it, so a batch is either fully in the log or not at all
+ * A single writer thread forces all the records queued meanwhile at once (group commit)
+ *
+ * A record that can't be written fails its write only, the log is truncated back to the records before it
+ * If the log can't be truncated the writes fail fast until the next snapshot, which replaces the log,
+ * and the store keeps the state of the writes completed
+ *
+ * A snapshot rolls the log to a new file and then writes all the purchases, the roll waits for the writes in progress
+ * Every write done before the roll is in the snapshot, the ones done after are in the new log,
+ * some of them may be in both but replaying a whole purchase twice gives the same state
+ * On startup the latest snapshot is read and then the logs from its roll, a torn record at the end of a log is ignored
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class PurchaseJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(PurchaseJournal.class);
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int END_OF_SNAPSHOT = -1;
+
+    private final Path directory;
+    private final long snapshotInterval;
+    private final ReadWriteLock rollLock = new ReentrantReadWriteLock(); // writes share it, the roll is exclusive
+    private final Object queueLock = new Object();
+    private final Object fileLock = new Object();
+    private final ExecutorService writer;
+    private final ScheduledExecutorService snapshots;
+
+    // guarded by queueLock
+    private List<Pending> queued = new ArrayList<>();
+    private long appended;
+    private IOException failure; // the log couldn't be truncated after a failed write
+    private long failedLog;
+    private boolean running = true;
+    private boolean stopped;
+
+    // guarded by fileLock
+    private FileChannel channel;
+    private long logNumber;
+
+    private volatile long snapshotAppended; // appended when the last snapshot started
+    private volatile boolean empty; // nothing recovered
+
+    /**
+     * @param directory directory of the log and snapshot files, created if missing
+     * @param snapshotInterval time in milliseconds between snapshots
+     */
+    public PurchaseJournal(Path directory, long snapshotInterval) {
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.writer = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("purchase-journal-writer").setDaemon(true).build());
+        this.snapshots = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("purchase-journal-snapshot").setDaemon(true).build());
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replays the latest snapshot and the logs after it, then opens a new log and starts the snapshots
+     *
+     * @param put receives each purchase saved, in the order of the writes
+     * @param remove receives each purchase id removed, in the order of the writes
+     * @param purchases the purchases of the store, read by each snapshot
+     */
+    public void recover(Consumer<Purchase> put, LongConsumer remove, Supplier<Collection<Purchase>> purchases) {
+        long start = System.currentTimeMillis();
+        TreeMap<Long, Path> snapshotFiles = files("snapshot-*.bin");
+        TreeMap<Long, Path> logFiles = files("log-*.wal");
+        try {
+            long firstLog = 0;
+            int restored = 0;
+            if (!snapshotFiles.isEmpty()) {
+                firstLog = snapshotFiles.lastKey();
+                restored = readSnapshot(snapshotFiles.lastEntry().getValue(), put);
+            }
+            int replayed = 0;
+            for (Path logFile : logFiles.tailMap(firstLog).values()) {
+                replayed += readLog(logFile, put, remove);
+            }
+            synchronized (fileLock) {
+                logNumber = logFiles.isEmpty() ? firstLog : Math.max(firstLog, logFiles.lastKey() + 1);
+                channel = openLog(logNumber);
+            }
+            empty = snapshotFiles.isEmpty() && replayed == 0;
+            log.info("Recovered {} purchases from snapshot and {} log records in {} ms",
+                    restored, replayed, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        writer.submit(this::writeLoop);
+        snapshots.scheduleWithFixedDelay(() -> snapshot(purchases), snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks if the recovery found no snapshot and no log record, the store was never written
+     *
+     * @return true if nothing was recovered
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Runs a write of the store, the log doesn't roll until the write has applied the records it appended
+     *
+     * @param write the write, appending its records with put and remove before applying them
+     * @return the result of the write
+     */
+    public <T> T write(Supplier<T> write) {
+        rollLock.readLock().lock();
+        try {
+            return write.get();
+        } finally {
+            rollLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the saved purchases in one record and waits until it's on the disk,
+     * called by a write while the store holds the ids
+     *
+     * @param purchases the purchases saved
+     * @throws UncheckedIOException if the record isn't written, the store must not apply it
+     */
+    public void put(Collection<Purchase> purchases) {
+        List<byte[]> encoded = new ArrayList<>(purchases.size());
+        int size = 1;
+        for (Purchase purchase : purchases) {
+            byte[] record = PurchaseCodec.encode(purchase);
+            encoded.add(record);
+            size += record.length;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(size).put(PUT);
+        encoded.forEach(payload::put);
+        append(payload.array());
+    }
+
+    /**
+     * Appends the removed purchases in one record and waits until it's on the disk,
+     * called by a write while the store holds the ids
+     *
+     * @param ids the purchase ids removed
+     * @throws UncheckedIOException if the record isn't written, the store must not apply it
+     */
+    public void remove(Collection<Long> ids) {
+        ByteBuffer payload = ByteBuffer.allocate(1 + ids.size() * Long.BYTES).put(REMOVE);
+        ids.forEach(payload::putLong);
+        append(payload.array());
+    }
+
+    /**
+     * Writes a snapshot of the purchases if anything was written since the last one or the log failed,
+     * the logs and snapshots before it are deleted and the writes resume if the log had failed
+     *
+     * @param purchases the purchases of the store
+     */
+    public void snapshot(Supplier<Collection<Purchase>> purchases) {
+        long firstLog;
+        rollLock.writeLock().lock();
+        try {
+            synchronized (queueLock) {
+                if (appended == snapshotAppended && failure == null) {
+                    return;
+                }
+                snapshotAppended = appended;
+            }
+            synchronized (fileLock) {
+                FileChannel previous = channel;
+                channel = openLog(logNumber + 1); // the previous log stays in use if the new one can't be opened
+                firstLog = ++logNumber;
+                previous.close(); // its records were forced by the writer
+            }
+        } catch (IOException e) {
+            log.warn("Unable to roll the purchase log", e);
+            return;
+        } finally {
+            rollLock.writeLock().unlock();
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            int count = writeSnapshot(firstLog, purchases.get());
+            for (Path file : files("snapshot-*.bin").headMap(firstLog).values()) {
+                Files.delete(file);
+            }
+            for (Path file : files("log-*.wal").headMap(firstLog).values()) {
+                Files.delete(file);
+            }
+            log.info("Written snapshot of {} purchases in {} ms", count, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to write the purchase snapshot", e);
+            return;
+        }
+
+        synchronized (queueLock) {
+            if (failure != null && failedLog < firstLog) { // the failed log was replaced by the snapshot
+                failure = null;
+                log.info("Purchase log recovered by the snapshot");
+            }
+        }
+    }
+
+    /**
+     * Stops the snapshots and writes the records still queued
+     */
+    public void close() {
+        snapshots.shutdownNow();
+        synchronized (queueLock) {
+            running = false;
+            queueLock.notifyAll();
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+            synchronized (fileLock) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Unable to close the purchase log", e);
+        }
+    }
+
+    private void append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        Pending pending = new Pending(ByteBuffer.allocate(2 * Integer.BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .array());
+        synchronized (queueLock) {
+            if (failure != null) {
+                throw new UncheckedIOException("Purchase log failed, waiting for the next snapshot", failure);
+            }
+            if (!running) {
+                throw new IllegalStateException("Purchase log closed");
+            }
+            queued.add(pending);
+            appended++;
+            queueLock.notifyAll();
+
+            boolean interrupted = false;
+            while (!pending.written && pending.error == null && !stopped) {
+                try {
+                    queueLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the record may already be on the disk, the write must know
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (pending.error != null) {
+                throw new UncheckedIOException("Unable to write the purchase log", pending.error);
+            }
+            if (!pending.written) {
+                throw new IllegalStateException("Purchase log closed");
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<Pending> batch;
+            IOException broken;
+            synchronized (queueLock) {
+                while (queued.isEmpty() && running) {
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        stopped = true;
+                        queueLock.notifyAll();
+                        return;
+                    }
+                }
+                if (queued.isEmpty()) {
+                    stopped = true; // closed
+                    queueLock.notifyAll();
+                    return;
+                }
+                batch = queued;
+                queued = new ArrayList<>();
+                broken = failure;
+            }
+
+            IOException error = broken; // the log may end with a record not truncated, nothing is written after it
+            boolean truncated = true;
+            long number = 0;
+            if (error == null) {
+                ByteBuffer buffer = ByteBuffer.allocate(batch.stream().mapToInt(pending -> pending.record.length).sum());
+                batch.forEach(pending -> buffer.put(pending.record));
+                buffer.flip();
+                synchronized (fileLock) {
+                    number = logNumber;
+                    long size = -1;
+                    try {
+                        size = channel.size();
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        channel.force(false); // once for the whole batch
+                    } catch (IOException e) {
+                        log.error("Unable to write the purchase log", e);
+                        error = e;
+                        truncated = size >= 0 && truncate(size, e);
+                    }
+                }
+            }
+            synchronized (queueLock) {
+                for (Pending pending : batch) {
+                    pending.written = error == null;
+                    pending.error = error;
+                }
+                if (!truncated) {
+                    failure = error;
+                    failedLog = number;
+                }
+                queueLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Truncates the log back to the records before a failed batch, so they are never replayed, called with fileLock
+     *
+     * @param size size of the log before the batch
+     * @param error the failure of the batch
+     * @return true if the log was truncated
+     */
+    private boolean truncate(long size, IOException error) {
+        try {
+            channel.truncate(size);
+            channel.force(false);
+            return true;
+        } catch (IOException e) {
+            error.addSuppressed(e);
+            log.error("Unable to truncate the purchase log, the writes fail until the next snapshot", e);
+            return false;
+        }
+    }
+
+    private int readSnapshot(Path file, Consumer<Purchase> put) throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            int length;
+            while ((length = in.readInt()) != END_OF_SNAPSHOT) {
+                byte[] record = new byte[length];
+                in.readFully(record);
+                put.accept(PurchaseCodec.decode(ByteBuffer.wrap(record)));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int writeSnapshot(long firstLog, Collection<Purchase> purchases) throws IOException {
+        Path file = directory.resolve(String.format("snapshot-%016d.bin", firstLog));
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        int count = 0;
+        try (FileChannel snapshotChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(snapshotChannel), 1 << 16));
+            for (Purchase purchase : purchases) {
+                byte[] record = PurchaseCodec.encode(purchase);
+                out.writeInt(record.length);
+                out.write(record);
+                count++;
+            }
+            out.writeInt(END_OF_SNAPSHOT);
+            out.flush();
+            snapshotChannel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private int readLog(Path file, Consumer<Purchase> put, LongConsumer remove) throws IOException {
+        int count = 0;
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 1 || length > size) {
+                        log.warn("Ignoring the torn end of the purchase log {}", file);
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn("Ignoring the torn end of the purchase log {}", file);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break; // end of the log, or a record not completed
+                }
+                ByteBuffer record = ByteBuffer.wrap(payload);
+                byte type = record.get();
+                while (record.hasRemaining()) {
+                    if (type == PUT) {
+                        put.accept(PurchaseCodec.decode(record));
+                    } else {
+                        remove.accept(record.getLong());
+                    }
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private FileChannel openLog(long number) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("log-%016d.wal", number)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private TreeMap<Long, Path> files(String glob) {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(name.indexOf('-') + 1, name.indexOf('.'))), file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return files;
+    }
+
+    /**
+     * A record waiting for the writer, guarded by queueLock
+     */
+    private static final class Pending {
+
+        private final byte[] record;
+        private boolean written;
+        private IOException error;
+
+        private Pending(byte[] record) {
+            this.record = record;
+        }
+
+    }
+
+}
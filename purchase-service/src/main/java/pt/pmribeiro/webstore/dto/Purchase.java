@@ -10,6 +10,7 @@ import java.util.List;
 
 /**
  * {@code Purchase} is the purchase dto info representation
+ * The version is set by the database, starting at 1 and incremented by each update
  * @todo: use validators annotations
  *
  * Created by pribeiro on 27/11/2016.
@@ -24,5 +25,13 @@ public class Purchase {
     private String productType;
     private Date expires;
     private List<PurchaseDetail> purchaseDetails;
+    private Long version;
+
+    /**
+     * Creates a purchase not saved yet, without version
+     */
+    public Purchase(Long id, String productType, Date expires, List<PurchaseDetail> purchaseDetails) {
+        this(id, productType, expires, purchaseDetails, null);
+    }
 
 }
@@ -0,0 +1,32 @@
+package pt.pmribeiro.webstore.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code PurchaseBatchResult} is the result of one purchase of a batch creation
+ * with the http status the purchase would have if it was created alone
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PurchaseBatchResult {
+
+    private Integer index;
+    private Long id;
+    private int status;
+    private String code;
+    private String message;
+    private List<Map<String, Object>> fieldErrors;
+
+}
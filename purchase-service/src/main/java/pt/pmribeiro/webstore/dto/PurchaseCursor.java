@@ -0,0 +1,54 @@
+package pt.pmribeiro.webstore.dto;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * {@code PurchaseCursor} is the position of a purchase in the valid purchases listing
+ * The listing is ordered by expiration date and then by id, so a page starts right after the cursor
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@Value
+public class PurchaseCursor {
+
+    private long expires;
+    private long id;
+
+    /**
+     * Gets the cursor positioned at the given purchase
+     *
+     * @param purchase the last purchase of a page
+     * @return cursor of the purchase
+     */
+    public static PurchaseCursor of(Purchase purchase) {
+        return new PurchaseCursor(purchase.getExpires().getTime(), purchase.getId());
+    }
+
+    /**
+     * Decodes a cursor token returned to the client
+     *
+     * @param token cursor token
+     * @return decoded cursor
+     * @throws IllegalArgumentException if the token is not a valid cursor
+     */
+    public static PurchaseCursor decode(String token) throws IllegalArgumentException {
+        String[] fields = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+        if (fields.length != 2) {
+            throw new IllegalArgumentException("Invalid cursor " + token);
+        }
+        return new PurchaseCursor(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+    }
+
+    /**
+     * Encodes the cursor as an opaque token for the client
+     *
+     * @return cursor token
+     */
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((expires + ":" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
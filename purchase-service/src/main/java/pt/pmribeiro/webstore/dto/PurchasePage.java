@@ -0,0 +1,23 @@
+package pt.pmribeiro.webstore.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * {@code PurchasePage} is a page of the valid purchases listing
+ * with the cursor of the next page, null if it's the last page
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PurchasePage {
+
+    private List<Purchase> purchases;
+    private PurchaseCursor nextCursor;
+
+}
@@ -0,0 +1,123 @@
+package pt.pmribeiro.webstore.dto;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.validation.Errors;
+import org.springframework.validation.MapBindingResult;
+import pt.pmribeiro.webstore.exceptions.ValidationException;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code PurchasePatch} is the partial update of a purchase read from a json merge patch (RFC 7396)
+ * Only the fields that are not null are changed, the details are either replaced by a new list
+ * or changed one by one by detail id, a null detail change removes the detail
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PurchasePatch {
+
+    private Long id;
+    private String productType;
+    private List<PurchaseDetail> purchaseDetails;
+    private Map<Long, PurchaseDetail> detailChanges;
+    private Date expires;
+    private Long expectedVersion;
+
+    /**
+     * Checks if the details are changed one by one
+     *
+     * @return if there are detail changes
+     */
+    public boolean hasDetailChanges() {
+        return detailChanges != null && !detailChanges.isEmpty();
+    }
+
+    /**
+     * Applies the patch to the given purchase
+     * The given purchase is never changed, the patched purchase is a new one with the same version
+     *
+     * @param current the purchase to patch
+     * @return patched purchase
+     * @throws ValidationException if a new detail is incomplete or the purchase is left without details
+     */
+    public Purchase applyTo(Purchase current) throws ValidationException {
+        List<PurchaseDetail> details;
+        if (purchaseDetails != null) {
+            details = Lists.newArrayList(purchaseDetails);
+        } else {
+            Map<Long, PurchaseDetail> detailsById = Maps.newLinkedHashMap();
+            current.getPurchaseDetails().forEach(detail -> detailsById.put(detail.getId(), detail));
+            if (detailChanges != null) {
+                detailChanges.forEach((detailId, change) -> {
+                    if (change == null) {
+                        detailsById.remove(detailId);
+                    } else {
+                        detailsById.put(detailId, mergeDetail(detailId, detailsById.get(detailId), change));
+                    }
+                });
+            }
+            details = Lists.newArrayList(detailsById.values());
+        }
+        if (details.isEmpty()) {
+            throw invalid("purchaseDetails", "PurchaseDetails is empty");
+        }
+
+        return Purchase.builder()
+                .id(current.getId())
+                .productType(productType != null ? productType : current.getProductType())
+                .expires(expires != null ? expires : current.getExpires())
+                .purchaseDetails(details)
+                .version(current.getVersion())
+                .build();
+    }
+
+    /**
+     * Merges the changed fields of a detail with the current detail
+     * A detail that doesn't exist yet is added and must have all the fields
+     *
+     * @param detailId id of the detail
+     * @param current current detail, null if the detail is new
+     * @param change changed fields of the detail
+     * @return new detail with the changes
+     * @throws ValidationException if the detail is new and incomplete
+     */
+    public static PurchaseDetail mergeDetail(Long detailId, PurchaseDetail current, PurchaseDetail change) throws ValidationException {
+        if (current == null) {
+            if (change.getDescription() == null || change.getQuantity() == null || change.getValue() == null) {
+                throw invalid("purchaseDetails." + detailId, "New PurchaseDetail must have description, quantity and value");
+            }
+            current = new PurchaseDetail();
+        }
+        return PurchaseDetail.builder()
+                .id(detailId)
+                .description(change.getDescription() != null ? change.getDescription() : current.getDescription())
+                .quantity(change.getQuantity() != null ? change.getQuantity() : current.getQuantity())
+                .value(change.getValue() != null ? change.getValue() : current.getValue())
+                .build();
+    }
+
+    /**
+     * Builds the validation exception of a patch that can't be applied
+     *
+     * @param field rejected field
+     * @param message detailed message
+     * @return validation exception
+     */
+    public static ValidationException invalid(String field, String message) {
+        Errors errors = new MapBindingResult(Maps.newHashMap(), "purchase");
+        errors.rejectValue(field, "", message);
+        return new ValidationException("Invalid purchase", errors);
+    }
+
+}
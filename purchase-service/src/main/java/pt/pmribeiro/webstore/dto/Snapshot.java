@@ -0,0 +1,41 @@
+package pt.pmribeiro.webstore.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * {@code Snapshot} is a result read from the database at takenAt
+ * A stale snapshot is the last known good result served while the database is unavailable
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@Data
+@AllArgsConstructor
+public class Snapshot<T> {
+
+    private T value;
+    private long takenAt;
+    private boolean stale;
+
+    /**
+     * Creates a snapshot of a result just read from the database
+     *
+     * @param value the result
+     * @return fresh snapshot
+     */
+    public static <T> Snapshot<T> fresh(T value) {
+        return new Snapshot<>(value, System.currentTimeMillis(), false);
+    }
+
+    /**
+     * Creates a snapshot of a result read from the database in the past
+     *
+     * @param value the result
+     * @param takenAt time in milliseconds the result was read from the database
+     * @return stale snapshot
+     */
+    public static <T> Snapshot<T> stale(T value, long takenAt) {
+        return new Snapshot<>(value, takenAt, true);
+    }
+
+}
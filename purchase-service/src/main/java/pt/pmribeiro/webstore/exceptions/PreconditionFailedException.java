@@ -0,0 +1,24 @@
+package pt.pmribeiro.webstore.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * {@code PreconditionFailedException} is the exception that can be thrown
+ * in case of a conditional update of a entity changed since the expected version
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@ResponseStatus(value = HttpStatus.PRECONDITION_FAILED)
+public class PreconditionFailedException extends RuntimeException {
+
+    /**
+     * Constructs a new precondition failed exception with the specified detail message
+     *
+     * @param message detailed message of the exception
+     */
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+
+}
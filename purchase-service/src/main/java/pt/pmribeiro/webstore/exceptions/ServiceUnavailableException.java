@@ -0,0 +1,34 @@
+package pt.pmribeiro.webstore.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * {@code ServiceUnavailableException} is the exception that can be thrown
+ * in case of the database doesn't answer within the expected SLA or is overloaded
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException {
+
+    /**
+     * Constructs a new service unavailable exception with the specified detail message
+     *
+     * @param message detailed message of the exception
+     */
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new service unavailable exception with the specified detail message and cause
+     *
+     * @param message detailed message of the exception
+     * @param cause the failure of the database call
+     */
+    public ServiceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -1,11 +1,20 @@
 package pt.pmribeiro.webstore.service;
 
 import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseBatchResult;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchasePage;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.dto.Snapshot;
 import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
 import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
 import pt.pmribeiro.webstore.exceptions.ValidationException;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * {@code IPurchaseService} provide the required interfaces to
@@ -19,18 +28,58 @@ public interface IPurchaseService {
      * Gets a list of valid purchases
      * Definition: A valid purchase has the expiration date bigger or equals to the current system date
      *
-     * @return list of valid purchases ids
+     * @return snapshot of the list of valid purchases, stale if the database is unavailable
+     * @throws ServiceUnavailableException if the database is unavailable and the valid purchases were never read
      */
-    List<Purchase> getValidPurchases();
+    Snapshot<List<Purchase>> getValidPurchases() throws ServiceUnavailableException;
+
+    /**
+     * Gets a list of valid purchases without blocking the calling thread
+     * Definition: A valid purchase has the expiration date bigger or equals to the current system date
+     *
+     * @return future with the snapshot of the list of valid purchases, stale if the database is unavailable,
+     * completes with ServiceUnavailableException if the database doesn't answer within the SLA
+     * and the valid purchases were never read
+     */
+    CompletableFuture<Snapshot<List<Purchase>>> getValidPurchasesAsync();
+
+    /**
+     * Gets a page of valid purchases without blocking the calling thread
+     * The purchases are ordered by expiration date and id
+     *
+     * @param after cursor of the last purchase of the previous page, null for the first page
+     * @param limit max number of purchases in the page
+     * @return future with the page of valid purchases and the cursor of the next page
+     */
+    CompletableFuture<PurchasePage> getValidPurchasesPageAsync(PurchaseCursor after, int limit);
+
+    /**
+     * Streams the valid purchases to the given consumer as they are read from the database
+     * Definition: A valid purchase has the expiration date bigger or equals to the current system date
+     *
+     * @param consumer receives each valid purchase
+     */
+    void streamValidPurchases(Consumer<Purchase> consumer);
 
     /**
      * Gets the purchase information for a given purchase id
      *
      * @param id the id of the purchase to retrive
-     * @return purchase
+     * @return snapshot of the purchase, stale if the database is unavailable
      * @throws NotFoundException if purchase id not found
+     * @throws ServiceUnavailableException if the database is unavailable and the purchase was never read
      */
-    Purchase findPurchaseById(Long id) throws NotFoundException;
+    Snapshot<Purchase> findPurchaseById(Long id) throws NotFoundException, ServiceUnavailableException;
+
+    /**
+     * Gets the purchase information for a given purchase id without blocking the calling thread
+     *
+     * @param id the id of the purchase to retrive
+     * @return future with the snapshot of the purchase, stale if the database is unavailable,
+     * completes with NotFoundException if purchase id not found or with ServiceUnavailableException
+     * if the database is unavailable and the purchase was never read
+     */
+    CompletableFuture<Snapshot<Purchase>> findPurchaseByIdAsync(Long id);
 
     /**
      * Creates a new purchasefindPurchaseById
@@ -42,6 +91,17 @@ public interface IPurchaseService {
      */
     Purchase createPurchase(Purchase purchase) throws DataIntegrityViolationException, ValidationException;
 
+    /**
+     * Creates a batch of new purchases
+     * The ids are checked for conflicts with a single call and the purchases
+     * without conflicts are saved in a single batch
+     *
+     * @param purchases the purchases to save, already validated
+     * @return the result of each purchase in the same order of the given purchases
+     * @throws DataIntegrityViolationException if a purchase id was used by another request while saving the batch
+     */
+    List<PurchaseBatchResult> createPurchases(List<Purchase> purchases) throws DataIntegrityViolationException;
+
     /**
      * Updates a existing purchase
      *
@@ -52,6 +112,34 @@ public interface IPurchaseService {
      */
     Purchase updatePurchase(Purchase purchase) throws DataIntegrityViolationException, ValidationException;;
 
+    /**
+     * Updates a existing purchase only if it's still in the expected version, in a single call
+     *
+     * @param purchase the purchase to update
+     * @param expectedVersion the version of the purchase the changes are based on
+     * @return the purchase updated with the new version
+     * @throws NotFoundException if the purchase doesn't exist
+     * @throws PreconditionFailedException if the purchase was changed since the expected version
+     * @throws DataIntegrityViolationException if data integrity was violated
+     * @throws ValidationException if any of the information in the purchase don't match the requirements
+     */
+    Purchase updatePurchase(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException;
+
+    /**
+     * Patches only the changed fields of a existing purchase, in a single call
+     * The version is only checked if the patch has an expected version
+     *
+     * @param patch the changes of the purchase
+     * @return the purchase patched with the new version
+     * @throws NotFoundException if the purchase doesn't exist
+     * @throws PreconditionFailedException if the purchase was changed since the expected version
+     * @throws DataIntegrityViolationException if data integrity was violated
+     * @throws ValidationException if a new detail is incomplete or the purchase is left without details
+     */
+    Purchase patchPurchase(PurchasePatch patch) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException;
+
     /**
      * Checks if a purchase with the given id exists in database
      *
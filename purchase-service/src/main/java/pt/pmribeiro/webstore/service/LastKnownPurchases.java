@@ -0,0 +1,100 @@
+package pt.pmribeiro.webstore.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.Snapshot;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * {@code LastKnownPurchases} keeps the last results read from the database
+ * to be served as stale snapshots while the database is unavailable
+ * The database is considered unavailable from a failed read until the next successful read
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class LastKnownPurchases {
+
+    private volatile Snapshot<List<Purchase>> validPurchases;
+    private final Cache<Long, Snapshot<Purchase>> purchasesById;
+    private volatile boolean unavailable;
+
+    /**
+     * @param maximumSize max number of purchases by id kept
+     */
+    public LastKnownPurchases(long maximumSize) {
+        this.purchasesById = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Keeps the valid purchases just read from the database
+     *
+     * @param purchases the valid purchases, read only
+     */
+    public void putValidPurchases(List<Purchase> purchases) {
+        validPurchases = Snapshot.fresh(purchases);
+        unavailable = false;
+    }
+
+    /**
+     * Gets the last known valid purchases, without the ones expired since they were read
+     *
+     * @param now current time in milliseconds
+     * @return stale snapshot of the valid purchases, empty if they were never read
+     */
+    public Optional<Snapshot<List<Purchase>>> getValidPurchases(long now) {
+        Snapshot<List<Purchase>> snapshot = validPurchases;
+        if (snapshot == null) {
+            return Optional.empty();
+        }
+        List<Purchase> stillValid = snapshot.getValue().stream()
+                .filter(purchase -> purchase.getExpires().getTime() >= now)
+                .collect(Collectors.toList());
+        return Optional.of(Snapshot.stale(stillValid, snapshot.getTakenAt()));
+    }
+
+    /**
+     * Keeps the purchase just read from or written to the database,
+     * a read started before a write never replaces the version the write kept
+     *
+     * @param purchase the purchase
+     */
+    public void putPurchase(Purchase purchase) {
+        purchasesById.asMap().merge(purchase.getId(), Snapshot.fresh(purchase),
+                (current, next) -> version(next.getValue()) >= version(current.getValue()) ? next : current);
+        unavailable = false;
+    }
+
+    private static long version(Purchase purchase) {
+        return purchase.getVersion() != null ? purchase.getVersion() : 0;
+    }
+
+    /**
+     * Gets the last known purchase with the given id
+     *
+     * @param id the purchase id
+     * @return stale snapshot of the purchase, empty if it was never read
+     */
+    public Optional<Snapshot<Purchase>> getPurchase(Long id) {
+        return Optional.ofNullable(purchasesById.getIfPresent(id))
+                .map(snapshot -> Snapshot.stale(snapshot.getValue(), snapshot.getTakenAt()));
+    }
+
+    /**
+     * Marks the database unavailable after a failed read
+     */
+    public void markUnavailable() {
+        unavailable = true;
+    }
+
+    /**
+     * @return true if the last read from the database failed
+     */
+    public boolean isUnavailable() {
+        return unavailable;
+    }
+
+}
@@ -1,18 +1,35 @@
 package pt.pmribeiro.webstore.service;
 
-import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import pt.pmribeiro.webstore.dao.IAsyncPurchaseDAO;
 import pt.pmribeiro.webstore.dao.IPurchaseDAO;
 import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseBatchResult;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchasePage;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.dto.Snapshot;
 import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
 import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
 import pt.pmribeiro.webstore.exceptions.ValidationException;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * {@code PurchaseService} handles the business rules implementation class for the purchase service
@@ -24,47 +41,184 @@ public class PurchaseService implements IPurchaseService {
 
     private IPurchaseDAO purchaseRepository;
 
+    private IAsyncPurchaseDAO asyncPurchaseRepository;
+
+    private SingleFlight<List<Purchase>> validPurchasesFlight;
+
+    private LastKnownPurchases lastKnownPurchases;
+
+    private final Set<Long> purchasesRefreshing = ConcurrentHashMap.newKeySet();
+
     @Autowired
-    public PurchaseService(IPurchaseDAO purchaseRepository) {
+    public PurchaseService(IPurchaseDAO purchaseRepository, IAsyncPurchaseDAO asyncPurchaseRepository,
+                           SingleFlight<List<Purchase>> validPurchasesFlight, LastKnownPurchases lastKnownPurchases) {
         this.purchaseRepository = purchaseRepository;
+        this.asyncPurchaseRepository = asyncPurchaseRepository;
+        this.validPurchasesFlight = validPurchasesFlight;
+        this.lastKnownPurchases = lastKnownPurchases;
+    }
+
+    /**
+     * @see IPurchaseService
+     */
+    @Override
+    public Snapshot<List<Purchase>> getValidPurchases() throws ServiceUnavailableException {
+        List<Purchase> purchases;
+        try {
+            purchases = purchaseRepository.getValidPurchasesDetail(System.currentTimeMillis()); // return valid purchases with detail in a single call
+        } catch (ServiceUnavailableException e) {
+            return getStaleValidPurchases(e);
+        }
+        if (purchases != null) {
+            lastKnownPurchases.putValidPurchases(Collections.unmodifiableList(purchases));
+        }
+        return Snapshot.fresh(purchases);
+    }
+
+    /**
+     * Gets the last known valid purchases while the database is unavailable
+     * and refreshes them in background
+     *
+     * @param exception the failure of the database call
+     * @return stale snapshot of the valid purchases
+     * @throws ServiceUnavailableException the given exception if the valid purchases were never read
+     */
+    protected Snapshot<List<Purchase>> getStaleValidPurchases(ServiceUnavailableException exception) throws ServiceUnavailableException {
+        lastKnownPurchases.markUnavailable();
+        refreshValidPurchases();
+        return lastKnownPurchases.getValidPurchases(System.currentTimeMillis())
+                .orElseThrow(() -> exception);
+    }
+
+    /**
+     * Concurrent callers share the same database call and the same read only list
+     * While the database is unavailable the last known valid purchases are served
+     * and a single call refreshes them in background
+     *
+     * @see IPurchaseService
+     */
+    @Override
+    public CompletableFuture<Snapshot<List<Purchase>>> getValidPurchasesAsync() {
+        if (lastKnownPurchases.isUnavailable()) {
+            Optional<Snapshot<List<Purchase>>> stale = lastKnownPurchases.getValidPurchases(System.currentTimeMillis());
+            if (stale.isPresent()) {
+                refreshValidPurchases();
+                return CompletableFuture.completedFuture(stale.get());
+            }
+        }
+
+        return refreshValidPurchases()
+                .thenApply(Snapshot::fresh)
+                .exceptionally(exception -> lastKnownPurchases.getValidPurchases(System.currentTimeMillis())
+                        .orElseThrow(() -> exception instanceof CompletionException ? (CompletionException) exception : new CompletionException(exception)));
     }
 
     /**
-     * Gets a list of valid purchases id
-     * Definition: A valid purchase has the expiration date bigger or equals to the current system date
+     * Reads the valid purchases from the database, coalesced with the calls in flight,
+     * and keeps them as the last known valid purchases
      *
-     * @param purchasesList list of purchases to find valid purchases
-     * @return list of valid purchases ids
+     * @return future with the read only list of valid purchases
      */
-    @HystrixCommand
-    protected Long[] getValidPurchasesIds(List<Purchase> purchasesList) {
-        long now = System.currentTimeMillis();
-        return purchasesList.parallelStream() // @todo: needs more info to decide to use parallelStream or stream -> for now consider its a big stream
-                .filter(purchase -> purchase.getExpires().getTime() >= now) // apply filter to the collection to return valid purchases
-                .map(purchase -> purchase.getId()) // extract only the id
-                .toArray(size -> new Long[size]); // convert to Ling array
+    private CompletableFuture<List<Purchase>> refreshValidPurchases() {
+        return validPurchasesFlight.get(() -> asyncPurchaseRepository.getValidPurchasesDetail(System.currentTimeMillis()) // bounded by the database deadline
+                .handle((purchases, exception) -> {
+                    if (exception != null) {
+                        lastKnownPurchases.markUnavailable();
+                        throw exception instanceof CompletionException ? (CompletionException) exception : new CompletionException(exception);
+                    }
+                    if (purchases == null) {
+                        return null;
+                    }
+                    List<Purchase> readOnly = Collections.unmodifiableList(purchases);
+                    lastKnownPurchases.putValidPurchases(readOnly);
+                    return readOnly;
+                }));
+    }
+
+    /**
+     * @see IPurchaseService
+     */
+    @Override
+    public CompletableFuture<PurchasePage> getValidPurchasesPageAsync(PurchaseCursor after, int limit) {
+        return asyncPurchaseRepository.getValidPurchasesDetailPage(System.currentTimeMillis(), after, limit + 1) // one more to know if there is a next page
+                .thenApply(purchases -> {
+                    if (purchases.size() <= limit) {
+                        return new PurchasePage(purchases, null);
+                    }
+                    List<Purchase> page = purchases.subList(0, limit);
+                    return new PurchasePage(page, PurchaseCursor.of(page.get(limit - 1)));
+                });
+    }
+
+    /**
+     * @see IPurchaseService
+     */
+    @Override
+    public void streamValidPurchases(Consumer<Purchase> consumer) {
+        purchaseRepository.streamValidPurchasesDetail(System.currentTimeMillis(), consumer);
     }
 
     /**
      * @see IPurchaseService
      */
     @Override
-    @HystrixCommand
-    public List<Purchase> getValidPurchases() {
-        List<Purchase> purchasesList = purchaseRepository.getAll(); // get all purchases from database
-        Long[] validPurchasesIds = getValidPurchasesIds(purchasesList); // get only valid ids
-        return purchaseRepository.getPurchasesDetailByPurchasesIds(validPurchasesIds); // return purchases with detail
+    public Snapshot<Purchase> findPurchaseById(Long id) throws NotFoundException, ServiceUnavailableException {
+        Purchase purchase;
+        try {
+            purchase = purchaseRepository.findById(id);
+        } catch (ServiceUnavailableException e) {
+            return getStalePurchase(id, e);
+        }
+        if (purchase == null) {
+            throw new NotFoundException("Purchase " + id + " not found");
+        }
+        lastKnownPurchases.putPurchase(purchase);
+        return Snapshot.fresh(purchase);
     }
 
     /**
      * @see IPurchaseService
      */
     @Override
-    @HystrixCommand
-    public Purchase findPurchaseById(Long id) throws NotFoundException {
-        return Optional.ofNullable(purchaseRepository.findById(id))
-                .map(result -> result)
-                .orElseThrow(() -> new NotFoundException("Purchase " + id + " not found"));
+    public CompletableFuture<Snapshot<Purchase>> findPurchaseByIdAsync(Long id) {
+        return asyncPurchaseRepository.findById(id) // bounded by the database deadline
+                .handle((purchase, exception) -> {
+                    if (exception != null) {
+                        Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+                        if (cause instanceof ServiceUnavailableException) {
+                            return getStalePurchase(id, (ServiceUnavailableException) cause);
+                        }
+                        throw exception instanceof CompletionException ? (CompletionException) exception : new CompletionException(exception);
+                    }
+                    if (purchase == null) {
+                        throw new NotFoundException("Purchase " + id + " not found");
+                    }
+                    lastKnownPurchases.putPurchase(purchase);
+                    return Snapshot.fresh(purchase);
+                });
+    }
+
+    /**
+     * Gets the last known purchase while the database is unavailable
+     * and refreshes it in background, a single refresh by purchase id at a time
+     *
+     * @param id the id of the purchase to retrieve
+     * @param exception the failure of the database call
+     * @return stale snapshot of the purchase
+     * @throws ServiceUnavailableException the given exception if the purchase was never read
+     */
+    protected Snapshot<Purchase> getStalePurchase(Long id, ServiceUnavailableException exception) throws ServiceUnavailableException {
+        lastKnownPurchases.markUnavailable();
+        if (purchasesRefreshing.add(id)) {
+            asyncPurchaseRepository.findById(id).whenComplete((purchase, refreshException) -> {
+                purchasesRefreshing.remove(id);
+                if (purchase != null) {
+                    lastKnownPurchases.putPurchase(purchase);
+                }
+            });
+        }
+        return lastKnownPurchases.getPurchase(id)
+                .orElseThrow(() -> exception);
     }
 
     /**
@@ -83,32 +237,92 @@ public class PurchaseService implements IPurchaseService {
      * @see IPurchaseService
      */
     @Override
-    @HystrixCommand
     public Purchase createPurchase(Purchase purchase) throws DataIntegrityViolationException, ValidationException {
-        if (purchaseRepository.exists(purchase.getId())) { // validates if purchase id already exists in database
+        purchase.setExpires(getNewExpirationDate()); // set expiration date
+
+        if (!purchaseRepository.insertIfAbsent(purchase)) { // checks the id and saves in a single atomic call
             throw new DataIntegrityViolationException("Purchase id already in use"); // thows DataIntegrityViolationException if exits
         }
+        lastKnownPurchases.putPurchase(purchase);
+        return purchase;
+    }
 
-        purchase.setExpires(getNewExpirationDate()); // set expiration date
+    /**
+     * @see IPurchaseService
+     */
+    @Override
+    public List<PurchaseBatchResult> createPurchases(List<Purchase> purchases) throws DataIntegrityViolationException {
+        Set<Long> usedIds = Sets.newHashSet(purchaseRepository.findExistingIds(
+                purchases.stream().map(Purchase::getId).collect(Collectors.toSet()))); // validates all ids with a single call
+
+        Date expires = getNewExpirationDate();
+        List<Purchase> newPurchases = Lists.newArrayListWithCapacity(purchases.size());
+        List<PurchaseBatchResult> results = Lists.newArrayListWithCapacity(purchases.size());
+        for (int i = 0; i < purchases.size(); i++) {
+            Purchase purchase = purchases.get(i);
+            if (!usedIds.add(purchase.getId())) { // already in database or repeated in the batch
+                results.add(PurchaseBatchResult.builder().index(i).id(purchase.getId()).status(HttpStatus.CONFLICT.value())
+                        .code("DataIntegrityViolation").message("Purchase id already in use").build());
+                continue;
+            }
+
+            purchase.setExpires(expires); // set expiration date
+            newPurchases.add(purchase);
+            results.add(PurchaseBatchResult.builder().index(i).id(purchase.getId()).status(HttpStatus.CREATED.value()).build());
+        }
 
-        return purchaseRepository.save(purchase); // save to repository and returns final value
+        if (!newPurchases.isEmpty()) {
+            purchaseRepository.saveAll(newPurchases); // save to repository in a single batch
+            newPurchases.forEach(lastKnownPurchases::putPurchase);
+        }
+        return results;
     }
 
     /**
      * @see IPurchaseService
      */
     @Override
-    @HystrixCommand
     public Purchase updatePurchase(Purchase purchase) throws ValidationException {
         purchase.setExpires(getNewExpirationDate()); // set expiration date
-        return purchaseRepository.update(purchase); // save to repository and returns final value
+        return written(purchaseRepository.update(purchase)); // save to repository and returns final value
+    }
+
+    /**
+     * @see IPurchaseService
+     */
+    @Override
+    public Purchase updatePurchase(Purchase purchase, long expectedVersion) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        purchase.setExpires(getNewExpirationDate()); // set expiration date
+        return written(purchaseRepository.updateIfVersion(purchase, expectedVersion)); // checks the version and saves in a single atomic call
+    }
+
+    /**
+     * @see IPurchaseService
+     */
+    @Override
+    public Purchase patchPurchase(PurchasePatch patch) throws NotFoundException, PreconditionFailedException,
+            DataIntegrityViolationException, ValidationException {
+        patch.setExpires(getNewExpirationDate()); // renews the expiration date as the full update
+        return written(purchaseRepository.patch(patch)); // writes only the changes in a single atomic call
+    }
+
+    /**
+     * Keeps the purchase just written as the last known one, so the stale purchase served
+     * while the database is unavailable has the version and ETag of the last write
+     *
+     * @param purchase the purchase saved with the new version
+     * @return the given purchase
+     */
+    private Purchase written(Purchase purchase) {
+        lastKnownPurchases.putPurchase(purchase);
+        return purchase;
     }
 
     /**
      * @see IPurchaseService
      */
     @Override
-    @HystrixCommand
     public boolean purchaseExists(Long id) {
         return purchaseRepository.exists(id);
     }
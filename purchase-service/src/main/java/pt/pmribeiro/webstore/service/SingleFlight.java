@@ -0,0 +1,91 @@
+package pt.pmribeiro.webstore.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * {@code SingleFlight} coalesces concurrent calls of the same computation
+ * While a call is in flight the other callers share its result instead of starting a new one,
+ * a successful result is also shared during the freshness window after it completes
+ * Failed calls are never shared after completing, the next caller starts a new call
+ *
+ * Created by pribeiro on 18/10/2026.
+ */
+public class SingleFlight<T> {
+
+    private final long freshnessNanos;
+    private final AtomicReference<Flight<T>> current = new AtomicReference<>();
+
+    /**
+     * @param freshnessMillis time in milliseconds a completed result is shared, 0 to share only in flight calls
+     */
+    public SingleFlight(long freshnessMillis) {
+        if (freshnessMillis < 0) {
+            throw new IllegalArgumentException("freshnessMillis must be positive or zero");
+        }
+        this.freshnessNanos = TimeUnit.MILLISECONDS.toNanos(freshnessMillis);
+    }
+
+    /**
+     * Gets the result of the call in flight or of a fresh call, starting a new call otherwise
+     *
+     * @param call starts the computation
+     * @return future result of the shared computation
+     */
+    public CompletableFuture<T> get(Supplier<CompletableFuture<T>> call) {
+        while (true) {
+            Flight<T> flight = current.get();
+            if (flight != null && flight.isShareable(System.nanoTime(), freshnessNanos)) {
+                return flight.share();
+            }
+
+            Flight<T> next = new Flight<>();
+            if (current.compareAndSet(flight, next)) {
+                next.start(call);
+                return next.share();
+            }
+        }
+    }
+
+    /**
+     * A single call and its result
+     */
+    private static class Flight<T> {
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private volatile long completedAt;
+        private volatile boolean succeeded;
+
+        private void start(Supplier<CompletableFuture<T>> call) {
+            try {
+                call.get().whenComplete((value, exception) -> {
+                    if (exception != null) {
+                        result.completeExceptionally(exception);
+                    } else {
+                        completedAt = System.nanoTime();
+                        succeeded = true; // published before the result so the freshness is known when done
+                        result.complete(value);
+                    }
+                });
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private boolean isShareable(long now, long freshnessNanos) {
+            return !result.isDone() || (succeeded && now - completedAt <= freshnessNanos);
+        }
+
+        /**
+         * Each caller gets its own future so a caller completing or cancelling it doesn't affect the others
+         */
+        private CompletableFuture<T> share() {
+            return result.thenApply(Function.identity());
+        }
+
+    }
+
+}
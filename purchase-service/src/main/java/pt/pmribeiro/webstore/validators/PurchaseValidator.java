@@ -5,7 +5,12 @@ import org.springframework.validation.Errors;
 import org.springframework.validation.ValidationUtils;
 import org.springframework.validation.Validator;
 import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -49,13 +54,52 @@ public class PurchaseValidator implements Validator {
 
         ValidationUtils.rejectIfEmptyOrWhitespace(errors, "productType", "","ProductType is empty");
 
-        if (purchase.getPurchaseDetails() == null || purchase.getPurchaseDetails().isEmpty()) {
+        validateDetails(purchase.getPurchaseDetails(), errors);
+    }
+
+    /**
+     * Validates only the fields changed by the patch
+     * and puts error messages in the errors parameter
+     *
+     * @param patch changes of the purchase
+     * @param errors list of errors
+     */
+    public void validatePatch(PurchasePatch patch, Errors errors) {
+        if (patch.getProductType() != null && patch.getProductType().trim().isEmpty()) {
+            errors.rejectValue("productType", "", "ProductType is empty");
+        }
+
+        if (patch.getPurchaseDetails() != null) {
+            validateDetails(patch.getPurchaseDetails(), errors);
+        }
+
+        if (patch.getDetailChanges() != null) {
+            patch.getDetailChanges().forEach((detailId, change) -> {
+                if (change == null) {
+                    return; // removed
+                }
+                if (change.getDescription() != null && change.getDescription().isEmpty()) {
+                    errors.rejectValue("purchaseDetails." + detailId + ".description", "", "PurchaseDetail description is null or empty");
+                }
+
+                if (change.getQuantity() != null && change.getQuantity() == 0) {
+                    errors.rejectValue("purchaseDetails." + detailId + ".quantity", "", "PurchaseDetail quantity is null or equals to 0");
+                }
+            });
+        }
+    }
+
+    private static void validateDetails(List<PurchaseDetail> purchaseDetails, Errors errors) {
+        if (purchaseDetails == null || purchaseDetails.isEmpty()) {
             errors.rejectValue("purchaseDetails","", "PurchaseDetails is empty");
         } else {
             final AtomicInteger index = new AtomicInteger(0);
-            purchase.getPurchaseDetails().stream().forEach(purchaseDetail -> {
+            final Set<Long> detailIds = new HashSet<>();
+            purchaseDetails.stream().forEach(purchaseDetail -> {
                 if (purchaseDetail.getId() == null) {
                     errors.rejectValue("purchaseDetails[" + index.get() + "].id", "", "PurchaseDetail id is null");
+                } else if (!detailIds.add(purchaseDetail.getId())) {
+                    errors.rejectValue("purchaseDetails[" + index.get() + "].id", "", "PurchaseDetail id is repeated");
                 }
 
                 if (purchaseDetail.getDescription() == null || purchaseDetail.getDescription().isEmpty()) {
@@ -0,0 +1,20 @@
+CREATE TABLE IF NOT EXISTS purchase (
+    id           BIGINT       NOT NULL PRIMARY KEY,
+    product_type VARCHAR(255),
+    expires      TIMESTAMP    NOT NULL,
+    -- incremented by each update, checked by the conditional updates
+    version      BIGINT       NOT NULL DEFAULT 1
+);
+
+-- supports the valid purchases range scan ordered by expiration date
+CREATE INDEX IF NOT EXISTS purchase_expires_idx ON purchase (expires, id);
+
+CREATE TABLE IF NOT EXISTS purchase_detail (
+    purchase_id  BIGINT       NOT NULL,
+    id           BIGINT       NOT NULL,
+    description  VARCHAR(255),
+    quantity     INT,
+    item_value   DOUBLE,
+    PRIMARY KEY (purchase_id, id),
+    FOREIGN KEY (purchase_id) REFERENCES purchase (id) ON DELETE CASCADE
+);
@@ -0,0 +1,183 @@
+package pt.pmribeiro.webstore.config;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class IdempotencyFilterTest {
+
+    private static final String PAYLOAD = "{\"id\":1,\"productType\":\"Bakery\"}";
+
+    private final IdempotencyFilter filter = new IdempotencyFilter(100, 60000, 1024);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private MockHttpServletResponse doFilter(String key, String payload, int status) throws Exception {
+        return doFilter(key, payload, status, null);
+    }
+
+    private MockHttpServletResponse doFilter(String key, String payload, int status, CountDownLatch release) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/purchases");
+        if (key != null) {
+            request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, key);
+        }
+        request.setContent(payload.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                calls.incrementAndGet();
+                if (release != null) {
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+                String body = StreamUtils.copyToString(req.getInputStream(), StandardCharsets.UTF_8);
+                resp.setStatus(status);
+                resp.setContentType("application/json;charset=UTF-8");
+                resp.setHeader(HttpHeaders.ETAG, "\"" + calls.get() + "\"");
+                resp.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8)); // echo the purchase
+            }
+        }));
+        return response;
+    }
+
+    @Test
+    public void testRetryReplayed() throws Exception {
+        MockHttpServletResponse created = doFilter("key-1", PAYLOAD, HttpServletResponse.SC_CREATED);
+        Assert.assertEquals(HttpServletResponse.SC_CREATED, created.getStatus());
+        Assert.assertEquals(PAYLOAD, created.getContentAsString()); // the application read the whole payload
+
+        MockHttpServletResponse replayed = doFilter("key-1", PAYLOAD, HttpServletResponse.SC_CONFLICT);
+        Assert.assertEquals(1, calls.get()); // not created again
+        Assert.assertEquals(HttpServletResponse.SC_CREATED, replayed.getStatus());
+        Assert.assertEquals(PAYLOAD, replayed.getContentAsString());
+        Assert.assertEquals("\"1\"", replayed.getHeader(HttpHeaders.ETAG));
+        Assert.assertEquals("true", replayed.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED_HEADER));
+    }
+
+    @Test
+    public void testKeyReusedWithDifferentPayload() throws Exception {
+        doFilter("key-1", PAYLOAD, HttpServletResponse.SC_CREATED);
+
+        MockHttpServletResponse response = doFilter("key-1", "{\"id\":2,\"productType\":\"Bakery\"}", HttpServletResponse.SC_CREATED);
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(422, response.getStatus());
+        Assert.assertTrue(response.getContentAsString(), response.getContentAsString().contains("IdempotencyKeyReused"));
+    }
+
+    @Test
+    public void testFailedRequestNotKept() throws Exception {
+        Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, doFilter("key-1", PAYLOAD, HttpServletResponse.SC_BAD_REQUEST).getStatus());
+        Assert.assertEquals(HttpServletResponse.SC_CREATED, doFilter("key-1", PAYLOAD, HttpServletResponse.SC_CREATED).getStatus());
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testPayloadTooLarge() throws Exception {
+        String payload = "{\"id\":1,\"productType\":\"" + Strings.repeat("x", 1024) + "\"}";
+
+        MockHttpServletResponse response = doFilter("key-1", payload, HttpServletResponse.SC_CREATED);
+        Assert.assertEquals(413, response.getStatus());
+        Assert.assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testPayloadTooLargeWithoutContentLength() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/purchases") {
+            @Override
+            public long getContentLengthLong() {
+                return -1; // chunked
+            }
+        };
+        request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, "key-1");
+        request.setContent(new byte[1025]);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, new MockFilterChain());
+        Assert.assertEquals(413, response.getStatus());
+    }
+
+    @Test
+    public void testPayloadReadWithReadListener() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/purchases");
+        request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, "key-1");
+        request.setContent(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        AtomicBoolean allDataRead = new AtomicBoolean();
+
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                ServletInputStream inputStream = req.getInputStream();
+                inputStream.setReadListener(new ReadListener() {
+                    @Override
+                    public void onDataAvailable() throws IOException {
+                        while (inputStream.isReady() && !inputStream.isFinished()) {
+                            read.write(inputStream.read());
+                        }
+                    }
+
+                    @Override
+                    public void onAllDataRead() {
+                        allDataRead.set(true);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        throw new IllegalStateException(t);
+                    }
+                });
+            }
+        }));
+        Assert.assertTrue(allDataRead.get());
+        Assert.assertEquals(PAYLOAD, read.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    public void testWithoutKeyNotFiltered() throws Exception {
+        doFilter(null, PAYLOAD, HttpServletResponse.SC_CREATED);
+        Assert.assertNull(doFilter(null, PAYLOAD, HttpServletResponse.SC_CREATED).getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED_HEADER));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testRetryWhileInProgress() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<MockHttpServletResponse> original = CompletableFuture.supplyAsync(() -> {
+            try {
+                return doFilter("key-1", PAYLOAD, HttpServletResponse.SC_CREATED, release);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (calls.get() == 0) {
+            Thread.yield();
+        }
+
+        Assert.assertEquals(HttpServletResponse.SC_CONFLICT, doFilter("key-1", PAYLOAD, HttpServletResponse.SC_CREATED).getStatus());
+        release.countDown();
+        Assert.assertEquals(HttpServletResponse.SC_CREATED, original.get().getStatus());
+        Assert.assertEquals(1, calls.get());
+    }
+
+}
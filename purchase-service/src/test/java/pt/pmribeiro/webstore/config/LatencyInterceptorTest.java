@@ -0,0 +1,93 @@
+package pt.pmribeiro.webstore.config;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import pt.pmribeiro.webstore.dao.CachingPurchaseDAO;
+import pt.pmribeiro.webstore.dao.IPurchaseDAO;
+import pt.pmribeiro.webstore.dao.InMemoryPurchaseDAO;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class LatencyInterceptorTest {
+
+    private LatencyInterceptor latencyInterceptor;
+
+    private IPurchaseDAO purchaseRepository;
+
+    @Before
+    public void setUp() {
+        latencyInterceptor = new LatencyInterceptor(1);
+        ProxyFactory proxyFactory = new ProxyFactory(new InMemoryPurchaseDAO());
+        proxyFactory.addAdvice(latencyInterceptor);
+        purchaseRepository = (IPurchaseDAO) proxyFactory.getProxy();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> methodLatency(Map<String, Object> snapshot, String method) {
+        return (Map<String, Object>) ((Map<String, Object>) snapshot.get("methods")).get(method);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSnapshotByBeanAndMethod() {
+        for (int i = 0; i < 10; i++) {
+            purchaseRepository.exists(1L);
+        }
+        purchaseRepository.findById(1L);
+
+        Map<String, Object> snapshot = new LatencyEndpoint(latencyInterceptor).invoke();
+
+        Map<String, Object> dao = (Map<String, Object>) snapshot.get("dao.InMemoryPurchaseDAO");
+        Assert.assertEquals(11L, dao.get("count"));
+        Assert.assertTrue((Double) dao.get("p50") <= (Double) dao.get("p999"));
+        Assert.assertTrue((Double) dao.get("p999") <= (Double) dao.get("max"));
+        Assert.assertEquals(10L, methodLatency(snapshot, "dao.InMemoryPurchaseDAO.exists").get("count"));
+        Assert.assertEquals(1L, methodLatency(snapshot, "dao.InMemoryPurchaseDAO.findById").get("count"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDecoratorsCountedByBean() {
+        ProxyFactory proxyFactory = new ProxyFactory(new CachingPurchaseDAO(purchaseRepository, 10, 60000));
+        proxyFactory.addAdvice(latencyInterceptor);
+        IPurchaseDAO cachingPurchaseRepository = (IPurchaseDAO) proxyFactory.getProxy();
+        cachingPurchaseRepository.exists(1L);
+
+        Map<String, Object> snapshot = latencyInterceptor.snapshot();
+        Assert.assertEquals(1L, ((Map<String, Object>) snapshot.get("dao.CachingPurchaseDAO")).get("count"));
+        Assert.assertEquals(1L, ((Map<String, Object>) snapshot.get("dao.InMemoryPurchaseDAO")).get("count"));
+    }
+
+    @Test
+    public void testSnapshotAccumulatesIntervals() {
+        purchaseRepository.exists(1L);
+        latencyInterceptor.snapshot();
+        purchaseRepository.exists(1L);
+
+        Assert.assertEquals(2L, methodLatency(latencyInterceptor.snapshot(), "dao.InMemoryPurchaseDAO.exists").get("count"));
+    }
+
+    @Test
+    public void testRecordsFailedCalls() {
+        try {
+            purchaseRepository.update(Purchase.builder().id(1L).expires(new Date()).build());
+            Assert.fail("NotFoundException expected");
+        } catch (NotFoundException e) {
+            Assert.assertEquals(1L, methodLatency(latencyInterceptor.snapshot(), "dao.InMemoryPurchaseDAO.update").get("count"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTraceSampleRate() {
+        new LatencyInterceptor(2);
+    }
+
+}
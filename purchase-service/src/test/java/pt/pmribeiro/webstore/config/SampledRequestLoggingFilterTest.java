@@ -0,0 +1,82 @@
+package pt.pmribeiro.webstore.config;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class SampledRequestLoggingFilterTest {
+
+    private static final String PAYLOAD = "{\"id\":1,\"productType\":\"Bakery\"}";
+
+    private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+    private SampledRequestLoggingFilter filter(boolean sampled, int maxPayloadLength) {
+        return new SampledRequestLoggingFilter(1, maxPayloadLength, 16) {
+            @Override
+            protected boolean shouldLog() {
+                return sampled;
+            }
+
+            @Override
+            protected void writeLog(String message) {
+                messages.add(message);
+            }
+        };
+    }
+
+    private String doFilter(SampledRequestLoggingFilter filter) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/purchases");
+        request.setQueryString("dryRun=true");
+        request.setContent(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        String[] body = new String[1];
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                body[0] = StreamUtils.copyToString(req.getInputStream(), StandardCharsets.UTF_8);
+                resp.setStatus(HttpServletResponse.SC_CREATED);
+            }
+        }));
+        Assert.assertEquals(PAYLOAD, body[0]); // the application always reads the whole payload
+        return messages.poll(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testLogSampledRequest() throws Exception {
+        String message = doFilter(filter(true, 1024));
+        Assert.assertTrue(message, message.startsWith("Request [POST /api/purchases?dryRun=true;client=127.0.0.1;status=201;took="));
+        Assert.assertTrue(message, message.endsWith(";payload=" + PAYLOAD + "]"));
+    }
+
+    @Test
+    public void testLogPayloadCapped() throws Exception {
+        String message = doFilter(filter(true, 8));
+        Assert.assertTrue(message, message.endsWith(";payload=" + PAYLOAD.substring(0, 8) + "...]"));
+    }
+
+    @Test
+    public void testSkipNotSampledRequest() throws Exception {
+        Assert.assertNull(doFilter(filter(false, 1024)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleRate() {
+        new SampledRequestLoggingFilter(1.5, 1024, 16);
+    }
+
+}
@@ -3,6 +3,7 @@ package pt.pmribeiro.webstore.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -11,29 +12,50 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.restdocs.JUnitRestDocumentation;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.BindingResult;
 import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseBatchResult;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
 import pt.pmribeiro.webstore.dto.PurchaseDetail;
+import pt.pmribeiro.webstore.dto.PurchasePage;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.dto.Snapshot;
 import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
 import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
 import pt.pmribeiro.webstore.exceptions.ValidationException;
 import pt.pmribeiro.webstore.service.IPurchaseService;
+import pt.pmribeiro.webstore.validators.PurchaseValidator;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.documentationConfiguration;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -80,20 +102,151 @@ public class PurchaseControllerTest {
         validPurchases.add(new Purchase(1L, "Cake", nowDate, Lists.newArrayList()));
         validPurchases.add(new Purchase(2L, "Tools", nowDate, Lists.newArrayList()));
 
-        given(purchaseService.getValidPurchases()).willReturn(validPurchases);
+        given(purchaseService.getValidPurchasesAsync()).willReturn(CompletableFuture.completedFuture(Snapshot.fresh(validPurchases)));
 
-        mvc.perform(get("/api/purchases").accept(MediaType.APPLICATION_JSON_UTF8))
+        MvcResult mvcResult = mvc.perform(get("/api/purchases").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(validPurchases)));
     }
 
     @Test
     public void testGetValidPurchasesWithNoContent() throws Exception {
-        given(purchaseService.getValidPurchases()).willReturn(null);
+        given(purchaseService.getValidPurchasesAsync()).willReturn(CompletableFuture.completedFuture(Snapshot.fresh(null)));
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
 
-        mvc.perform(get("/api/purchases").accept(MediaType.APPLICATION_JSON_UTF8))
+        mvc.perform(asyncDispatch(mvcResult))
                 .andExpect(status().isNoContent());
     }
 
+    @Test
+    public void testGetValidPurchasesStale() throws Exception {
+        Date nowDate = new Date();
+
+        List<Purchase> validPurchases = Lists.newArrayList();
+        validPurchases.add(new Purchase(1L, "Cake", nowDate, Lists.newArrayList()));
+
+        given(purchaseService.getValidPurchasesAsync()).willReturn(CompletableFuture.completedFuture(Snapshot.stale(validPurchases, nowDate.getTime() - 60000)));
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.WARNING, PurchaseController.STALE_WARNING))
+                .andExpect(header().string(HttpHeaders.AGE, "60"))
+                .andExpect(content().json(objectMapper.writeValueAsString(validPurchases)));
+    }
+
+    @Test
+    public void testGetValidPurchasesServiceUnavailableException() throws Exception {
+        CompletableFuture<Snapshot<List<Purchase>>> timedOut = new CompletableFuture<>();
+        timedOut.completeExceptionally(new ServiceUnavailableException("Purchase database didn't answer within 2000ms"));
+        given(purchaseService.getValidPurchasesAsync()).willReturn(timedOut);
+
+        Map<String, String> expectedJsonMessage = Maps.newHashMap();
+        expectedJsonMessage.put("code", "ServiceUnavailable");
+        expectedJsonMessage.put("message", "Purchase database didn't answer within 2000ms");
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isServiceUnavailable()).andExpect(content().json(objectMapper.writeValueAsString(expectedJsonMessage)));
+    }
+
+    @Test
+    public void testGetValidPurchasesPage() throws Exception {
+        Date nowDate = new Date();
+
+        List<Purchase> validPurchases = Lists.newArrayList();
+        validPurchases.add(new Purchase(1L, "Cake", nowDate, Lists.newArrayList()));
+        validPurchases.add(new Purchase(2L, "Tools", nowDate, Lists.newArrayList()));
+        PurchaseCursor nextCursor = PurchaseCursor.of(validPurchases.get(1));
+
+        given(purchaseService.getValidPurchasesPageAsync(null, 2)).willReturn(CompletableFuture.completedFuture(new PurchasePage(validPurchases, nextCursor)));
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases").param("limit", "2").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(PurchaseController.NEXT_CURSOR_HEADER, nextCursor.encode()))
+                .andExpect(content().json(objectMapper.writeValueAsString(validPurchases)));
+    }
+
+    @Test
+    public void testGetValidPurchasesLastPage() throws Exception {
+        Date nowDate = new Date();
+
+        List<Purchase> validPurchases = Lists.newArrayList();
+        validPurchases.add(new Purchase(3L, "Cake", nowDate, Lists.newArrayList()));
+        PurchaseCursor cursor = new PurchaseCursor(nowDate.getTime(), 2L);
+
+        given(purchaseService.getValidPurchasesPageAsync(cursor, 2)).willReturn(CompletableFuture.completedFuture(new PurchasePage(validPurchases, null)));
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases").param("limit", "2").param("cursor", cursor.encode()).accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(PurchaseController.NEXT_CURSOR_HEADER))
+                .andExpect(content().json(objectMapper.writeValueAsString(validPurchases)));
+    }
+
+    @Test
+    public void testGetValidPurchasesPageValidationException() throws Exception {
+        mvc.perform(get("/api/purchases").param("cursor", "invalid").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testStreamValidPurchases() throws Exception {
+        Date nowDate = new Date();
+
+        List<Purchase> validPurchases = Lists.newArrayList();
+        validPurchases.add(new Purchase(1L, "Cake", nowDate, Lists.newArrayList()));
+        validPurchases.add(new Purchase(2L, "Tools", nowDate, Lists.newArrayList()));
+
+        willAnswer(invocation -> {
+            Consumer<Purchase> consumer = invocation.getArgument(0);
+            validPurchases.forEach(consumer);
+            return null;
+        }).given(purchaseService).streamValidPurchases(any());
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases").accept(PurchaseController.APPLICATION_NDJSON_VALUE))
+                .andExpect(request().asyncStarted())
+                .andExpect(content().contentType(PurchaseController.APPLICATION_NDJSON_VALUE)).andReturn();
+        mvcResult.getAsyncResult(); // waits for the stream to be written
+        Assert.assertEquals(3600000, mvcResult.getRequest().getAsyncContext().getTimeout()); // not the default timeout
+
+        Assert.assertEquals(objectMapper.writeValueAsString(validPurchases.get(0)) + "\n"
+                + objectMapper.writeValueAsString(validPurchases.get(1)) + "\n", mvcResult.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testStreamValidPurchasesReleasesPermit() throws Exception {
+        purchaseController.setMaxConcurrentStreams(1);
+
+        for (int i = 0; i < 2; i++) { // the second stream only gets the permit released by the first
+            MvcResult mvcResult = mvc.perform(get("/api/purchases").accept(PurchaseController.APPLICATION_NDJSON_VALUE))
+                    .andExpect(request().asyncStarted()).andReturn();
+            mvcResult.getAsyncResult();
+        }
+    }
+
+    @Test
+    public void testStreamValidPurchasesServiceUnavailableException() throws Exception {
+        purchaseController.setMaxConcurrentStreams(0); // every stream permit taken
+
+        mvc.perform(get("/api/purchases").accept(PurchaseController.APPLICATION_NDJSON_VALUE))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isServiceUnavailable());
+    }
+
     // SAVE TESTS
 
     @Test
@@ -177,6 +330,100 @@ public class PurchaseControllerTest {
                 .andExpect(status().isBadRequest()).andExpect(content().json(objectMapper.writeValueAsString(expectedJsonMessage)));
     }
 
+    @Test
+    public void testSavePurchases() throws Exception {
+        ReflectionTestUtils.setField(purchaseController, "purchaseValidator", new PurchaseValidator());
+
+        Purchase purchase = Purchase.builder().id(1L).productType("Cake").purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(1).value(500.00).build()
+                )
+        ).build();
+        Purchase usedIdPurchase = Purchase.builder().id(2L).productType("Tools").purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("Hammer").quantity(1).value(20.00).build()
+                )
+        ).build();
+        Purchase invalidPurchase = Purchase.builder().id(3L).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("Nails").quantity(100).value(0.10).build()
+                )
+        ).build();
+
+        given(purchaseService.createPurchases(Lists.newArrayList(purchase, usedIdPurchase))).willReturn(Lists.newArrayList(
+                PurchaseBatchResult.builder().index(0).id(1L).status(201).build(),
+                PurchaseBatchResult.builder().index(1).id(2L).status(409).code("DataIntegrityViolation").message("Purchase id already in use").build()
+        ));
+
+        Map<String, String> productTypeFieldError = Maps.newHashMap();
+        productTypeFieldError.put("code", "");
+        productTypeFieldError.put("field", "productType");
+        productTypeFieldError.put("resource", "purchases[1]");
+        productTypeFieldError.put("message", "ProductType is empty");
+
+        List<PurchaseBatchResult> expectedResults = Lists.newArrayList(
+                PurchaseBatchResult.builder().index(0).id(1L).status(201).build(),
+                PurchaseBatchResult.builder().index(1).id(3L).status(400).code("InvalidPurchase").message("Invalid purchase")
+                        .fieldErrors(Collections.singletonList(Maps.newHashMap(productTypeFieldError))).build(),
+                PurchaseBatchResult.builder().index(2).id(2L).status(409).code("DataIntegrityViolation").message("Purchase id already in use").build()
+        );
+
+        mvc.perform(post("/api/purchases/batch").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(objectMapper.writeValueAsString(Lists.newArrayList(purchase, invalidPurchase, usedIdPurchase))))
+                .andExpect(status().isMultiStatus()).andExpect(content().json(objectMapper.writeValueAsString(expectedResults)));
+    }
+
+    @Test
+    public void testSavePurchasesValidationException() throws Exception {
+        mvc.perform(post("/api/purchases/batch").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testGetPurchase() throws Exception {
+        Purchase purchase = new Purchase(1L, "Cake", new Date(), Lists.newArrayList(), 3L);
+        given(purchaseService.findPurchaseByIdAsync(1L)).willReturn(CompletableFuture.completedFuture(Snapshot.fresh(purchase)));
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.WARNING))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+                .andExpect(content().json(objectMapper.writeValueAsString(purchase)));
+    }
+
+    @Test
+    public void testGetPurchaseStale() throws Exception {
+        Purchase purchase = new Purchase(1L, "Cake", new Date(), Lists.newArrayList());
+        given(purchaseService.findPurchaseByIdAsync(1L)).willReturn(CompletableFuture.completedFuture(Snapshot.stale(purchase, System.currentTimeMillis())));
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.WARNING, PurchaseController.STALE_WARNING))
+                .andExpect(content().json(objectMapper.writeValueAsString(purchase)));
+    }
+
+    @Test
+    public void testGetPurchaseNotFoundException() throws Exception {
+        CompletableFuture<Snapshot<Purchase>> notFound = new CompletableFuture<>();
+        notFound.completeExceptionally(new NotFoundException("Purchase 10 not found"));
+        given(purchaseService.findPurchaseByIdAsync(10L)).willReturn(notFound);
+
+        MvcResult mvcResult = mvc.perform(get("/api/purchases/10").accept(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isNotFound());
+    }
+
     // UPDATE TESTS
 
     @Test
@@ -188,14 +435,133 @@ public class PurchaseControllerTest {
                         PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(1).value(100.00).build()
                 )
         ).build();
+        Purchase updated = Purchase.builder().id(1L).productType("Cake").expires(nowDate).purchaseDetails(purchase.getPurchaseDetails()).version(2L).build();
+
+        given(purchaseService.updatePurchase(changes(purchase))).willReturn(updated);
+
+        mvc.perform(put("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(objectMapper.writeValueAsString(purchase)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2\""))
+                .andExpect(content().json(objectMapper.writeValueAsString(updated)));
+        verify(purchaseService, never()).findPurchaseByIdAsync(1L); // a single call
+    }
+
+    @Test
+    public void testUpdatePurchaseIfMatch() throws Exception {
+        Purchase purchase = Purchase.builder().id(1L).productType("Cake").purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(1).value(100.00).build()
+                )
+        ).build();
+        Purchase updated = Purchase.builder().id(1L).productType("Cake").expires(new Date()).purchaseDetails(purchase.getPurchaseDetails()).version(4L).build();
+
+        given(purchaseService.updatePurchase(changes(purchase), 3L)).willReturn(updated);
+
+        mvc.perform(put("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_MATCH, "\"3\"")
+                .content(objectMapper.writeValueAsString(purchase)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                .andExpect(content().json(objectMapper.writeValueAsString(updated)));
+    }
+
+    @Test
+    public void testUpdatePurchasePreconditionFailedException() throws Exception {
+        Purchase purchase = Purchase.builder().id(1L).productType("Cake").purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(1).value(100.00).build()
+                )
+        ).build();
+
+        given(purchaseService.updatePurchase(changes(purchase), 3L)).willThrow(new PreconditionFailedException("Purchase 1 version is 4, expected 3"));
 
-        given(purchaseService.findPurchaseById(1L)).willReturn(purchase);
-        given(purchaseService.updatePurchase(purchase)).willReturn(purchase);
+        Map<String, Object> expectedJsonMessage = Maps.newHashMap();
+        expectedJsonMessage.put("code", "PreconditionFailed");
+        expectedJsonMessage.put("message", "Purchase 1 version is 4, expected 3");
 
         mvc.perform(put("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
                 .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_MATCH, "\"3\"")
                 .content(objectMapper.writeValueAsString(purchase)))
-                .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(purchase)));
+                .andExpect(status().isPreconditionFailed()).andExpect(content().json(objectMapper.writeValueAsString(expectedJsonMessage)));
+    }
+
+    @Test
+    public void testUpdatePurchaseIfMatchNotVersion() throws Exception {
+        Purchase purchase = Purchase.builder().id(1L).productType("Cake").purchaseDetails(Lists.newArrayList()).build();
+
+        mvc.perform(put("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_MATCH, "W/\"3\"")
+                .content(objectMapper.writeValueAsString(purchase)))
+                .andExpect(status().isPreconditionFailed());
+        verifyZeroInteractions(purchaseService);
+    }
+
+    @Test
+    public void testPatchPurchase() throws Exception {
+        ReflectionTestUtils.setField(purchaseController, "purchaseValidator", new PurchaseValidator());
+
+        Map<Long, PurchaseDetail> detailChanges = Maps.newLinkedHashMap();
+        detailChanges.put(1L, PurchaseDetail.builder().quantity(2).build());
+        detailChanges.put(2L, null);
+        PurchasePatch patch = PurchasePatch.builder().id(1L).productType("Wedding cake").detailChanges(detailChanges).expectedVersion(3L).build();
+        Purchase patched = Purchase.builder().id(1L).productType("Wedding cake").expires(new Date()).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(2).value(100.00).build()
+                )
+        ).version(4L).build();
+
+        given(purchaseService.patchPurchase(patch)).willReturn(patched);
+
+        mvc.perform(patch("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(PurchaseController.APPLICATION_MERGE_PATCH_JSON_VALUE)
+                .header(HttpHeaders.IF_MATCH, "\"3\"")
+                .content("{\"productType\": \"Wedding cake\", \"purchaseDetails\": {\"1\": {\"quantity\": 2}, \"2\": null}}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                .andExpect(content().json(objectMapper.writeValueAsString(patched)));
+    }
+
+    @Test
+    public void testPatchPurchaseReplaceDetails() throws Exception {
+        ReflectionTestUtils.setField(purchaseController, "purchaseValidator", new PurchaseValidator());
+
+        List<PurchaseDetail> details = Lists.newArrayList(
+                PurchaseDetail.builder().id(3L).description("Candles").quantity(10).value(5.00).build()
+        );
+        Purchase patched = Purchase.builder().id(1L).productType("Cake").expires(new Date()).purchaseDetails(details).version(2L).build();
+
+        given(purchaseService.patchPurchase(PurchasePatch.builder().id(1L).purchaseDetails(details).build())).willReturn(patched);
+
+        mvc.perform(patch("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(PurchaseController.APPLICATION_MERGE_PATCH_JSON_VALUE)
+                .content("{\"purchaseDetails\": " + objectMapper.writeValueAsString(details) + "}"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(patched)));
+    }
+
+    @Test
+    public void testPatchPurchaseValidationException() throws Exception {
+        ReflectionTestUtils.setField(purchaseController, "purchaseValidator", new PurchaseValidator());
+
+        mvc.perform(patch("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(PurchaseController.APPLICATION_MERGE_PATCH_JSON_VALUE)
+                .content("{\"id\": 2, \"productType\": null, \"purchaseDetails\": {\"1\": {\"quantity\": 0}, \"2\": {\"value\": null}}}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("{\"code\": \"InvalidPurchase\", \"fieldErrors\": [" +
+                        "{\"field\": \"id\"}, {\"field\": \"productType\"}, {\"field\": \"purchaseDetails.2.value\"}, {\"field\": \"purchaseDetails.1.quantity\"}]}"));
+        verifyZeroInteractions(purchaseService);
+    }
+
+    /**
+     * Changes sent by the controller to the service for the given request body
+     */
+    private static Purchase changes(Purchase purchase) {
+        return Purchase.builder().id(purchase.getId()).productType(purchase.getProductType()).purchaseDetails(purchase.getPurchaseDetails()).build();
     }
 
     @Test
@@ -208,8 +574,7 @@ public class PurchaseControllerTest {
                 )
         ).build();
 
-        given(purchaseService.findPurchaseById(1L)).willReturn(purchase);
-        given(purchaseService.updatePurchase(purchase)).willThrow(new DataIntegrityViolationException("Invalid purchase detail id"));
+        given(purchaseService.updatePurchase(changes(purchase))).willThrow(new DataIntegrityViolationException("Invalid purchase detail id"));
 
         Map<String, String> expectedJsonMessage = Maps.newHashMap();
         expectedJsonMessage.put("code", "DataIntegrityViolation");
@@ -231,12 +596,10 @@ public class PurchaseControllerTest {
                 )
         ).build();
 
-        given(purchaseService.findPurchaseById(1L)).willReturn(purchase);
-
         BindingResult dummyBindingResult = new BeanPropertyBindingResult(purchase, "purchase");
         dummyBindingResult.rejectValue("productType", "","ProductType is empty");
         dummyBindingResult.rejectValue("purchaseDetails[0].quantity", "", "PurchaseDetail quantity is null or equals to 0");
-        given(purchaseService.updatePurchase(purchase)).willThrow(new ValidationException("Invalid purchase", dummyBindingResult));
+        given(purchaseService.updatePurchase(changes(purchase))).willThrow(new ValidationException("Invalid purchase", dummyBindingResult));
 
         List<Map<String, String>> fieldErrors = Lists.newArrayList();
         Map<String, String> productTypeFieldError = Maps.newHashMap();
@@ -274,7 +637,7 @@ public class PurchaseControllerTest {
                 )
         ).build();
 
-        given(purchaseService.findPurchaseById(10L)).willThrow(new NotFoundException("Purchase 10 not found"));
+        given(purchaseService.updatePurchase(changes(purchase))).willThrow(new NotFoundException("Purchase 10 not found"));
 
         Map<String, Object> expectedJsonMessage = Maps.newHashMap();
         expectedJsonMessage.put("code", "NotFound");
@@ -286,4 +649,20 @@ public class PurchaseControllerTest {
                 .andExpect(status().isNotFound()).andExpect(content().json(objectMapper.writeValueAsString(expectedJsonMessage)));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testUpdatePurchaseServiceUnavailableException() throws Exception {
+        Purchase purchase = Purchase.builder().id(1L).productType("Cake").expires(new Date()).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(1).value(100.00).build()
+                )
+        ).build();
+
+        given(purchaseService.updatePurchase(changes(purchase))).willThrow(new ServiceUnavailableException("Purchase database is unavailable (update timeout)"));
+
+        mvc.perform(put("/api/purchases/1").accept(MediaType.APPLICATION_JSON_UTF8)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(objectMapper.writeValueAsString(purchase)))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+}
@@ -0,0 +1,100 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.hystrix.Hystrix;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class AsyncPurchaseDAOTest {
+
+    private static final String VALID_PURCHASES_TIMEOUT = "hystrix.command.getValidPurchasesDetail.execution.isolation.thread.timeoutInMilliseconds";
+
+    @Mock
+    private IPurchaseDAO purchaseRepository;
+
+    private AsyncPurchaseDAO asyncPurchaseRepository;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        assertNotNull(purchaseRepository);
+
+        HystrixPurchaseDAO hystrixPurchaseRepository = new HystrixPurchaseDAO(purchaseRepository);
+        asyncPurchaseRepository = new AsyncPurchaseDAO(hystrixPurchaseRepository, new CachingPurchaseDAO(hystrixPurchaseRepository, 10, 60000));
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationManager.getConfigInstance().clearProperty(VALID_PURCHASES_TIMEOUT);
+        Hystrix.reset();
+    }
+
+    @Test
+    public void testGetValidPurchasesDetailInReadPool() throws Exception {
+        List<Purchase> validPurchases = Lists.newArrayList(new Purchase(1L, "Cake", new Date(), Lists.newArrayList()));
+        AtomicReference<String> readThread = new AtomicReference<>();
+        willAnswer(invocation -> {
+            readThread.set(Thread.currentThread().getName());
+            return validPurchases;
+        }).given(purchaseRepository).getValidPurchasesDetail(anyLong());
+
+        Assert.assertEquals(validPurchases, asyncPurchaseRepository.getValidPurchasesDetail(System.currentTimeMillis()).get());
+        Assert.assertTrue(readThread.get(), readThread.get().startsWith("hystrix-" + HystrixPurchaseDAO.READ_POOL_KEY));
+    }
+
+    @Test
+    public void testFindByIdNotFound() throws Exception {
+        given(purchaseRepository.getPurchasesDetailByPurchasesIds(1L)).willReturn(Lists.newArrayList());
+
+        Assert.assertNull(asyncPurchaseRepository.findById(1L).get());
+    }
+
+    @Test
+    public void testFindByIdCached() throws Exception {
+        Purchase purchase = new Purchase(1L, "Cake", new Date(System.currentTimeMillis() + 60000), Lists.newArrayList());
+        given(purchaseRepository.getPurchasesDetailByPurchasesIds(1L)).willReturn(Lists.newArrayList(purchase));
+
+        Assert.assertEquals(purchase, asyncPurchaseRepository.findById(1L).get());
+        Assert.assertEquals(purchase, asyncPurchaseRepository.findById(1L).get());
+        verify(purchaseRepository, times(1)).getPurchasesDetailByPurchasesIds(1L); // the second lookup is a cache hit
+    }
+
+    @Test
+    public void testTimeoutThrownAsServiceUnavailable() throws Exception {
+        ConfigurationManager.getConfigInstance().setProperty(VALID_PURCHASES_TIMEOUT, 50);
+        willAnswer(invocation -> {
+            Thread.sleep(1000);
+            return Lists.newArrayList();
+        }).given(purchaseRepository).getValidPurchasesDetail(anyLong());
+
+        try {
+            asyncPurchaseRepository.getValidPurchasesDetail(System.currentTimeMillis()).get();
+            Assert.fail("Timeout not enforced");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ServiceUnavailableException);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import pt.pmribeiro.webstore.dto.Purchase;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class CachingPurchaseDAOTest {
+
+    @Mock
+    private IPurchaseDAO purchaseRepository;
+
+    private CachingPurchaseDAO cachingPurchaseRepository;
+
+    private Purchase validPurchase;
+    private Purchase invalidPurchase;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        assertNotNull(purchaseRepository);
+
+        cachingPurchaseRepository = new CachingPurchaseDAO(purchaseRepository, 1, 60000);
+
+        long now = System.currentTimeMillis();
+        validPurchase = new Purchase(1L, "Cake", new Date(now + 60000), Lists.newArrayList());
+        invalidPurchase = new Purchase(2L, "Cake", new Date(now - 60000), Lists.newArrayList());
+        given(purchaseRepository.findById(1L)).willReturn(validPurchase);
+        given(purchaseRepository.findById(2L)).willReturn(invalidPurchase);
+    }
+
+    @Test
+    public void testFindByIdReadThrough() {
+        Assert.assertEquals(validPurchase, cachingPurchaseRepository.findById(1L));
+        Assert.assertEquals(validPurchase, cachingPurchaseRepository.findById(1L));
+
+        verify(purchaseRepository, times(1)).findById(1L);
+        Assert.assertEquals(1, cachingPurchaseRepository.stats().hitCount());
+        Assert.assertEquals(1, cachingPurchaseRepository.stats().missCount());
+    }
+
+    @Test
+    public void testFindByIdExpiredPurchaseNotCached() {
+        Assert.assertEquals(invalidPurchase, cachingPurchaseRepository.findById(2L));
+        Assert.assertEquals(invalidPurchase, cachingPurchaseRepository.findById(2L));
+
+        verify(purchaseRepository, times(2)).findById(2L);
+    }
+
+    @Test
+    public void testFindByIdEvictsExpiredEntry() {
+        cachingPurchaseRepository.findById(1L);
+        validPurchase.setExpires(new Date(System.currentTimeMillis() - 1));
+        cachingPurchaseRepository.findById(1L);
+
+        verify(purchaseRepository, times(2)).findById(1L);
+        Assert.assertEquals(1, cachingPurchaseRepository.expiredCount());
+        Assert.assertEquals(0, cachingPurchaseRepository.stats().hitCount()); // the expired entry is a miss
+        Assert.assertEquals(2, cachingPurchaseRepository.stats().missCount());
+    }
+
+    @Test
+    public void testExpireAfterWrite() throws Exception {
+        cachingPurchaseRepository = new CachingPurchaseDAO(purchaseRepository, 1, 1);
+        cachingPurchaseRepository.findById(1L);
+        Thread.sleep(10);
+        cachingPurchaseRepository.findById(1L);
+
+        verify(purchaseRepository, times(2)).findById(1L);
+        Assert.assertEquals(0, cachingPurchaseRepository.expiredCount()); // removed by the cache, not by the lookup
+    }
+
+    @Test
+    public void testUpdateInvalidatesEntry() {
+        cachingPurchaseRepository.findById(1L);
+        cachingPurchaseRepository.update(validPurchase);
+        cachingPurchaseRepository.findById(1L);
+
+        verify(purchaseRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    public void testFindByIdRacingUpdateNotCached() {
+        Purchase updatedPurchase = new Purchase(1L, "Cake", validPurchase.getExpires(), Lists.newArrayList());
+        given(purchaseRepository.findById(1L)).willAnswer(invocation -> {
+            cachingPurchaseRepository.update(updatedPurchase); // the update commits while the miss is loading
+            return validPurchase;
+        }).willReturn(updatedPurchase);
+
+        Assert.assertEquals(validPurchase, cachingPurchaseRepository.findById(1L));
+        Assert.assertEquals(0, cachingPurchaseRepository.size());
+        Assert.assertEquals(updatedPurchase, cachingPurchaseRepository.findById(1L));
+        Assert.assertEquals(updatedPurchase, cachingPurchaseRepository.findById(1L));
+
+        verify(purchaseRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    public void testSizeEviction() {
+        Purchase otherPurchase = new Purchase(3L, "Tools", validPurchase.getExpires(), Lists.newArrayList());
+        given(purchaseRepository.findById(3L)).willReturn(otherPurchase);
+
+        cachingPurchaseRepository.findById(1L);
+        cachingPurchaseRepository.findById(3L);
+
+        Assert.assertEquals(1, cachingPurchaseRepository.size());
+        Assert.assertEquals(1, cachingPurchaseRepository.stats().evictionCount());
+    }
+
+}
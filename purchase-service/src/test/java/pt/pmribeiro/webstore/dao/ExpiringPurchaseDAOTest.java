@@ -0,0 +1,128 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class ExpiringPurchaseDAOTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryPurchaseDAO inMemoryPurchaseRepository;
+    private ExpiringPurchaseDAO purchaseRepository;
+    private long now;
+
+    private Purchase purchase(long id, long expires) {
+        return Purchase.builder().id(id).productType("Bakery").expires(new Date(expires)).purchaseDetails(
+                Lists.newArrayList(PurchaseDetail.builder().id(1L).description("Candles").quantity(10).value(5.00).build())
+        ).build();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        now = System.currentTimeMillis();
+        inMemoryPurchaseRepository = new InMemoryPurchaseDAO();
+        inMemoryPurchaseRepository.save(purchase(1L, now - 60000)); // stored before the sweeper
+        purchaseRepository = new ExpiringPurchaseDAO(inMemoryPurchaseRepository,
+                new PurchaseArchive(folder.newFolder().toPath(), 4096, 4), 1000, 8, 2); // swept by the test
+    }
+
+    @Test
+    public void testSweepStoredPurchases() {
+        Assert.assertEquals(1, purchaseRepository.sweep(now));
+        Assert.assertFalse(inMemoryPurchaseRepository.exists(1L));
+        Assert.assertEquals("Bakery", purchaseRepository.findById(1L).getProductType()); // archived
+        Assert.assertNull(purchaseRepository.findById(9L));
+    }
+
+    @Test
+    public void testSweepExpired() {
+        purchaseRepository.save(purchase(2L, now + 5000));
+        purchaseRepository.save(purchase(3L, now + 60000));
+        purchaseRepository.sweep(now);
+        Assert.assertTrue(inMemoryPurchaseRepository.exists(2L));
+
+        Assert.assertEquals(1, purchaseRepository.sweep(now + 7000));
+        Assert.assertFalse(inMemoryPurchaseRepository.exists(2L));
+        Assert.assertTrue(inMemoryPurchaseRepository.exists(3L));
+    }
+
+    @Test
+    public void testSweepRenewed() {
+        purchaseRepository.save(purchase(2L, now + 5000));
+        purchaseRepository.sweep(now);
+        purchaseRepository.update(purchase(2L, now + 60000));
+
+        Assert.assertEquals(0, purchaseRepository.sweep(now + 7000));
+        Assert.assertTrue(inMemoryPurchaseRepository.exists(2L));
+        Assert.assertEquals(now + 60000, purchaseRepository.findById(2L).getExpires().getTime());
+        Assert.assertEquals(1, purchaseRepository.sweep(now + 62000));
+        Assert.assertFalse(inMemoryPurchaseRepository.exists(2L));
+    }
+
+    @Test
+    public void testSweepKeepsPurchaseWrittenBeforeFirstSweep() {
+        InMemoryPurchaseDAO spyPurchaseRepository = Mockito.spy(inMemoryPurchaseRepository);
+        ExpiringPurchaseDAO racingPurchaseRepository = new ExpiringPurchaseDAO(spyPurchaseRepository,
+                new PurchaseArchive(folder.getRoot().toPath().resolve("racing"), 4096, 4), 1000, 8, 2);
+        doAnswer(invocation -> {
+            List<?> purchases = (List<?>) invocation.callRealMethod();
+            racingPurchaseRepository.update(purchase(1L, now + 60000)); // renewed after the purchases are read
+            return purchases;
+        }).when(spyPurchaseRepository).getAll();
+
+        try {
+            Assert.assertEquals(0, racingPurchaseRepository.sweep(now));
+            Assert.assertTrue(inMemoryPurchaseRepository.exists(1L));
+            Assert.assertEquals(1, racingPurchaseRepository.sweep(now + 62000)); // the renewed expiration date is still scheduled
+        } finally {
+            racingPurchaseRepository.shutdown();
+        }
+    }
+
+    @Test
+    public void testArchivedIdInUse() {
+        purchaseRepository.sweep(now);
+
+        Assert.assertTrue(purchaseRepository.exists(1L));
+        Assert.assertTrue(purchaseRepository.findExistingIds(Lists.newArrayList(1L, 9L)).contains(1L));
+        Assert.assertEquals(1, purchaseRepository.getPurchasesDetailByPurchasesIds(1L, 9L).size());
+        Assert.assertFalse(purchaseRepository.insertIfAbsent(purchase(1L, now + 60000)));
+        Assert.assertFalse(inMemoryPurchaseRepository.exists(1L));
+        try {
+            purchaseRepository.saveAll(Lists.newArrayList(purchase(2L, now + 60000), purchase(1L, now + 60000)));
+            Assert.fail("Archived id reused");
+        } catch (DataIntegrityViolationException e) {
+            Assert.assertFalse(inMemoryPurchaseRepository.exists(2L));
+        }
+    }
+
+    @Test(expected = DataIntegrityViolationException.class)
+    public void testUpdateArchivedDataIntegrityViolationException() {
+        purchaseRepository.sweep(now);
+        purchaseRepository.update(purchase(1L, now + 60000));
+    }
+
+    @After
+    public void tearDown() {
+        purchaseRepository.shutdown();
+    }
+
+}
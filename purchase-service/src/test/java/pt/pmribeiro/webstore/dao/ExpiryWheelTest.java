@@ -0,0 +1,56 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class ExpiryWheelTest {
+
+    private final ExpiryWheel wheel = new ExpiryWheel(10, 4, 2, 0); // levels of 40ms and 160ms
+
+    private List<Long> advance(long now) {
+        List<Long> due = Lists.newArrayList();
+        wheel.advance(now, (id, expires) -> {
+            Assert.assertTrue(expires < now);
+            due.add(id);
+        });
+        return due;
+    }
+
+    @Test
+    public void testDueAfterExpiration() {
+        Assert.assertTrue(wheel.add(1, 15));
+        Assert.assertTrue(wheel.add(2, 25));
+
+        Assert.assertEquals(Lists.newArrayList(), advance(15));
+        Assert.assertEquals(Lists.newArrayList(1L), advance(20));
+        Assert.assertEquals(Lists.newArrayList(2L), advance(30));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testAlreadyDue() {
+        advance(100);
+        Assert.assertFalse(wheel.add(1, 50));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCascadeLevels() {
+        Assert.assertTrue(wheel.add(1, 75)); // second level
+        Assert.assertTrue(wheel.add(2, 500)); // beyond the last level
+        Assert.assertEquals(2, wheel.size());
+
+        Assert.assertEquals(Lists.newArrayList(), advance(70));
+        Assert.assertEquals(Lists.newArrayList(1L), advance(80));
+        Assert.assertEquals(Lists.newArrayList(), advance(500));
+        Assert.assertEquals(Lists.newArrayList(2L), advance(510));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+}
@@ -0,0 +1,143 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.hystrix.Hystrix;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class HystrixPurchaseDAOTest {
+
+    private static final String EXISTS_TIMEOUT = "hystrix.command.exists.execution.isolation.thread.timeoutInMilliseconds";
+    private static final String FIND_BY_ID_WINDOW = "hystrix.collapser.findById.timerDelayInMilliseconds";
+
+    @Mock
+    private IPurchaseDAO purchaseRepository;
+
+    private HystrixPurchaseDAO hystrixPurchaseRepository;
+
+    private Purchase purchase;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        assertNotNull(purchaseRepository);
+
+        ConfigurationManager.getConfigInstance().setProperty(FIND_BY_ID_WINDOW, 100);
+        Hystrix.reset(); // the collapser reads the window when created
+
+        hystrixPurchaseRepository = new HystrixPurchaseDAO(purchaseRepository);
+        purchase = new Purchase(1L, "Cake", new Date(), Lists.newArrayList());
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationManager.getConfigInstance().clearProperty(EXISTS_TIMEOUT);
+        ConfigurationManager.getConfigInstance().clearProperty(FIND_BY_ID_WINDOW);
+        Hystrix.reset();
+    }
+
+    @Test
+    public void testReadsAndWritesInSeparatePools() {
+        AtomicReference<String> readThread = new AtomicReference<>();
+        AtomicReference<String> writeThread = new AtomicReference<>();
+        willAnswer(invocation -> {
+            readThread.set(Thread.currentThread().getName());
+            return Lists.newArrayList(purchase);
+        }).given(purchaseRepository).getPurchasesDetailByPurchasesIds(1L);
+        willAnswer(invocation -> {
+            writeThread.set(Thread.currentThread().getName());
+            return purchase;
+        }).given(purchaseRepository).save(purchase);
+
+        Assert.assertEquals(purchase, hystrixPurchaseRepository.findById(1L));
+        Assert.assertEquals(purchase, hystrixPurchaseRepository.save(purchase));
+
+        Assert.assertTrue(readThread.get(), readThread.get().startsWith("hystrix-" + HystrixPurchaseDAO.READ_POOL_KEY));
+        Assert.assertTrue(writeThread.get(), writeThread.get().startsWith("hystrix-" + HystrixPurchaseDAO.WRITE_POOL_KEY));
+    }
+
+    @Test
+    public void testFindByIdCollapsed() throws Exception {
+        IPurchaseDAO inMemoryPurchaseRepository = Mockito.spy(new InMemoryPurchaseDAO());
+        LongStream.rangeClosed(1, 5).forEach(id -> inMemoryPurchaseRepository.save(new Purchase(id, "Cake", new Date(), Lists.newArrayList())));
+        HystrixPurchaseDAO collapsingPurchaseRepository = new HystrixPurchaseDAO(inMemoryPurchaseRepository);
+
+        int lookups = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(lookups);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<CompletableFuture<Purchase>> purchases = IntStream.range(0, lookups)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                        Uninterruptibles.awaitUninterruptibly(start);
+                        return collapsingPurchaseRepository.findById(i == 0 ? 99L : (i % 5) + 1L);
+                    }, executor))
+                    .collect(Collectors.toList());
+            start.countDown();
+
+            Assert.assertNull(purchases.get(0).get()); // not found
+            for (int i = 1; i < lookups; i++) {
+                Assert.assertEquals(Long.valueOf((i % 5) + 1L), purchases.get(i).get().getId());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        long batches = Mockito.mockingDetails(inMemoryPurchaseRepository).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("getPurchasesDetailByPurchasesIds"))
+                .count();
+        Assert.assertTrue("batches " + batches, batches >= 1 && batches < lookups);
+        Mockito.verify(inMemoryPurchaseRepository, Mockito.never()).findById(Mockito.anyLong());
+    }
+
+    @Test(expected = DataIntegrityViolationException.class)
+    public void testBusinessExceptionRethrown() {
+        given(purchaseRepository.save(purchase)).willThrow(new DataIntegrityViolationException("Purchase id already in use"));
+        hystrixPurchaseRepository.save(purchase);
+    }
+
+    @Test(expected = ServiceUnavailableException.class)
+    public void testFailureThrownAsServiceUnavailable() {
+        given(purchaseRepository.findExistingIds(Lists.newArrayList(1L))).willThrow(new IllegalStateException("Connection refused"));
+        hystrixPurchaseRepository.findExistingIds(Lists.newArrayList(1L));
+    }
+
+    @Test(expected = ServiceUnavailableException.class)
+    public void testTimeoutThrownAsServiceUnavailable() {
+        ConfigurationManager.getConfigInstance().setProperty(EXISTS_TIMEOUT, 50);
+        willAnswer(invocation -> {
+            Thread.sleep(1000);
+            return true;
+        }).given(purchaseRepository).exists(1L);
+
+        hystrixPurchaseRepository.exists(1L);
+    }
+
+}
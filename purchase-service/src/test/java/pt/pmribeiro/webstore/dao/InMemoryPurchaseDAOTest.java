@@ -0,0 +1,341 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ValidationException;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class InMemoryPurchaseDAOTest {
+
+    private InMemoryPurchaseDAO purchaseRepository;
+
+    private Purchase validPurchase;
+    private Purchase invalidPurchase;
+
+    @Before
+    public void setUp() {
+        purchaseRepository = new InMemoryPurchaseDAO();
+        assertNotNull(purchaseRepository);
+
+        long now = System.currentTimeMillis();
+        validPurchase = Purchase.builder().id(1L).productType("Bakery").expires(new Date(now + 60000)).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(1).value(500.00).build(),
+                        PurchaseDetail.builder().id(2L).description("Candles").quantity(10).value(5.00).build()
+                )
+        ).build();
+        invalidPurchase = Purchase.builder().id(2L).productType("Gadget").expires(new Date(now - 60000)).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("IPhone 7 64Gb").quantity(1).value(700.00).build()
+                )
+        ).build();
+
+        purchaseRepository.save(validPurchase);
+        purchaseRepository.save(invalidPurchase);
+    }
+
+    @Test
+    public void testGetAll() {
+        List<Purchase> purchases = purchaseRepository.getAll();
+        Assert.assertEquals(Sets.newHashSet(validPurchase, invalidPurchase), Sets.newHashSet(purchases));
+    }
+
+    @Test
+    public void testGetValidPurchasesDetail() {
+        Assert.assertEquals(Lists.newArrayList(validPurchase), purchaseRepository.getValidPurchasesDetail(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testGetValidPurchasesDetailPage() {
+        Purchase nextPurchase = Purchase.builder().id(3L).productType("Bakery").expires(validPurchase.getExpires()).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("Cup cake").quantity(5).value(10.00).build()
+                )
+        ).build();
+        purchaseRepository.save(nextPurchase);
+
+        long now = System.currentTimeMillis();
+        Assert.assertEquals(Lists.newArrayList(validPurchase), purchaseRepository.getValidPurchasesDetailPage(now, null, 1));
+        Assert.assertEquals(Lists.newArrayList(nextPurchase), purchaseRepository.getValidPurchasesDetailPage(now, PurchaseCursor.of(validPurchase), 1));
+        Assert.assertTrue(purchaseRepository.getValidPurchasesDetailPage(now, PurchaseCursor.of(nextPurchase), 1).isEmpty());
+    }
+
+    @Test
+    public void testStreamValidPurchasesDetail() {
+        Purchase purchaseWithoutDetails = Purchase.builder().id(3L).productType("Bakery").expires(validPurchase.getExpires())
+                .purchaseDetails(Lists.newArrayList()).build();
+        purchaseRepository.save(purchaseWithoutDetails);
+
+        List<Purchase> streamed = Lists.newArrayList();
+        purchaseRepository.streamValidPurchasesDetail(System.currentTimeMillis(), streamed::add);
+        Assert.assertEquals(Lists.newArrayList(validPurchase, purchaseWithoutDetails), streamed);
+    }
+
+    @Test
+    public void testGetPurchasesDetailByPurchasesIds() {
+        Assert.assertEquals(Lists.newArrayList(validPurchase, invalidPurchase), purchaseRepository.getPurchasesDetailByPurchasesIds(1L, 2L, 3L));
+        Assert.assertTrue(purchaseRepository.getPurchasesDetailByPurchasesIds().isEmpty());
+    }
+
+    @Test
+    public void testFindById() {
+        Assert.assertEquals(validPurchase, purchaseRepository.findById(1L));
+        Assert.assertNull(purchaseRepository.findById(3L));
+    }
+
+    @Test(expected = DataIntegrityViolationException.class)
+    public void testSaveDataIntegrityViolationException() {
+        purchaseRepository.save(validPurchase);
+    }
+
+    @Test
+    public void testInsertIfAbsent() {
+        Purchase nextPurchase = Purchase.builder().id(3L).productType("Bakery").expires(validPurchase.getExpires())
+                .purchaseDetails(Lists.newArrayList()).build();
+        Assert.assertTrue(purchaseRepository.insertIfAbsent(nextPurchase));
+        Assert.assertEquals(nextPurchase, purchaseRepository.findById(3L));
+
+        Purchase otherPurchase = Purchase.builder().id(3L).productType("Tools").expires(validPurchase.getExpires())
+                .purchaseDetails(Lists.newArrayList()).build();
+        Assert.assertFalse(purchaseRepository.insertIfAbsent(otherPurchase));
+        Assert.assertEquals(nextPurchase, purchaseRepository.findById(3L));
+    }
+
+    @Test
+    public void testSaveAll() {
+        Purchase nextPurchase = Purchase.builder().id(3L).productType("Bakery").expires(validPurchase.getExpires()).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("Cup cake").quantity(5).value(10.00).build()
+                )
+        ).build();
+        Purchase purchaseWithoutDetails = Purchase.builder().id(4L).productType("Bakery").expires(validPurchase.getExpires())
+                .purchaseDetails(Lists.newArrayList()).build();
+
+        purchaseRepository.saveAll(Lists.newArrayList(nextPurchase, purchaseWithoutDetails));
+        Assert.assertEquals(nextPurchase, purchaseRepository.findById(3L));
+        Assert.assertEquals(purchaseWithoutDetails, purchaseRepository.findById(4L));
+    }
+
+    @Test
+    public void testSaveRepeatedDetailIdValidationException() {
+        Purchase purchase = Purchase.builder().id(3L).productType("Bakery").expires(new Date()).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("Cake").quantity(1).value(50.00).build(),
+                        PurchaseDetail.builder().id(1L).description("Candles").quantity(10).value(5.00).build()
+                )
+        ).build();
+        try {
+            purchaseRepository.saveAll(Lists.newArrayList(purchase));
+            Assert.fail("repeated detail id saved");
+        } catch (ValidationException e) {
+            Assert.assertEquals("PurchaseDetail id is repeated", e.getErrors().getFieldError("purchaseDetails").getDefaultMessage());
+        }
+        try {
+            purchaseRepository.insertIfAbsent(purchase);
+            Assert.fail("repeated detail id saved");
+        } catch (ValidationException e) {
+            Assert.assertFalse(purchaseRepository.exists(3L));
+        }
+    }
+
+    @Test
+    public void testSaveAllDataIntegrityViolationException() {
+        Purchase nextPurchase = Purchase.builder().id(3L).productType("Bakery").expires(validPurchase.getExpires())
+                .purchaseDetails(Lists.newArrayList()).build();
+        try {
+            purchaseRepository.saveAll(Lists.newArrayList(nextPurchase, validPurchase));
+            Assert.fail("DataIntegrityViolationException expected");
+        } catch (DataIntegrityViolationException e) {
+            Assert.assertFalse(purchaseRepository.exists(3L)); // the whole batch is rolled back
+        }
+    }
+
+    @Test
+    public void testSaveAllRepeatedIdDataIntegrityViolationException() {
+        Purchase nextPurchase = Purchase.builder().id(3L).productType("Bakery").expires(validPurchase.getExpires())
+                .purchaseDetails(Lists.newArrayList()).build();
+        Purchase repeatedPurchase = Purchase.builder().id(3L).productType("Gadget").expires(validPurchase.getExpires())
+                .purchaseDetails(Lists.newArrayList()).build();
+        try {
+            purchaseRepository.saveAll(Lists.newArrayList(nextPurchase, repeatedPurchase));
+            Assert.fail("DataIntegrityViolationException expected");
+        } catch (DataIntegrityViolationException e) {
+            Assert.assertFalse(purchaseRepository.exists(3L)); // checked before any purchase is saved
+        }
+    }
+
+    @Test
+    public void testFindExistingIds() {
+        Assert.assertEquals(Sets.newHashSet(1L), purchaseRepository.findExistingIds(Lists.newArrayList(1L, 3L)));
+        Assert.assertTrue(purchaseRepository.findExistingIds(Lists.newArrayList()).isEmpty());
+    }
+
+    @Test
+    public void testUpdate() {
+        validPurchase.setProductType("Cake");
+        validPurchase.setPurchaseDetails(Lists.newArrayList(
+                PurchaseDetail.builder().id(3L).description("XL wedding cake").quantity(2).value(600.00).build()
+        ));
+        purchaseRepository.update(validPurchase);
+        Assert.assertEquals(validPurchase, purchaseRepository.findById(1L));
+    }
+
+    @Test
+    public void testUpdateExpires() {
+        invalidPurchase.setExpires(validPurchase.getExpires());
+        purchaseRepository.update(invalidPurchase);
+        Assert.assertEquals(Lists.newArrayList(1L, 2L), purchaseRepository.getValidPurchasesDetail(System.currentTimeMillis()).stream()
+                .map(Purchase::getId).sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testConcurrentSave() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> saved = Lists.newArrayList();
+            for (int i = 0; i < 1000; i++) {
+                long id = 3L + i % 100; // each id is saved by 10 concurrent calls
+                saved.add(executor.submit(() -> {
+                    try {
+                        purchaseRepository.save(Purchase.builder().id(id).productType("Bakery").expires(validPurchase.getExpires())
+                                .purchaseDetails(Lists.newArrayList()).build());
+                        return true;
+                    } catch (DataIntegrityViolationException e) {
+                        return false;
+                    }
+                }));
+            }
+
+            int savedCount = 0;
+            for (Future<Boolean> result : saved) {
+                savedCount += result.get() ? 1 : 0;
+            }
+            Assert.assertEquals(100, savedCount);
+            Assert.assertEquals(102, purchaseRepository.getAll().size());
+            Assert.assertEquals(101, purchaseRepository.getValidPurchasesDetail(System.currentTimeMillis()).size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testUpdateNotFoundException() {
+        validPurchase.setId(3L);
+        purchaseRepository.update(validPurchase);
+    }
+
+    @Test
+    public void testUpdateIfVersion() {
+        Assert.assertEquals(Long.valueOf(1L), purchaseRepository.findById(1L).getVersion());
+
+        Purchase changes = Purchase.builder().id(1L).productType("Cake").expires(validPurchase.getExpires()).purchaseDetails(Lists.newArrayList(
+                PurchaseDetail.builder().id(3L).description("XL wedding cake").quantity(2).value(600.00).build()
+        )).build();
+        Assert.assertEquals(Long.valueOf(2L), purchaseRepository.updateIfVersion(changes, 1L).getVersion());
+        Assert.assertEquals(changes, purchaseRepository.findById(1L));
+
+        try {
+            purchaseRepository.updateIfVersion(Purchase.builder().id(1L).productType("Tools").expires(validPurchase.getExpires())
+                    .purchaseDetails(Lists.newArrayList()).build(), 1L);
+            Assert.fail("PreconditionFailedException expected");
+        } catch (PreconditionFailedException e) {
+            Assert.assertEquals(changes, purchaseRepository.findById(1L)); // not changed
+        }
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testUpdateIfVersionNotFoundException() {
+        validPurchase.setId(3L);
+        purchaseRepository.updateIfVersion(validPurchase, 1L);
+    }
+
+    @Test
+    public void testPatch() {
+        Map<Long, PurchaseDetail> detailChanges = Maps.newLinkedHashMap();
+        detailChanges.put(1L, PurchaseDetail.builder().quantity(2).build());
+        detailChanges.put(2L, null);
+        detailChanges.put(3L, PurchaseDetail.builder().description("Cake topper").quantity(1).value(15.00).build());
+
+        Purchase patched = purchaseRepository.patch(PurchasePatch.builder().id(1L).detailChanges(detailChanges).expectedVersion(1L).build());
+        Assert.assertEquals(Long.valueOf(2L), patched.getVersion());
+        Assert.assertEquals("Bakery", patched.getProductType()); // not in the patch
+        Assert.assertEquals(Sets.newHashSet(
+                PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(2).value(500.00).build(),
+                PurchaseDetail.builder().id(3L).description("Cake topper").quantity(1).value(15.00).build()
+        ), Sets.newHashSet(purchaseRepository.findById(1L).getPurchaseDetails()));
+
+        try {
+            purchaseRepository.patch(PurchasePatch.builder().id(1L).productType("Tools").expectedVersion(1L).build());
+            Assert.fail("PreconditionFailedException expected");
+        } catch (PreconditionFailedException e) {
+            Assert.assertEquals("Bakery", purchaseRepository.findById(1L).getProductType()); // not changed
+        }
+    }
+
+    @Test
+    public void testPatchValidationException() {
+        Map<Long, PurchaseDetail> newDetail = Maps.newHashMap();
+        newDetail.put(3L, PurchaseDetail.builder().quantity(1).build());
+        Map<Long, PurchaseDetail> allRemoved = Maps.newHashMap();
+        allRemoved.put(1L, null);
+        allRemoved.put(2L, null);
+        List<Map<Long, PurchaseDetail>> invalidChanges = Lists.newArrayList();
+        invalidChanges.add(newDetail);
+        invalidChanges.add(allRemoved);
+
+        for (Map<Long, PurchaseDetail> detailChanges : invalidChanges) {
+            try {
+                purchaseRepository.patch(PurchasePatch.builder().id(1L).productType("Tools").detailChanges(detailChanges).build());
+                Assert.fail("ValidationException expected");
+            } catch (ValidationException e) {
+                Purchase purchase = purchaseRepository.findById(1L);
+                Assert.assertEquals("Bakery", purchase.getProductType()); // not changed
+                Assert.assertEquals(Long.valueOf(1L), purchase.getVersion());
+                Assert.assertEquals(2, purchase.getPurchaseDetails().size());
+            }
+        }
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testPatchNotFoundException() {
+        purchaseRepository.patch(PurchasePatch.builder().id(3L).productType("Tools").build());
+    }
+
+    @Test
+    public void testRemoveExpired() {
+        Assert.assertEquals(1, purchaseRepository.removeExpired(Lists.newArrayList(1L, 2L, 3L), System.currentTimeMillis()));
+        Assert.assertTrue(purchaseRepository.exists(1L)); // not expired yet
+        Assert.assertFalse(purchaseRepository.exists(2L));
+        Assert.assertEquals(1, purchaseRepository.getAll().size());
+    }
+
+    @Test
+    public void testExists() {
+        Assert.assertTrue(purchaseRepository.exists(1L));
+        Assert.assertFalse(purchaseRepository.exists(3L));
+    }
+
+}
@@ -0,0 +1,128 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class PurchaseArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private PurchaseArchive archive;
+
+    private static Purchase purchase(long id) {
+        return Purchase.builder().id(id).productType("Bakery").expires(new Date(id * 1000)).version(2L).purchaseDetails(
+                Lists.newArrayList(
+                        PurchaseDetail.builder().id(1L).description("XXL wedding cake").quantity(1).value(500.00).build(),
+                        PurchaseDetail.builder().id(2L).description("Velas de aniversário").quantity(10).value(5.00).build()
+                )
+        ).build();
+    }
+
+    private static List<Purchase> purchases(long from, long to) {
+        return LongStream.rangeClosed(from, to).mapToObj(PurchaseArchiveTest::purchase).collect(Collectors.toList());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder().toPath();
+        archive = new PurchaseArchive(directory, 1024, 4);
+    }
+
+    @Test
+    public void testFind() {
+        List<Purchase> purchases = purchases(1, 10);
+        archive.append(Lists.reverse(purchases));
+
+        Assert.assertEquals(10, archive.size());
+        for (Purchase purchase : purchases) {
+            Assert.assertEquals(purchase, archive.find(purchase.getId()).orElse(null));
+        }
+        Assert.assertFalse(archive.find(11L).isPresent());
+    }
+
+    @Test
+    public void testFindLastVersion() {
+        archive.append(purchases(1, 3));
+        Purchase renewed = purchase(2);
+        renewed.setVersion(3L);
+        renewed.setProductType(null);
+        renewed.getPurchaseDetails().get(0).setQuantity(null);
+        archive.append(Lists.newArrayList(renewed));
+
+        Assert.assertEquals(renewed, archive.find(2L).orElse(null));
+    }
+
+    @Test
+    public void testFindOverlappingBlocks() {
+        List<Purchase> purchases = purchases(1, 40);
+        archive.append(purchases.stream().filter(purchase -> purchase.getId() % 2 == 0).collect(Collectors.toList()));
+        archive.append(purchases.stream().filter(purchase -> purchase.getId() % 2 == 1).collect(Collectors.toList()));
+        archive.append(purchases(18, 18));
+
+        for (Purchase purchase : purchases) {
+            Assert.assertEquals(purchase, archive.find(purchase.getId()).orElse(null));
+        }
+        Assert.assertFalse(archive.find(0L).isPresent());
+        Assert.assertFalse(archive.find(41L).isPresent());
+    }
+
+    @Test
+    public void testCorruptedBlockIgnored() throws Exception {
+        archive = new PurchaseArchive(directory, 4096, 4); // both blocks in the first segment
+        archive.append(purchases(1, 4));
+        archive.append(purchases(5, 8));
+        archive.close();
+
+        try (RandomAccessFile segment = new RandomAccessFile(directory.resolve("purchases-00000001.segment").toFile(), "rw")) {
+            long secondBlock = segment.readInt();
+            segment.seek(secondBlock + 50); // a record of the second block
+            int value = segment.read();
+            segment.seek(secondBlock + 50);
+            segment.write(value ^ 0xFF);
+        }
+
+        PurchaseArchive reopened = new PurchaseArchive(directory, 4096, 4);
+        Assert.assertEquals(4, reopened.size());
+        Assert.assertEquals(purchase(4), reopened.find(4L).orElse(null));
+        Assert.assertFalse(reopened.find(5L).isPresent());
+
+        reopened.append(purchases(9, 9)); // written over the corrupted block
+        Assert.assertEquals(purchase(9), reopened.find(9L).orElse(null));
+        Assert.assertEquals(5, new PurchaseArchive(directory, 4096, 4).size());
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        archive.append(purchases(1, 40)); // records of about 100 bytes, several segments
+        archive.close();
+        Assert.assertTrue(Files.list(directory).count() > 1);
+
+        PurchaseArchive reopened = new PurchaseArchive(directory, 1024, 4);
+        Assert.assertEquals(40, reopened.size());
+        Assert.assertEquals(purchase(40), reopened.find(40L).orElse(null));
+
+        reopened.append(purchases(41, 41));
+        Assert.assertEquals(purchase(41), reopened.find(41L).orElse(null));
+        Assert.assertEquals(purchase(1), reopened.find(1L).orElse(null));
+    }
+
+}
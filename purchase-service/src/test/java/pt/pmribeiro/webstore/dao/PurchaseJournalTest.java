@@ -0,0 +1,181 @@
+package pt.pmribeiro.webstore.dao;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseDetail;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class PurchaseJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private PurchaseJournal journal;
+    private InMemoryPurchaseDAO purchaseRepository;
+    private long now;
+
+    private Purchase purchase(long id, long expires) {
+        return Purchase.builder().id(id).productType("Bakery").expires(new Date(expires)).purchaseDetails(
+                Lists.newArrayList(PurchaseDetail.builder().id(1L).description("Candles").quantity(10).value(5.00).build())
+        ).build();
+    }
+
+    private void restart() {
+        journal.close();
+        open();
+    }
+
+    private void open() {
+        journal = new PurchaseJournal(directory, 3600000); // snapshots taken by the test
+        purchaseRepository = new InMemoryPurchaseDAO(journal);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        now = System.currentTimeMillis();
+        directory = folder.newFolder().toPath();
+        open();
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    public void testReplayLog() {
+        purchaseRepository.save(purchase(1L, now + 60000));
+        purchaseRepository.save(purchase(2L, now - 60000));
+        purchaseRepository.update(purchase(1L, now + 120000));
+        purchaseRepository.removeExpired(Lists.newArrayList(2L), now);
+
+        restart();
+        Assert.assertEquals(1, purchaseRepository.getAll().size());
+        Purchase recovered = purchaseRepository.findById(1L);
+        Assert.assertEquals(now + 120000, recovered.getExpires().getTime());
+        Assert.assertEquals(Long.valueOf(2), recovered.getVersion());
+        Assert.assertEquals(Lists.newArrayList(recovered), purchaseRepository.getValidPurchasesDetail(now));
+    }
+
+    @Test
+    public void testReplaySnapshotAndLogTail() throws Exception {
+        purchaseRepository.save(purchase(1L, now + 60000));
+        purchaseRepository.save(purchase(2L, now + 60000));
+        journal.snapshot(purchaseRepository::getAll);
+        purchaseRepository.update(purchase(2L, now + 120000));
+        purchaseRepository.save(purchase(3L, now + 60000));
+
+        restart();
+        Assert.assertEquals(3, purchaseRepository.getAll().size());
+        Assert.assertEquals(Long.valueOf(2), purchaseRepository.findById(2L).getVersion());
+
+        journal.snapshot(purchaseRepository::getAll); // the previous snapshot and logs are deleted
+        Assert.assertEquals(1, Files.list(directory).filter(file -> file.toString().endsWith(".bin")).count());
+        restart();
+        Assert.assertEquals(3, purchaseRepository.getAll().size());
+    }
+
+    @Test
+    public void testTornRecordIgnored() throws Exception {
+        purchaseRepository.save(purchase(1L, now + 60000));
+        purchaseRepository.save(purchase(2L, now + 60000));
+        journal.close();
+
+        Path log = Files.list(directory).filter(file -> file.toString().endsWith(".wal")).findFirst().get();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3); // crash in the middle of the last record
+        }
+        open();
+        Assert.assertNotNull(purchaseRepository.findById(1L));
+        Assert.assertNull(purchaseRepository.findById(2L));
+    }
+
+    @Test
+    public void testTornBatchIgnored() throws Exception {
+        purchaseRepository.save(purchase(1L, now + 60000));
+        purchaseRepository.saveAll(Lists.newArrayList(purchase(2L, now + 60000), purchase(3L, now + 60000)));
+        journal.close();
+
+        Path log = Files.list(directory).filter(file -> file.toString().endsWith(".wal")).findFirst().get();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3); // crash in the middle of the batch
+        }
+        open();
+        Assert.assertNotNull(purchaseRepository.findById(1L));
+        Assert.assertNull(purchaseRepository.findById(2L));
+        Assert.assertNull(purchaseRepository.findById(3L));
+    }
+
+    @Test
+    public void testWriteNotAppliedWhenNotLogged() {
+        purchaseRepository.save(purchase(1L, now + 60000));
+        journal.close();
+
+        try {
+            purchaseRepository.update(purchase(1L, now + 120000));
+            Assert.fail("update applied without the log");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(now + 60000, purchaseRepository.findById(1L).getExpires().getTime());
+        }
+        try {
+            purchaseRepository.save(purchase(2L, now + 60000));
+            Assert.fail("save applied without the log");
+        } catch (IllegalStateException e) {
+            Assert.assertFalse(purchaseRepository.exists(2L));
+        }
+    }
+
+    @Test
+    public void testIsEmpty() {
+        Assert.assertTrue(journal.isEmpty());
+        purchaseRepository.save(purchase(1L, now - 60000));
+        purchaseRepository.removeExpired(Lists.newArrayList(1L), now);
+
+        restart();
+        Assert.assertTrue(purchaseRepository.getAll().isEmpty());
+        Assert.assertFalse(journal.isEmpty()); // written before, even if nothing is left
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Purchase>> saves = Lists.newArrayList();
+            for (long id = 1; id <= 200; id++) {
+                Purchase purchase = purchase(id, now + 60000);
+                saves.add(executor.submit(() -> purchaseRepository.save(purchase)));
+            }
+            for (Future<Purchase> save : saves) {
+                save.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        restart();
+        List<Long> ids = purchaseRepository.getAll().stream().map(Purchase::getId).sorted().collect(Collectors.toList());
+        Assert.assertEquals(200, ids.size());
+        Assert.assertEquals(Long.valueOf(200), ids.get(199));
+    }
+
+}
@@ -1,23 +1,43 @@
 package pt.pmribeiro.webstore.service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.beans.factory.annotation.Autowired;
+import pt.pmribeiro.webstore.dao.IAsyncPurchaseDAO;
 import pt.pmribeiro.webstore.dao.IPurchaseDAO;
 import pt.pmribeiro.webstore.dto.Purchase;
+import pt.pmribeiro.webstore.dto.PurchaseBatchResult;
+import pt.pmribeiro.webstore.dto.PurchaseCursor;
+import pt.pmribeiro.webstore.dto.PurchasePage;
+import pt.pmribeiro.webstore.dto.PurchasePatch;
+import pt.pmribeiro.webstore.dto.Snapshot;
 import pt.pmribeiro.webstore.exceptions.DataIntegrityViolationException;
+import pt.pmribeiro.webstore.exceptions.NotFoundException;
+import pt.pmribeiro.webstore.exceptions.PreconditionFailedException;
+import pt.pmribeiro.webstore.exceptions.ServiceUnavailableException;
 import pt.pmribeiro.webstore.exceptions.ValidationException;
 
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 /**
  * Created by pribeiro on 26/11/2016.
@@ -30,6 +50,15 @@ public class PurchaseServiceTest {
     @Mock
     private IPurchaseDAO purchaseRepository;
 
+    @Mock
+    private IAsyncPurchaseDAO asyncPurchaseRepository;
+
+    @Spy
+    private SingleFlight<List<Purchase>> validPurchasesFlight = new SingleFlight<>(0);
+
+    @Spy
+    private LastKnownPurchases lastKnownPurchases = new LastKnownPurchases(100);
+
     @InjectMocks
     @Autowired
     private PurchaseService purchaseService;
@@ -37,7 +66,6 @@ public class PurchaseServiceTest {
     private List<Purchase> validPurchaseList;
     private List<Purchase> invalidPurchaseList;
     private List<Purchase> completePurchaseList;
-    private Long[] validPurchasesIds;
 
     @Before
     public void setUp() {
@@ -49,7 +77,6 @@ public class PurchaseServiceTest {
         assertNotNull(validPurchaseList);
         assertNotNull(invalidPurchaseList);
         assertNotNull(completePurchaseList);
-        assertNotNull(validPurchasesIds);
     }
 
     private void initTestData() {
@@ -66,61 +93,246 @@ public class PurchaseServiceTest {
 
         completePurchaseList = Lists.newArrayList(validPurchaseList);
         completePurchaseList.addAll(invalidPurchaseList);
+    }
 
-        validPurchasesIds = validPurchaseList.stream().map(p -> p.getId()).toArray(size -> new Long[size]);
+    @Test
+    public void testGetValidPurchases(){
+        given(purchaseRepository.getValidPurchasesDetail(anyLong())).willReturn(validPurchaseList);
+
+        Snapshot<List<Purchase>> snapshot = purchaseService.getValidPurchases();
+        Assert.assertFalse(snapshot.isStale());
+        List validPurchases = snapshot.getValue();
+        assertNotNull(validPurchases);
+        Assert.assertEquals(1, validPurchases.size());
+        Assert.assertEquals(validPurchaseList, validPurchases);
+        verify(purchaseRepository).getValidPurchasesDetail(anyLong());
+        verifyNoMoreInteractions(purchaseRepository);
     }
 
     @Test
-    public void testGetValidPurchasesIds() {
-        Assert.assertArrayEquals(validPurchasesIds, purchaseService.getValidPurchasesIds(completePurchaseList));
+    public void testGetValidPurchasesAsync() throws Exception {
+        given(asyncPurchaseRepository.getValidPurchasesDetail(anyLong())).willReturn(CompletableFuture.completedFuture(validPurchaseList));
+        Assert.assertEquals(validPurchaseList, purchaseService.getValidPurchasesAsync().get().getValue());
+        verifyNoMoreInteractions(purchaseRepository);
     }
 
     @Test
-    public void testGetValidPurchases(){
-        given(purchaseRepository.getAll()).willReturn(completePurchaseList);
-        Assert.assertEquals(completePurchaseList, purchaseRepository.getAll());
+    public void testGetStaleValidPurchases() {
+        given(purchaseRepository.getValidPurchasesDetail(anyLong())).willReturn(completePurchaseList)
+                .willThrow(new ServiceUnavailableException("Purchase database is unavailable"));
+        given(asyncPurchaseRepository.getValidPurchasesDetail(anyLong())).willReturn(new CompletableFuture<>());
+        purchaseService.getValidPurchases();
 
-        given(purchaseRepository.getPurchasesDetailByPurchasesIds(validPurchasesIds)).willReturn(validPurchaseList);
-        Assert.assertEquals(validPurchaseList, purchaseRepository.getPurchasesDetailByPurchasesIds(validPurchasesIds));
+        Snapshot<List<Purchase>> snapshot = purchaseService.getValidPurchases();
+        Assert.assertTrue(snapshot.isStale());
+        Assert.assertEquals(validPurchaseList, snapshot.getValue()); // the expired purchases are removed
+        verify(asyncPurchaseRepository).getValidPurchasesDetail(anyLong()); // refreshed in background
+    }
 
-        List validPurchases = purchaseService.getValidPurchases();
-        assertNotNull(validPurchases);
-        Assert.assertEquals(1, validPurchases.size());
-        Assert.assertEquals(validPurchaseList, validPurchases);
+    @Test(expected = ServiceUnavailableException.class)
+    public void testGetStaleValidPurchasesNeverRead() {
+        given(purchaseRepository.getValidPurchasesDetail(anyLong())).willThrow(new ServiceUnavailableException("Purchase database is unavailable"));
+        given(asyncPurchaseRepository.getValidPurchasesDetail(anyLong())).willReturn(new CompletableFuture<>());
+        purchaseService.getValidPurchases();
+    }
+
+    @Test
+    public void testGetValidPurchasesAsyncStale() throws Exception {
+        CompletableFuture<List<Purchase>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new ServiceUnavailableException("Purchase database didn't answer within 2000ms"));
+        CompletableFuture<List<Purchase>> pending = new CompletableFuture<>();
+        given(asyncPurchaseRepository.getValidPurchasesDetail(anyLong()))
+                .willReturn(CompletableFuture.completedFuture(validPurchaseList))
+                .willReturn(failed)
+                .willReturn(pending);
+
+        Assert.assertFalse(purchaseService.getValidPurchasesAsync().get().isStale());
+
+        // the failed call is answered with the last known valid purchases
+        Snapshot<List<Purchase>> snapshot = purchaseService.getValidPurchasesAsync().get();
+        Assert.assertTrue(snapshot.isStale());
+        Assert.assertEquals(validPurchaseList, snapshot.getValue());
+
+        // while unavailable the stale purchases are served without waiting for the refresh
+        Assert.assertTrue(purchaseService.getValidPurchasesAsync().get().isStale());
+        Assert.assertTrue(purchaseService.getValidPurchasesAsync().get().isStale());
+        verify(asyncPurchaseRepository, times(3)).getValidPurchasesDetail(anyLong());
+
+        pending.complete(completePurchaseList);
+        snapshot = purchaseService.getValidPurchasesAsync().get();
+        Assert.assertFalse(snapshot.isStale());
+        Assert.assertEquals(completePurchaseList, snapshot.getValue());
+    }
+
+    @Test
+    public void testGetValidPurchasesAsyncCoalesced() throws Exception {
+        CompletableFuture<List<Purchase>> pending = new CompletableFuture<>();
+        given(asyncPurchaseRepository.getValidPurchasesDetail(anyLong())).willReturn(pending);
+
+        CompletableFuture<Snapshot<List<Purchase>>> first = purchaseService.getValidPurchasesAsync();
+        CompletableFuture<Snapshot<List<Purchase>>> second = purchaseService.getValidPurchasesAsync();
+        pending.complete(validPurchaseList);
+
+        Assert.assertEquals(validPurchaseList, first.get().getValue());
+        Assert.assertSame(first.get().getValue(), second.get().getValue());
+        verify(asyncPurchaseRepository).getValidPurchasesDetail(anyLong());
+    }
+
+    @Test
+    public void testGetValidPurchasesPageAsync() throws Exception {
+        given(asyncPurchaseRepository.getValidPurchasesDetailPage(anyLong(), isNull(), eq(2))).willReturn(CompletableFuture.completedFuture(completePurchaseList));
+        PurchasePage page = purchaseService.getValidPurchasesPageAsync(null, 1).get();
+        Assert.assertEquals(validPurchaseList, page.getPurchases());
+        Assert.assertEquals(PurchaseCursor.of(validPurchaseList.get(0)), page.getNextCursor());
+
+        given(asyncPurchaseRepository.getValidPurchasesDetailPage(anyLong(), isNull(), eq(3))).willReturn(CompletableFuture.completedFuture(completePurchaseList));
+        page = purchaseService.getValidPurchasesPageAsync(null, 2).get();
+        Assert.assertEquals(completePurchaseList, page.getPurchases());
+        Assert.assertNull(page.getNextCursor());
     }
 
     @Test
     public void testFindPurchaseById() {
         given(purchaseRepository.findById(1L)).willReturn(validPurchaseList.get(0));
-        Assert.assertEquals(validPurchaseList.get(0), purchaseService.findPurchaseById(1L));
+        Assert.assertEquals(validPurchaseList.get(0), purchaseService.findPurchaseById(1L).getValue());
+    }
+
+    @Test
+    public void testGetStalePurchase() {
+        given(purchaseRepository.findById(1L)).willReturn(validPurchaseList.get(0))
+                .willThrow(new ServiceUnavailableException("Purchase database is unavailable"));
+        given(asyncPurchaseRepository.findById(1L)).willReturn(new CompletableFuture<>());
+        purchaseService.findPurchaseById(1L);
+
+        Snapshot<Purchase> snapshot = purchaseService.findPurchaseById(1L);
+        Assert.assertTrue(snapshot.isStale());
+        Assert.assertEquals(validPurchaseList.get(0), snapshot.getValue());
+
+        purchaseService.findPurchaseById(1L);
+        verify(asyncPurchaseRepository).findById(1L); // a single refresh in background
+    }
+
+    @Test
+    public void testGetStalePurchaseAfterUpdate() {
+        Purchase purchase = new Purchase(1L, "Cake", validPurchaseList.get(0).getExpires(), Lists.newArrayList());
+        purchase.setVersion(1L);
+        Purchase updated = new Purchase(1L, "Cake", validPurchaseList.get(0).getExpires(), Lists.newArrayList());
+        updated.setVersion(2L);
+        given(purchaseRepository.findById(1L)).willReturn(purchase)
+                .willThrow(new ServiceUnavailableException("Purchase database is unavailable"));
+        given(purchaseRepository.updateIfVersion(updated, 1L)).willReturn(updated);
+        given(asyncPurchaseRepository.findById(1L)).willReturn(CompletableFuture.completedFuture(purchase)); // read before the update
+        purchaseService.findPurchaseById(1L);
+        purchaseService.updatePurchase(updated, 1L);
+
+        Assert.assertEquals(Long.valueOf(2), purchaseService.findPurchaseById(1L).getValue().getVersion());
+        Assert.assertEquals(Long.valueOf(2), purchaseService.findPurchaseById(1L).getValue().getVersion());
+    }
+
+    @Test
+    public void testFindPurchaseByIdAsync() throws Exception {
+        given(asyncPurchaseRepository.findById(1L)).willReturn(CompletableFuture.completedFuture(validPurchaseList.get(0)));
+        Snapshot<Purchase> snapshot = purchaseService.findPurchaseByIdAsync(1L).get();
+        Assert.assertFalse(snapshot.isStale());
+        Assert.assertEquals(validPurchaseList.get(0), snapshot.getValue());
+    }
+
+    @Test
+    public void testFindPurchaseByIdAsyncNotFound() throws Exception {
+        given(asyncPurchaseRepository.findById(10L)).willReturn(CompletableFuture.completedFuture(null));
+        try {
+            purchaseService.findPurchaseByIdAsync(10L).get();
+            Assert.fail("Purchase found");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof NotFoundException);
+        }
+    }
+
+    @Test
+    public void testGetStalePurchaseAsync() throws Exception {
+        CompletableFuture<Purchase> unavailable = new CompletableFuture<>();
+        unavailable.completeExceptionally(new ServiceUnavailableException("Purchase database is unavailable"));
+        given(asyncPurchaseRepository.findById(1L)).willReturn(CompletableFuture.completedFuture(validPurchaseList.get(0)))
+                .willReturn(unavailable);
+        purchaseService.findPurchaseByIdAsync(1L).get();
+
+        Snapshot<Purchase> snapshot = purchaseService.findPurchaseByIdAsync(1L).get();
+        Assert.assertTrue(snapshot.isStale());
+        Assert.assertEquals(validPurchaseList.get(0), snapshot.getValue());
+    }
+
+    @Test(expected = ServiceUnavailableException.class)
+    public void testGetStalePurchaseNeverRead() {
+        given(purchaseRepository.findById(1L)).willThrow(new ServiceUnavailableException("Purchase database is unavailable"));
+        given(asyncPurchaseRepository.findById(1L)).willReturn(new CompletableFuture<>());
+        purchaseService.findPurchaseById(1L);
     }
 
     @Test
     public void testCreatePurchase() {
-        given(purchaseRepository.exists(1L)).willReturn(false);
-        given(purchaseRepository.save(validPurchaseList.get(0))).willReturn(validPurchaseList.get(0));
+        given(purchaseRepository.insertIfAbsent(validPurchaseList.get(0))).willReturn(true);
         Assert.assertEquals(validPurchaseList.get(0), purchaseService.createPurchase(validPurchaseList.get(0)));
+        verify(purchaseRepository).insertIfAbsent(validPurchaseList.get(0));
+        verifyNoMoreInteractions(purchaseRepository); // a single call, no pre-check
     }
 
     @Test(expected=DataIntegrityViolationException.class)
     public void testCreatePurchaseDataIntegrityViolationException() {
-        given(purchaseRepository.exists(1L)).willReturn(true);
+        given(purchaseRepository.insertIfAbsent(validPurchaseList.get(0))).willReturn(false);
         purchaseService.createPurchase(validPurchaseList.get(0));
     }
 
     @Test(expected=ValidationException.class)
     public void testCreatePurchaseValidationException() {
-        given(purchaseRepository.exists(1L)).willReturn(false);
-        given(purchaseRepository.save(validPurchaseList.get(0))).willThrow(new ValidationException("", null));
+        given(purchaseRepository.insertIfAbsent(validPurchaseList.get(0))).willThrow(new ValidationException("", null));
         purchaseService.createPurchase(validPurchaseList.get(0));
     }
 
+    @Test
+    public void testCreatePurchases() {
+        Purchase newPurchase = new Purchase(3L, "Cake", null, Lists.newArrayList());
+        Purchase repeatedPurchase = new Purchase(3L, "Tools", null, Lists.newArrayList());
+        given(purchaseRepository.findExistingIds(Sets.newHashSet(1L, 3L))).willReturn(Sets.newHashSet(1L));
+
+        List<PurchaseBatchResult> results = purchaseService.createPurchases(Lists.newArrayList(validPurchaseList.get(0), newPurchase, repeatedPurchase));
+        Assert.assertEquals(Lists.newArrayList(409, 201, 409), results.stream().map(PurchaseBatchResult::getStatus).collect(Collectors.toList()));
+        Assert.assertNotNull(newPurchase.getExpires());
+        verify(purchaseRepository).findExistingIds(Sets.newHashSet(1L, 3L));
+        verify(purchaseRepository).saveAll(Lists.newArrayList(newPurchase));
+        verifyNoMoreInteractions(purchaseRepository);
+    }
+
     @Test
     public void testUpdatePurchase() {
         given(purchaseRepository.update(validPurchaseList.get(0))).willReturn(validPurchaseList.get(0));
         Assert.assertEquals(validPurchaseList.get(0), purchaseService.updatePurchase(validPurchaseList.get(0)));
     }
 
+    @Test
+    public void testUpdatePurchaseIfVersion() {
+        given(purchaseRepository.updateIfVersion(validPurchaseList.get(0), 1L)).willReturn(validPurchaseList.get(0));
+        Assert.assertEquals(validPurchaseList.get(0), purchaseService.updatePurchase(validPurchaseList.get(0), 1L));
+        Assert.assertNotNull(validPurchaseList.get(0).getExpires());
+        verify(purchaseRepository).updateIfVersion(validPurchaseList.get(0), 1L);
+        verifyNoMoreInteractions(purchaseRepository);
+    }
+
+    @Test(expected=PreconditionFailedException.class)
+    public void testUpdatePurchaseIfVersionPreconditionFailedException() {
+        given(purchaseRepository.updateIfVersion(validPurchaseList.get(0), 1L)).willThrow(new PreconditionFailedException("Purchase 1 version is 2, expected 1"));
+        purchaseService.updatePurchase(validPurchaseList.get(0), 1L);
+    }
+
+    @Test
+    public void testPatchPurchase() {
+        PurchasePatch patch = PurchasePatch.builder().id(1L).productType("Cake").build();
+        given(purchaseRepository.patch(patch)).willReturn(validPurchaseList.get(0));
+        Assert.assertEquals(validPurchaseList.get(0), purchaseService.patchPurchase(patch));
+        Assert.assertNotNull(patch.getExpires()); // renewed as the full update
+        verify(purchaseRepository).patch(patch);
+        verifyNoMoreInteractions(purchaseRepository);
+    }
+
     @Test(expected=ValidationException.class)
     public void testUpdatePurchaseValidationException() {
         given(purchaseRepository.update(validPurchaseList.get(0))).willThrow(new ValidationException("", null));
@@ -0,0 +1,81 @@
+package pt.pmribeiro.webstore.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Created by pribeiro on 18/10/2026.
+ */
+public class SingleFlightTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private Supplier<CompletableFuture<Integer>> call(CompletableFuture<Integer> result) {
+        return () -> {
+            calls.incrementAndGet();
+            return result;
+        };
+    }
+
+    @Test
+    public void testShareCallInFlight() throws Exception {
+        SingleFlight<Integer> singleFlight = new SingleFlight<>(0);
+        CompletableFuture<Integer> pending = new CompletableFuture<>();
+
+        CompletableFuture<Integer> first = singleFlight.get(call(pending));
+        CompletableFuture<Integer> second = singleFlight.get(call(pending));
+        Assert.assertFalse(second.isDone());
+        pending.complete(1);
+
+        Assert.assertEquals(Integer.valueOf(1), first.get());
+        Assert.assertEquals(Integer.valueOf(1), second.get());
+        Assert.assertEquals(1, calls.get());
+
+        Assert.assertEquals(Integer.valueOf(2), singleFlight.get(call(CompletableFuture.completedFuture(2))).get());
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testShareFreshResult() throws Exception {
+        SingleFlight<Integer> singleFlight = new SingleFlight<>(60000);
+
+        Assert.assertEquals(Integer.valueOf(1), singleFlight.get(call(CompletableFuture.completedFuture(1))).get());
+        Assert.assertEquals(Integer.valueOf(1), singleFlight.get(call(CompletableFuture.completedFuture(2))).get());
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testNotShareFailedResult() throws Exception {
+        SingleFlight<Integer> singleFlight = new SingleFlight<>(60000);
+        CompletableFuture<Integer> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException());
+
+        try {
+            singleFlight.get(call(failed)).get();
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(Integer.valueOf(1), singleFlight.get(call(CompletableFuture.completedFuture(1))).get());
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testCancelDoesNotAffectOtherCallers() throws Exception {
+        SingleFlight<Integer> singleFlight = new SingleFlight<>(0);
+        CompletableFuture<Integer> pending = new CompletableFuture<>();
+
+        singleFlight.get(call(pending)).cancel(true);
+        CompletableFuture<Integer> second = singleFlight.get(call(pending));
+        pending.complete(1);
+
+        Assert.assertEquals(Integer.valueOf(1), second.get());
+        Assert.assertEquals(1, calls.get());
+    }
+
+}